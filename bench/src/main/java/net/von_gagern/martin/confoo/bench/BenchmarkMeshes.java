@@ -0,0 +1,77 @@
+package net.von_gagern.martin.confoo.bench;
+
+import net.von_gagern.martin.confoo.conformal.Conformal;
+import net.von_gagern.martin.confoo.conformal.Geometry;
+import net.von_gagern.martin.confoo.mesh.CorneredTriangle;
+import net.von_gagern.martin.confoo.mesh.GeneratedMesh;
+import net.von_gagern.martin.confoo.mesh.IndexedMesh;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.mesh.MeshGenerator;
+
+/**
+ * Preparation of meshes shared by the benchmarks.
+ * Only the public API of Confoo is used, so the benchmarks measure
+ * what applications will see.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+class BenchmarkMeshes {
+
+    /**
+     * Create a perturbed grid.
+     * @param n the number of grid cells along each side
+     * @return a grid with <code>(n+1)^2</code> vertices
+     */
+    public static GeneratedMesh grid(int n) {
+        return MeshGenerator.perturbedGrid(n, 0.4, 42);
+    }
+
+    /**
+     * Create a transformer mapping a grid to a square.
+     * The corners have right angles in euclidean and half right
+     * angles in hyperbolic geometry.
+     * @param grid the grid as returned by {@link #grid}
+     * @param geometry the output geometry
+     * @return the configured transformer
+     * @throws MeshException if the mesh could not be constructed
+     */
+    public static Conformal<Integer> conformal(GeneratedMesh grid,
+                                               Geometry geometry)
+        throws MeshException
+    {
+        Conformal<Integer> c = Conformal.getInstance(grid);
+        c.setOutputGeometry(geometry);
+        double corner = geometry == Geometry.HYPERBOLIC ?
+            Math.PI/4 : Math.PI/2;
+        c.fixedBoundaryCurvature(grid.corners(corner));
+        return c;
+    }
+
+    /**
+     * Copy a generated mesh into primitive arrays.
+     * @param mesh the mesh to be copied
+     * @return an indexed mesh with the same triangles and coordinates
+     */
+    public static IndexedMesh indexed(GeneratedMesh mesh) {
+        int nv = mesh.getVertexCount();
+        final double[] coords = new double[3*nv];
+        for (int v = 1; v <= nv; ++v) {
+            coords[3*v - 3] = mesh.getX(v);
+            coords[3*v - 2] = mesh.getY(v);
+            coords[3*v - 1] = mesh.getZ(v);
+        }
+        final int[] triangles = new int[3*mesh.getTriangleCount()];
+        int nc = 0;
+        for (CorneredTriangle<Integer> t: mesh)
+            for (int i = 0; i < 3; ++i)
+                triangles[nc++] = t.getCorner(i) - 1;
+        return new IndexedMesh() {
+            public int getVertexCount() { return coords.length/3; }
+            public int[] getTriangles() { return triangles; }
+            public double[] getCoordinates() { return coords; }
+            public double[] getEdgeLengths() { return null; }
+        };
+    }
+
+}
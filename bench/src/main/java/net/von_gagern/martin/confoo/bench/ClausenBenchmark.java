@@ -0,0 +1,87 @@
+package net.von_gagern.martin.confoo.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.von_gagern.martin.confoo.fun.Chebyshev;
+import net.von_gagern.martin.confoo.fun.Clausen;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for Clausen's integral and Chebyshev series.
+ * Arguments of Clausen's integral are taken from [0, 2*pi], as they
+ * occur for doubled triangle angles. The sizes correspond to the
+ * number of angles in meshes of a few thousand and a few hundred
+ * thousand vertices.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClausenBenchmark {
+
+    /**
+     * Number of values per invocation.
+     */
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private double[] x;
+
+    private double[] t;
+
+    private double[] out;
+
+    private double[] coeffs;
+
+    @Setup public void setup() {
+        Random rnd = new Random(42);
+        x = new double[size];
+        t = new double[size];
+        out = new double[size];
+        for (int i = 0; i < size; ++i) {
+            x[i] = rnd.nextDouble()*2*Math.PI;
+            t[i] = rnd.nextDouble()*2 - 1;
+        }
+        coeffs = new double[14];
+        for (int i = 0; i < coeffs.length; ++i)
+            coeffs[i] = Math.pow(0.1, i);
+    }
+
+    @Benchmark public double[] cl2Scalar() {
+        for (int i = 0; i < size; ++i)
+            out[i] = Clausen.cl2(x[i]);
+        return out;
+    }
+
+    @Benchmark public double[] cl2Batch() {
+        Clausen.cl2(x, out, 0, size);
+        return out;
+    }
+
+    @Benchmark public double[] chevalScalar() {
+        for (int i = 0; i < size; ++i)
+            out[i] = Chebyshev.cheval(13, coeffs, t[i]);
+        return out;
+    }
+
+    @Benchmark public double[] chevalBatch() {
+        Chebyshev.cheval(13, coeffs, t, out, 0, size);
+        return out;
+    }
+
+}
@@ -0,0 +1,66 @@
+package net.von_gagern.martin.confoo.bench;
+
+import java.util.concurrent.TimeUnit;
+import net.von_gagern.martin.confoo.conformal.Conformal;
+import net.von_gagern.martin.confoo.mesh.GeneratedMesh;
+import net.von_gagern.martin.confoo.mesh.IndexedMesh;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.mesh.ObjFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for the construction of a transformer, which builds the
+ * internal mesh representation from the different kinds of input.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstructionBenchmark {
+
+    /**
+     * Number of grid cells along each side of the mesh.
+     */
+    @Param({"100", "300", "1000"})
+    public int size;
+
+    private GeneratedMesh grid;
+
+    private ObjFormat obj;
+
+    private IndexedMesh indexed;
+
+    @Setup public void setup() {
+        grid = BenchmarkMeshes.grid(size);
+        obj = new ObjFormat(grid);
+        indexed = BenchmarkMeshes.indexed(grid);
+    }
+
+    @Benchmark public Conformal<Integer> fromGrid() throws MeshException {
+        return Conformal.getInstance(grid);
+    }
+
+    @Benchmark public Conformal<Integer> fromObj() throws MeshException {
+        return Conformal.getInstance(obj);
+    }
+
+    @Benchmark public Conformal<Integer> fromIndexed() throws MeshException {
+        return Conformal.getInstance(indexed);
+    }
+
+}
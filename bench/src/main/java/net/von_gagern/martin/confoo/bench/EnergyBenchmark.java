@@ -0,0 +1,98 @@
+package net.von_gagern.martin.confoo.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.von_gagern.martin.confoo.conformal.BenchmarkMesh;
+import net.von_gagern.martin.confoo.conformal.Geometry;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.opt.Functional;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the individual operations of the energy function.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnergyBenchmark {
+
+    /**
+     * Number of grid cells along each side of the mesh.
+     */
+    @Param({"100", "300", "1000"})
+    public int size;
+
+    /**
+     * Output geometry, which selects the kind of energy.
+     */
+    @Param({"EUCLIDEAN", "HYPERBOLIC"})
+    public Geometry geometry;
+
+    private Functional energy;
+
+    private Vector u;
+
+    private Vector g;
+
+    private Matrix h;
+
+    @Setup public void setup() throws MeshException {
+        energy = new BenchmarkMesh(BenchmarkMeshes.grid(size), geometry)
+            .createEnergy();
+        int n = energy.getInputDimension();
+        Random rnd = new Random(42);
+        u = new DenseVector(n);
+        for (int i = 0; i < n; ++i)
+            u.set(i, (rnd.nextDouble() - 0.5)*0.1);
+        g = new DenseVector(n);
+        energy.setArgument(u);
+        energy.value();
+        h = energy.hessian(null);
+    }
+
+    @Benchmark public Functional setArgument() {
+        energy.setArgument(u);
+        return energy;
+    }
+
+    @Benchmark public double value() {
+        return energy.value();
+    }
+
+    @Benchmark public double valueChange() {
+        return energy.valueChange();
+    }
+
+    @Benchmark public Vector gradient() {
+        return energy.gradient(g);
+    }
+
+    @Benchmark public Matrix hessian() {
+        return energy.hessian(h);
+    }
+
+    @Benchmark public double evaluate() {
+        return energy.evaluate(Functional.VALUE | Functional.GRADIENT |
+                               Functional.HESSIAN, g, h);
+    }
+
+}
@@ -0,0 +1,68 @@
+package net.von_gagern.martin.confoo.bench;
+
+import java.util.concurrent.TimeUnit;
+import net.von_gagern.martin.confoo.conformal.BenchmarkMesh;
+import net.von_gagern.martin.confoo.conformal.Geometry;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for the layout of an optimized mesh, using
+ * <code>Layout</code> for euclidean and <code>HypLayout</code> for
+ * hyperbolic geometry. The optimization is performed once per
+ * trial, the layout is cleared before every invocation.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+
+    /**
+     * Number of grid cells along each side of the mesh.
+     */
+    @Param({"100", "300"})
+    public int size;
+
+    /**
+     * Output geometry, which selects the kind of layout.
+     */
+    @Param({"EUCLIDEAN", "HYPERBOLIC"})
+    public Geometry geometry;
+
+    private BenchmarkMesh mesh;
+
+    @Setup(Level.Trial) public void prepare()
+        throws MeshException, IterativeSolverNotConvergedException
+    {
+        mesh = new BenchmarkMesh(BenchmarkMeshes.grid(size), geometry);
+        mesh.solve();
+    }
+
+    @Setup(Level.Invocation) public void clear() {
+        mesh.clearLayout();
+    }
+
+    @Benchmark public BenchmarkMesh layout() {
+        mesh.layout();
+        return mesh;
+    }
+
+}
@@ -0,0 +1,82 @@
+package net.von_gagern.martin.confoo.bench;
+
+import java.util.concurrent.TimeUnit;
+import net.von_gagern.martin.confoo.conformal.BenchmarkMesh;
+import net.von_gagern.martin.confoo.conformal.Geometry;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.opt.Newton;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for a complete optimization of the energy.
+ * Every invocation starts from scratch with a new energy object, so
+ * the mesh itself is only prepared once per trial.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NewtonBenchmark {
+
+    /**
+     * Number of grid cells along each side of the mesh.
+     */
+    @Param({"30", "100"})
+    public int size;
+
+    /**
+     * Output geometry, which selects the kind of energy.
+     */
+    @Param({"EUCLIDEAN", "HYPERBOLIC"})
+    public Geometry geometry;
+
+    /**
+     * Linear solver: a preconditioner name or <code>DIRECT</code>.
+     */
+    @Param({"NONE", "ICC", "DIRECT"})
+    public String solver;
+
+    private BenchmarkMesh mesh;
+
+    private Newton newton;
+
+    @Setup(Level.Trial) public void prepare() throws MeshException {
+        mesh = new BenchmarkMesh(BenchmarkMeshes.grid(size), geometry);
+    }
+
+    @Setup(Level.Invocation) public void setup() {
+        newton = Newton.getInstance(mesh.createEnergy());
+        BenchmarkMesh.configure(newton);
+        if (solver.equals("DIRECT"))
+            newton.setDirectSolver(true);
+        else
+            newton.setPreconditioner
+                (Newton.PreconditionerType.valueOf(solver));
+    }
+
+    @Benchmark public Vector optimize()
+        throws IterativeSolverNotConvergedException
+    {
+        newton.optimize();
+        return newton.getArgMin();
+    }
+
+}
@@ -0,0 +1,76 @@
+package net.von_gagern.martin.confoo.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import net.von_gagern.martin.confoo.mesh.GeneratedMesh;
+import net.von_gagern.martin.confoo.mesh.ObjFormat;
+import net.von_gagern.martin.confoo.mesh.ObjWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for reading and writing object files.
+ * Files are kept in memory, so these measure parsing and formatting
+ * but not disk access.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjFormatBenchmark {
+
+    /**
+     * Number of grid cells along each side of the mesh.
+     */
+    @Param({"100", "300", "1000"})
+    public int size;
+
+    private GeneratedMesh grid;
+
+    private ObjFormat obj;
+
+    private byte[] text;
+
+    private ByteArrayOutputStream out;
+
+    @Setup public void setup() throws IOException {
+        grid = BenchmarkMeshes.grid(size);
+        obj = new ObjFormat(grid);
+        out = new ByteArrayOutputStream();
+        obj.write(out);
+        text = out.toByteArray();
+    }
+
+    @Benchmark public ObjFormat read() throws IOException {
+        return new ObjFormat(new ByteArrayInputStream(text));
+    }
+
+    @Benchmark public int write() throws IOException {
+        out.reset();
+        obj.write(out);
+        return out.size();
+    }
+
+    @Benchmark public int writeGrid() throws IOException {
+        out.reset();
+        new ObjWriter(out).write(grid);
+        return out.size();
+    }
+
+}
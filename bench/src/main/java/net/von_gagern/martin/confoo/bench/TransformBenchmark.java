@@ -0,0 +1,83 @@
+package net.von_gagern.martin.confoo.bench;
+
+import java.util.concurrent.TimeUnit;
+import net.von_gagern.martin.confoo.conformal.Conformal;
+import net.von_gagern.martin.confoo.conformal.Geometry;
+import net.von_gagern.martin.confoo.conformal.ResultMesh;
+import net.von_gagern.martin.confoo.mesh.GeneratedMesh;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.opt.Newton;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for a complete transformation, from boundary condition
+ * to layout. Every invocation uses a new transformer, so no solver
+ * state is carried over, while the generated mesh is only created
+ * once per trial.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransformBenchmark {
+
+    /**
+     * Number of grid cells along each side of the mesh.
+     */
+    @Param({"100", "300"})
+    public int size;
+
+    /**
+     * Output geometry, which selects the kind of energy and layout.
+     */
+    @Param({"EUCLIDEAN", "HYPERBOLIC"})
+    public Geometry geometry;
+
+    /**
+     * Linear solver: a preconditioner name, <code>DIRECT</code>, or
+     * <code>MULTILEVEL</code> for multilevel mode with the default
+     * solver. Multilevel mode only applies to euclidean output.
+     */
+    @Param({"NONE", "ICC", "DIRECT", "MULTILEVEL"})
+    public String solver;
+
+    private GeneratedMesh grid;
+
+    private Conformal<Integer> conformal;
+
+    @Setup(Level.Trial) public void prepare() {
+        grid = BenchmarkMeshes.grid(size);
+    }
+
+    @Setup(Level.Invocation) public void setup() throws MeshException {
+        conformal = BenchmarkMeshes.conformal(grid, geometry);
+        if (solver.equals("DIRECT"))
+            conformal.setDirectSolver(true);
+        else if (solver.equals("MULTILEVEL"))
+            conformal.setMultilevel(true);
+        else
+            conformal.setPreconditioner
+                (Newton.PreconditionerType.valueOf(solver));
+    }
+
+    @Benchmark public ResultMesh<Integer> transform() throws MeshException {
+        return conformal.transform();
+    }
+
+}
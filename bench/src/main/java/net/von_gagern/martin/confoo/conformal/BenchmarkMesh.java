@@ -0,0 +1,107 @@
+package net.von_gagern.martin.confoo.conformal;
+
+import net.von_gagern.martin.confoo.mesh.GeneratedMesh;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.opt.Functional;
+import net.von_gagern.martin.confoo.opt.Newton;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
+
+/**
+ * Access to the package-private internals for the benchmarks.
+ * This class lives in the package of the classes it exposes, but is
+ * part of the benchmark module only. It holds an internal mesh with
+ * initialized logarithmic lengths and targets for a given output
+ * geometry. The corners have right angles in euclidean and half
+ * right angles in hyperbolic geometry.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public class BenchmarkMesh {
+
+    private final Geometry geometry;
+
+    private final InternalMesh<Integer> mesh;
+
+    /**
+     * Construct internal mesh ready for energy evaluation.
+     * @param grid the generated input mesh
+     * @param geometry the output geometry
+     * @throws MeshException if the mesh could not be constructed
+     */
+    public BenchmarkMesh(GeneratedMesh grid, Geometry geometry)
+        throws MeshException
+    {
+        this.geometry = geometry;
+        mesh = new InternalMesh<Integer>(grid);
+        for (Edge e: mesh.getEdges())
+            e.initLamdas(2*Math.log(e.origLength));
+        double corner = geometry == Geometry.HYPERBOLIC ?
+            Math.PI/4 : Math.PI/2;
+        new FixedBoundaryCurvature<Integer>(grid.corners(corner),
+                                            mesh.getVertexMap())
+            .setTargets(mesh, geometry);
+    }
+
+    /**
+     * Create a new energy for the mesh.
+     * @return the energy function of the mesh
+     */
+    public Functional createEnergy() {
+        if (geometry == Geometry.HYPERBOLIC)
+            return new HypEnergy(mesh);
+        else
+            return new Energy(mesh);
+    }
+
+    /**
+     * Configure an optimizer the same way <code>Conformal</code> does
+     * with its default settings.
+     * @param newton the optimizer to be configured
+     */
+    public static void configure(Newton newton) {
+        newton.setNorm(Newton.ExitCondition.GRADIENT, Vector.Norm.Infinity);
+        newton.setEpsilon(Newton.ExitCondition.GRADIENT, 2e-14);
+        newton.setEpsilon(Newton.ExitCondition.ESTIMATE, 0);
+        newton.setEpsilon(Newton.ExitCondition.DELTA, 0);
+        newton.setMaxIterations(128);
+        newton.setFusedEvaluation(true);
+    }
+
+    /**
+     * Optimize the energy and store the resulting lengths in the mesh,
+     * so that it can be laid out.
+     * @throws IterativeSolverNotConvergedException
+     *  if the linear solver failed
+     */
+    public void solve() throws IterativeSolverNotConvergedException {
+        Energy energy = (Energy)createEnergy();
+        Newton newton = Newton.getInstance(energy);
+        configure(newton);
+        newton.setDirectSolver(true);
+        newton.optimize();
+        energy.updateMesh();
+    }
+
+    /**
+     * Forget the positions of a previous layout.
+     */
+    public void clearLayout() {
+        mesh.clearLayout();
+    }
+
+    /**
+     * Lay out the mesh in the output geometry.
+     * The mesh should have been solved and cleared before.
+     */
+    public void layout() {
+        Layout layout;
+        if (geometry == Geometry.HYPERBOLIC)
+            layout = new HypLayout(mesh);
+        else
+            layout = new Layout(mesh);
+        layout.layout();
+    }
+
+}
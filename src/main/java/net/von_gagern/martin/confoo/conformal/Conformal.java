@@ -1,13 +1,24 @@
 package net.von_gagern.martin.confoo.conformal;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import net.von_gagern.martin.confoo.mesh.CorneredTriangle;
+import net.von_gagern.martin.confoo.mesh.IndexedMesh;
 import net.von_gagern.martin.confoo.mesh.LocatedMesh;
 import net.von_gagern.martin.confoo.mesh.MeshException;
 import net.von_gagern.martin.confoo.mesh.MetricMesh;
 import net.von_gagern.martin.confoo.mesh.TriangleInequalityException;
+import net.von_gagern.martin.confoo.opt.IterationListener;
+import net.von_gagern.martin.confoo.opt.LBFGS;
 import net.von_gagern.martin.confoo.opt.Newton;
+import net.von_gagern.martin.confoo.opt.SparseCholesky;
+import net.von_gagern.martin.confoo.opt.TrustRegion;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.MatrixNotSPDException;
 import no.uib.cipr.matrix.Vector;
 import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
 import org.apache.log4j.Logger;
@@ -22,6 +33,17 @@ import org.apache.log4j.Logger;
  * c.{@link #transform() transform}();
  * </pre>
  *
+ * A single instance may be used for many transformations of the same
+ * mesh, e.g. with different boundary conditions. Everything derived
+ * from the combinatorics of the mesh is kept between these
+ * transformations: the energy with its index assignment and sparse
+ * hessian, the optimizer with its preconditioner, and the symbolic
+ * analysis of the direct solver. The energy has to be recreated only
+ * if a boundary condition fixes a different set of vertices, or if
+ * the output geometry changes. Each transformation updates the
+ * internal mesh in place, so a result mesh returned by a previous
+ * transformation will reflect the most recent one.<p>
+ *
  * @param <V> the class used to represent vertices of the mesh
  * @see <a href="http://dx.doi.org/10.1145/1399504.1360676">Conformal Equivalence of Triangle Meshes by Springborn, Schröder and Pinkall</a>
  *
@@ -30,10 +52,111 @@ import org.apache.log4j.Logger;
  */
 public class Conformal<V> implements Callable<ResultMesh<V>> {
 
+    /**
+     * Enumeration of methods to minimize the energy.
+     *
+     * @see Conformal#setOptimizer
+     *
+     * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+     * @since 1.2
+     */
+    public enum Optimizer {
+
+        /**
+         * Newton method with backtracking line search.
+         * @see Newton
+         */
+        NEWTON,
+
+        /**
+         * Newton method within a trust region.
+         * @see TrustRegion
+         */
+        TRUST_REGION,
+
+        /**
+         * Limited memory BFGS method, which doesn't use the hessian.
+         * @see LBFGS
+         */
+        LBFGS,
+
+    }
+
+    /**
+     * Enumeration of the phases of a transformation.
+     *
+     * @see ProgressListener
+     *
+     * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+     * @since 1.2
+     */
+    public enum Phase {
+
+        /**
+         * Applying the boundary condition.
+         */
+        BOUNDARY,
+
+        /**
+         * Transforming coarser meshes in multilevel mode.
+         * @see Conformal#setMultilevel
+         */
+        MULTILEVEL,
+
+        /**
+         * Minimizing the energy to obtain the new edge lengths.
+         */
+        OPTIMIZATION,
+
+        /**
+         * Computing vertex coordinates from the edge lengths.
+         */
+        LAYOUT,
+
+    }
+
+    /**
+     * Receiver of progress information from a transformation.<p>
+     *
+     * The listener is informed whenever a new phase of the
+     * transformation begins. In addition, every iteration of the
+     * optimizer is reported, both for the coarser meshes of the
+     * multilevel phase and for the mesh itself. The meaning of the
+     * reported values depends on the optimizer, as described for
+     * {@link Newton#setIterationListener}, {@link
+     * TrustRegion#setIterationListener} and {@link
+     * LBFGS#setIterationListener}. All calls happen in the thread
+     * performing the transformation, and a
+     * <code>CancellationException</code> thrown by the listener will
+     * abort the transformation.
+     *
+     * @see Conformal#setProgressListener
+     *
+     * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+     * @since 1.2
+     */
+    public interface ProgressListener extends IterationListener {
+
+        /**
+         * Report the beginning of a phase.
+         * @param phase the phase which is about to begin
+         */
+        void phase(Phase phase);
+
+    }
+
     /*********************************************************************
      * Member variables
      ********************************************************************/
 
+    /**
+     * Number of vertices of the coarsest mesh in multilevel mode.
+     * Smaller meshes are transformed directly.
+     * @see #setMultilevel
+     * @since 1.2
+     */
+    public static final int MULTILEVEL_MIN_VERTICES = 500;
+
     /**
      * Log4j logger for customizable logging and reporting.
      */
@@ -69,6 +192,85 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
      */
     private Triangle layoutStart;
 
+    /**
+     * Preconditioner used to solve for the Newton steps.
+     */
+    private Newton.PreconditionerType preconditioner =
+        Newton.PreconditionerType.NONE;
+
+    /**
+     * Whether to use a direct solver to determine Newton steps.
+     */
+    private boolean directSolver = false;
+
+    /**
+     * Whether to adapt the tolerance of the iterative solver.
+     */
+    private boolean inexactNewton = true;
+
+    /**
+     * Whether to avoid assembling the hessian.
+     */
+    private boolean matrixFree = false;
+
+    /**
+     * Method used to minimize the energy.
+     */
+    private Optimizer optimizer = Optimizer.NEWTON;
+
+    /**
+     * Symbolic analysis of the hessian from a previous transformation.
+     * As the sparsity pattern is determined by the mesh, it can be
+     * reused for subsequent transformations of the same mesh.
+     */
+    private SparseCholesky cholesky;
+
+    /**
+     * Number of threads used to evaluate the energy.
+     */
+    private int parallelism = 1;
+
+    /**
+     * Initial logarithmic scale factors, indexed by vertex number.
+     */
+    private double[] initialU;
+
+    /**
+     * Whether to start from the solution of coarser meshes.
+     */
+    private boolean multilevel = false;
+
+    /**
+     * The listener to be informed about the progress.
+     */
+    private ProgressListener progressListener;
+
+    /**
+     * The time by which a transformation has to be finished,
+     * or zero if there is no such limit.
+     */
+    private long deadline = 0;
+
+    /**
+     * Energy from a previous transformation.
+     */
+    private Energy energy;
+
+    /**
+     * Optimizer from a previous transformation.
+     */
+    private Newton newton;
+
+    /**
+     * Trust region optimizer from a previous transformation.
+     */
+    private TrustRegion trustRegion;
+
+    /**
+     * Limited memory BFGS optimizer from a previous transformation.
+     */
+    private LBFGS lbfgs;
+
 
     /*********************************************************************
      * Costruction
@@ -77,10 +279,11 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
     /**
      * Construct transformer for given mesh.
      *
-     * @param mesh the mesh to be transformed
+     * @param mesh the internal representation of the mesh to be
+     *        transformed
      */
-    private Conformal(MetricMesh<V> mesh) throws MeshException {
-        this.mesh = new InternalMesh(mesh);
+    private Conformal(InternalMesh<V> mesh) {
+        this.mesh = mesh;
     }
 
     /**
@@ -95,7 +298,24 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
     public static <V> Conformal<V> getInstance(MetricMesh<V> mesh)
         throws MeshException
     {
-        return new Conformal<V>(mesh);
+        return new Conformal<V>(new InternalMesh<V>(mesh));
+    }
+
+    /**
+     * Factory method for meshes stored in primitive arrays.
+     * Vertices are identified by their index, starting at zero. So
+     * boundary conditions and the resulting mesh use the vertex
+     * index as representant, but no map is maintained to look up
+     * vertices by index.
+     * @param mesh the mesh to be transformed
+     * @return a transformer for the given mesh
+     * @throws MeshException if the mesh is malformed
+     * @since 1.2
+     */
+    public static Conformal<Integer> getInstance(IndexedMesh mesh)
+        throws MeshException
+    {
+        return new Conformal<Integer>(new InternalMesh<Integer>(mesh));
     }
 
     /*********************************************************************
@@ -204,6 +424,10 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
         switch (outputGeometry) {
         case EUCLIDEAN:
         case HYPERBOLIC:
+            if (outGeometry != outputGeometry) {
+                energy = null;
+                newton = null;
+            }
             outGeometry = outputGeometry;
             break;
         default:
@@ -242,6 +466,306 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
     }
 
 
+    /**
+     * Set the preconditioner used to determine Newton steps.
+     *
+     * Large meshes can benefit greatly from preconditioning, as it
+     * reduces the number of iterations of the linear solver. The
+     * default is to not use any preconditioner.
+     *
+     * @param preconditioner the kind of preconditioner to use
+     * @since 1.2
+     * @see Newton#setPreconditioner
+     */
+    public void setPreconditioner(Newton.PreconditionerType preconditioner) {
+        if (preconditioner == null)
+            throw new NullPointerException("preconditioner must not be null");
+        this.preconditioner = preconditioner;
+    }
+
+    /**
+     * Get the preconditioner used to determine Newton steps.
+     * @return the kind of preconditioner in use
+     * @since 1.2
+     * @see #setPreconditioner
+     */
+    public Newton.PreconditionerType getPreconditioner() {
+        return preconditioner;
+    }
+
+
+    /**
+     * Choose whether to use a direct solver to determine Newton steps.
+     *
+     * The direct solver performs a sparse Cholesky decomposition. Its
+     * symbolic analysis is computed only once for this mesh, and
+     * reused for all Newton iterations as well as subsequent
+     * transformations. This is usually much faster than the default
+     * iterative solver, at the cost of additional memory for the
+     * factor. If the direct solver is used, any configured
+     * preconditioner has no effect.
+     *
+     * @param direct <code>true</code> to use the direct solver
+     * @since 1.2
+     * @see Newton#setDirectSolver
+     */
+    public void setDirectSolver(boolean direct) {
+        this.directSolver = direct;
+    }
+
+    /**
+     * Determine whether a direct solver is used for Newton steps.
+     * @return <code>true</code> if the direct solver is used
+     * @since 1.2
+     * @see #setDirectSolver
+     */
+    public boolean isDirectSolver() {
+        return directSolver;
+    }
+
+    /**
+     * Choose whether to solve early Newton steps less accurately.
+     *
+     * If enabled, the tolerance of the iterative solver is adapted to
+     * the current angle error, so that far from the solution only a
+     * rough approximation of each Newton step is computed. This saves
+     * most of the iterations of the iterative solver. The default is
+     * to adapt the tolerance.
+     *
+     * @param inexact <code>true</code> to adapt the tolerance
+     * @since 1.2
+     * @see Newton#setInexact
+     */
+    public void setInexactNewton(boolean inexact) {
+        this.inexactNewton = inexact;
+    }
+
+    /**
+     * Determine whether early Newton steps are solved less accurately.
+     * @return <code>true</code> if the tolerance is adapted
+     * @since 1.2
+     * @see #setInexactNewton
+     */
+    public boolean isInexactNewton() {
+        return inexactNewton;
+    }
+
+    /**
+     * Choose whether to determine Newton steps without a hessian matrix.
+     *
+     * In matrix-free mode, the iterative solver works with products
+     * of the hessian and vectors, which are computed in a single pass
+     * over all angles. The memory required is proportional to the
+     * number of angles, which allows transforming very large
+     * meshes. This cannot be combined with the direct solver or any
+     * preconditioner. The default is to assemble the hessian.
+     *
+     * @param matrixFree <code>true</code> to avoid the hessian matrix
+     * @since 1.2
+     * @see Newton#setMatrixFree
+     */
+    public void setMatrixFree(boolean matrixFree) {
+        this.matrixFree = matrixFree;
+    }
+
+    /**
+     * Determine whether Newton steps are determined without a matrix.
+     * @return <code>true</code> if the hessian is not assembled
+     * @since 1.2
+     * @see #setMatrixFree
+     */
+    public boolean isMatrixFree() {
+        return matrixFree;
+    }
+
+    /**
+     * Choose the method used to minimize the energy.
+     *
+     * The default is the Newton method with backtracking line
+     * search. The trust region method may need fewer evaluations of
+     * the energy for meshes with extreme target angles. It always
+     * uses the iterative solver without preconditioner, so those
+     * settings only apply to the Newton method. The limited memory
+     * BFGS method only evaluates the angles, but never the hessian.
+     * It needs many more iterations, but every iteration is cheap,
+     * and memory requirements are only a small multiple of the
+     * number of vertices. This makes it the method of choice for
+     * meshes too large for the others.
+     *
+     * @param optimizer the method to use
+     * @since 1.2
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        if (optimizer == null)
+            throw new NullPointerException("optimizer must not be null");
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Get the method used to minimize the energy.
+     * @return the method in use
+     * @since 1.2
+     * @see #setOptimizer
+     */
+    public Optimizer getOptimizer() {
+        return optimizer;
+    }
+
+
+    /**
+     * Set initial logarithmic scale factors for the vertices.<p>
+     *
+     * By default the optimization starts with all scale factors equal
+     * to zero. If a good approximation of the solution is known, it
+     * can be used as a starting point instead, which may save most of
+     * the Newton iterations. Typical sources are the values of {@link
+     * ResultMesh#getU} from an earlier transformation, of this mesh
+     * or of a previous revision of it. Vertices missing from the map
+     * are taken to have a scale factor of zero.<p>
+     *
+     * The scale factors of vertices fixed by the boundary condition
+     * are not changed by this. If the boundary condition leaves the
+     * scale free, all initial values, including the zeros of missing
+     * vertices, are shifted by a common amount to match the vertex
+     * fixed to determine the scale.
+     *
+     * @param u a map from vertices to scale factors, or
+     *        <code>null</code> to start at zero
+     * @throws NoSuchVertexException if the map contains a vertex
+     *         which is not part of the mesh
+     * @since 1.2
+     */
+    public void setInitialU(Map<? extends V, Double> u) {
+        if (u == null) {
+            initialU = null;
+            return;
+        }
+        Map<V, Vertex> vm = mesh.getVertexMap();
+        double[] values = new double[mesh.getVertices().size()];
+        for (Map.Entry<? extends V, Double> entry: u.entrySet()) {
+            Vertex v = vm.get(entry.getKey());
+            if (v == null)
+                throw new NoSuchVertexException(entry.getKey().toString());
+            values[v.id] = entry.getValue();
+        }
+        initialU = values;
+    }
+
+    /**
+     * Choose whether to approximate the solution on coarser meshes.<p>
+     *
+     * In multilevel mode, a hierarchy of coarser meshes is built by
+     * repeatedly removing interior vertices. Boundary vertices as
+     * well as vertices with a prescribed angle sum are kept. The
+     * transformation is first computed on the coarsest mesh, and the
+     * result is used as the starting point for the next finer one.
+     * Most of the work is done on small meshes this way, so the input
+     * mesh itself will need few Newton iterations. This is only used
+     * for euclidean input and output geometry, for meshes with more
+     * than {@link #MULTILEVEL_MIN_VERTICES} vertices, and if no
+     * initial scale factors were set. The default is not to use
+     * multilevel mode.
+     *
+     * @param multilevel <code>true</code> to use multilevel mode
+     * @see #setInitialU
+     * @since 1.2
+     */
+    public void setMultilevel(boolean multilevel) {
+        this.multilevel = multilevel;
+    }
+
+    /**
+     * Determine whether multilevel mode is used.
+     * @return <code>true</code> if multilevel mode is used
+     * @see #setMultilevel
+     * @since 1.2
+     */
+    public boolean isMultilevel() {
+        return multilevel;
+    }
+
+    /**
+     * Set the number of threads used to evaluate the energy.
+     *
+     * Updating lengths and angles as well as calculating the value
+     * and gradient of the energy can be distributed across several
+     * threads. For large meshes this speeds up every Newton iteration
+     * on machines with several cores. The threads are created for
+     * every transformation and terminated afterwards. The default is
+     * to perform all calculations in the calling thread.
+     *
+     * @param parallelism the number of threads, at least 1
+     * @throws IllegalArgumentException if the argument is not positive
+     * @since 1.2
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Get the number of threads used to evaluate the energy.
+     * @return the number of threads
+     * @since 1.2
+     * @see #setParallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+
+    /**
+     * Set the listener to be informed about the progress.
+     * @param listener the listener, or <code>null</code> for none
+     * @see ProgressListener
+     * @since 1.2
+     */
+    public void setProgressListener(ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Get the listener informed about the progress.
+     * @return the listener, or <code>null</code> if there is none
+     * @see #setProgressListener
+     * @since 1.2
+     */
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * Set a wall-clock time limit for transformations.<p>
+     *
+     * The time is checked at the beginning of every phase, and by the
+     * optimizer during every iteration as described for {@link
+     * Newton#setDeadline}. If it has passed, the transformation is
+     * aborted by a <code>CancellationException</code>. The same
+     * happens if the thread performing the transformation gets
+     * interrupted, e.g. because the <code>Future</code> of a
+     * transformation submitted to an executor gets cancelled. The
+     * default is not to have any time limit.
+     *
+     * @param deadline the time in milliseconds as returned by {@link
+     *        System#currentTimeMillis}, or zero for no time limit
+     * @see #transform
+     * @since 1.2
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Get the wall-clock time limit for transformations.
+     * @return the time in milliseconds, or zero if there is no limit
+     * @see #setDeadline
+     * @since 1.2
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
     /*********************************************************************
      * Calculate conformal mapping
      ********************************************************************/
@@ -264,19 +788,41 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
      *         the triangle inequality
      * @throws NoSuchVertexException if a part of the boundary condition
      *         doesn't apply
+     * @throws CancellationException if the thread gets interrupted or
+     *         the deadline passes
+     * @see #setDeadline
      */
     public ResultMesh<V> transform()
         throws MeshException, TriangleInequalityException,
                NoSuchVertexException
     {
+        phase(Phase.BOUNDARY);
         initLamdas();
+        mesh.clearBoundary();
         boundary();
         lengths();
         triangleInequalities();
+        phase(Phase.LAYOUT);
         layout();
         return new ResultMesh<V>(mesh);
     }
 
+    /**
+     * Begin a new phase of the transformation.
+     * @param phase the phase which is about to begin
+     * @throws CancellationException if the thread has been interrupted
+     *         or the deadline has passed
+     */
+    private void phase(Phase phase) {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Transformation interrupted");
+        if (deadline != 0 && System.currentTimeMillis() > deadline)
+            throw new CancellationException("Transformation deadline " +
+                                            "exceeded");
+        if (progressListener != null)
+            progressListener.phase(phase);
+    }
+
     /**
      * Initialize logarithmic lengths, taking input geometry into account.
      * @since 1.1
@@ -309,6 +855,9 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
         if (boundaryCondition == null)
             throw new IllegalStateException("No boundary condition set");
         boundaryCondition.setTargets(mesh, outGeometry);
+        for (Vertex v: mesh.getVertices())
+            if (v.fixed)
+                v.u = 0;
     }
 
     /**
@@ -320,23 +869,132 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
      */
     private void lengths() throws MeshException {
         logger.debug("Optimizing edge lengths");
-        Energy energy = createEnergy();
-        Newton newton = Newton.getInstance(energy);
-        configureNewton(newton);
+        if (energy == null || !energy.reload()) {
+            energy = createEnergy();
+            newton = Newton.getInstance(energy);
+            newton.setCholesky(cholesky);
+            trustRegion = null;
+            lbfgs = null;
+        }
+        double[] u = initialU;
+        if (u == null && multilevel)
+            u = multilevel();
+        Vector start = u == null ? null : startingPoint(energy, u);
+        ExecutorService executor = null;
+        if (parallelism > 1)
+            executor = Executors.newFixedThreadPool(parallelism);
+        energy.setExecutor(executor, parallelism);
         try {
-            newton.optimize();
+            phase(Phase.OPTIMIZATION);
+            optimize(start);
+            if (!boundaryCondition.fixedScale())
+                energy.scale();
         }
         catch (IterativeSolverNotConvergedException e) {
             throw new MeshException("Could not find optimal solution: " +
                                     e.getReason(), e);
         }
-        if (!boundaryCondition.fixedScale())
-            energy.scale();
+        catch (MatrixNotSPDException e) {
+            throw new MeshException("Could not find optimal solution: " +
+                                    e.getMessage(), e);
+        }
+        finally {
+            if (executor != null)
+                executor.shutdown();
+        }
+        energy.updateMesh();
         if (logger.isTraceEnabled())
             for (Edge e: mesh.getEdges())
                 logger.trace("Edge length " + e + ": " + e.length);
     }
 
+    /**
+     * Minimize the energy using the configured optimizer.
+     * @param start the starting point, or <code>null</code> for the
+     *        origin
+     * @throws IterativeSolverNotConvergedException if a Newton step
+     *         could not be determined
+     * @see #setOptimizer
+     */
+    private void optimize(Vector start)
+        throws IterativeSolverNotConvergedException
+    {
+        switch (optimizer) {
+        case NEWTON:
+            configureNewton(newton);
+            newton.setStartingPoint(start);
+            newton.optimize();
+            cholesky = newton.getCholesky();
+            logger.debug("Linear solver iterations: " +
+                         newton.getLinearIterations());
+            break;
+        case TRUST_REGION:
+            if (trustRegion == null)
+                trustRegion = TrustRegion.getInstance(energy);
+            configureTrustRegion(trustRegion);
+            trustRegion.setStartingPoint(start);
+            trustRegion.optimize();
+            logger.debug("Linear solver iterations: " +
+                         trustRegion.getLinearIterations());
+            break;
+        case LBFGS:
+            if (lbfgs == null)
+                lbfgs = LBFGS.getInstance(energy);
+            configureLBFGS(lbfgs);
+            lbfgs.setStartingPoint(start);
+            lbfgs.optimize();
+            logger.debug("Function evaluations: " + lbfgs.getEvaluations());
+            break;
+        default:
+            // should have been prevented by setOptimizer
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Approximate the scale factors on coarser meshes.
+     * @return the approximate scale factor of every vertex, or
+     *         <code>null</code> if multilevel mode does not apply
+     * @see #setMultilevel
+     */
+    private double[] multilevel() {
+        if (inGeometry != Geometry.EUCLIDEAN ||
+            outGeometry != Geometry.EUCLIDEAN)
+            return null;
+        phase(Phase.MULTILEVEL);
+        Multilevel ml = new Multilevel(mesh, MULTILEVEL_MIN_VERTICES);
+        logger.debug("Multilevel hierarchy with " + ml.getLevelCount() +
+                     " levels");
+        return ml.solve(this);
+    }
+
+    /**
+     * Map initial scale factors to an argument of the energy.
+     * @param energy the energy which assigned vertex indices
+     * @param initialU the scale factor of every vertex
+     * @return the starting point for the optimization
+     */
+    private Vector startingPoint(Energy energy, double[] initialU) {
+        List<Vertex> vs = mesh.getVertices();
+        double offset = 0;
+        if (!boundaryCondition.fixedScale()) {
+            int n = 0;
+            for (Vertex v: vs) {
+                if (v.index < 0) {
+                    offset += v.u - initialU[v.id];
+                    ++n;
+                }
+            }
+            if (n != 0)
+                offset /= n;
+        }
+        Vector x = new DenseVector(energy.getInputDimension());
+        for (Vertex v: vs)
+            if (v.index >= 0)
+                x.set(v.index, initialU[v.id] + offset);
+        return x;
+    }
+
     /**
      * Check triangle inequalities are fulfilled.
      * @throws TriangleInequalityException if the inequality is violated
@@ -364,6 +1022,7 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
      */
     private void layout() throws MeshException {
         logger.debug("Creating layout");
+        mesh.clearLayout();
         Layout layout = createLayout();
         if (layoutStart != null)
             layout.setStartTriangle(layoutStart);
@@ -380,6 +1039,46 @@ public class Conformal<V> implements Callable<ResultMesh<V>> {
         newton.setEpsilon(Newton.ExitCondition.ESTIMATE, 0);
         newton.setEpsilon(Newton.ExitCondition.DELTA, 0);
         newton.setMaxIterations(128);
+        newton.setPreconditioner(preconditioner);
+        newton.setDirectSolver(directSolver);
+        newton.setInexact(inexactNewton);
+        newton.setMatrixFree(matrixFree);
+        newton.setFusedEvaluation(true);
+        newton.setIterationListener(progressListener);
+        newton.setDeadline(deadline);
+    }
+
+    /**
+     * Configure the trust region optimizer used for the transformation.
+     * @param trustRegion the optimizer to be configured
+     * @since 1.2
+     */
+    protected void configureTrustRegion(TrustRegion trustRegion) {
+        trustRegion.setNorm(Newton.ExitCondition.GRADIENT,
+                            Vector.Norm.Infinity);
+        trustRegion.setEpsilon(Newton.ExitCondition.GRADIENT,
+                               angleErrorBound);
+        trustRegion.setEpsilon(Newton.ExitCondition.ESTIMATE, 0);
+        trustRegion.setEpsilon(Newton.ExitCondition.DELTA, 0);
+        trustRegion.setMaxIterations(512);
+        trustRegion.setMatrixFree(matrixFree);
+        trustRegion.setIterationListener(progressListener);
+        trustRegion.setDeadline(deadline);
+    }
+
+    /**
+     * Configure the limited memory BFGS optimizer used for the
+     * transformation.
+     * @param lbfgs the optimizer to be configured
+     * @since 1.2
+     */
+    protected void configureLBFGS(LBFGS lbfgs) {
+        lbfgs.setNorm(Newton.ExitCondition.GRADIENT, Vector.Norm.Infinity);
+        lbfgs.setEpsilon(Newton.ExitCondition.GRADIENT, angleErrorBound);
+        lbfgs.setEpsilon(Newton.ExitCondition.DELTA, 0);
+        lbfgs.setMaxIterations(100000);
+        lbfgs.setIterationListener(progressListener);
+        lbfgs.setDeadline(deadline);
     }
 
     /*********************************************************************
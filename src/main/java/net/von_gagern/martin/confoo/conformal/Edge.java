@@ -153,6 +153,15 @@ class Edge {
         return ((Double)direction).doubleValue();
     }
 
+    /**
+     * Forget the angle or hyperbolic position of this edge.
+     * This allows the edge to take part in another layout phase.
+     * @since 1.2
+     */
+    void clearDirection() {
+        direction = null;
+    }
+
     public HypEdgePos offerHypPos(HypEdgePos pos) {
         if (direction == null)
             direction = pos;
@@ -1,11 +1,19 @@
 package net.von_gagern.martin.confoo.conformal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import no.uib.cipr.matrix.DenseVector;
-import no.uib.cipr.matrix.LowerSPDPackMatrix;
 import no.uib.cipr.matrix.Matrix;
 import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
 import net.von_gagern.martin.confoo.fun.Clausen;
 import net.von_gagern.martin.confoo.opt.Functional;
 import org.apache.log4j.Logger;
@@ -18,11 +26,43 @@ import org.apache.log4j.Logger;
  * their paper. This has no effect on the argmin of the critical
  * point, but will save a few floating point operations.<p>
  *
- * In <code>setArgument(Vector)</code> the internal representation of
- * the mesh is updated to give new lengths and angles. The access
- * functions for value, gradient and hessian then iterate over the all
- * vertices, all angles or both in order to determine the requested
- * values.<p>
+ * The energy keeps its own copy of the solver state in flat arrays
+ * indexed by vertex, edge and angle number, which are created from
+ * the internal mesh representation on construction. In
+ * <code>setArgument(Vector)</code> these arrays are updated to give
+ * new lengths and angles. The access functions for value, gradient
+ * and hessian then iterate over the all vertices, all angles or both
+ * in order to determine the requested values. The objects of the mesh
+ * are only modified by {@link #updateMesh}. Angles are numbered by
+ * triangle, so the angles of triangle <i>t</i> are those with numbers
+ * 3<i>t</i>, 3<i>t</i>+1 and 3<i>t</i>+2, in traversal order.<p>
+ *
+ * Updating lengths and angles as well as calculating value and
+ * gradient can be distributed across several threads using {@link
+ * #setExecutor}. The arrays are split into contiguous chunks for this,
+ * each of which is processed by a single task. As every element only
+ * depends on the elements of the previous sweep, there is no need for
+ * synchronization within a sweep. The gradient is gathered from the
+ * angles around every vertex, and every chunk accumulates its own part
+ * of the value, so no two tasks ever write the same location.<p>
+ *
+ * The hessian is assembled into a sparse matrix in compressed row
+ * storage. Its sparsity pattern is derived from the vertex adjacency
+ * of the mesh once, and every angle remembers the positions in the
+ * data array it contributes to. So repeated assembly will simply
+ * overwrite the values of that same matrix. The contribution of every
+ * angle is computed once per argument and cached, so products of the
+ * hessian with a vector can be computed from these weights without
+ * any matrix at all.<p>
+ *
+ * Value, gradient and hessian weights can be computed in a single
+ * sweep using {@link #evaluate}. The angles are processed in blocks
+ * small enough to stay in cache, and for each block both the value
+ * terms and the hessian weights are computed before moving on.<p>
+ *
+ * All scratch space is allocated on construction or along with the
+ * executor, so evaluating in the calling thread doesn't allocate any
+ * memory once the hessian matrix exists.<p>
  *
  * @see <a href="http://dx.doi.org/10.1145/1399504.1360676">Conformal Equivalence of Triangle Meshes by Springborn, Schröder and Pinkall</a>
  *
@@ -37,24 +77,118 @@ class Energy implements Functional {
     private final Logger logger = Logger.getLogger(Energy.class);
 
     /**
-     * Collection of all mesh vertices.
+     * All mesh vertices, in the order of the vertex arrays.
+     */
+    private final Vertex[] vertices;
+
+    /**
+     * All mesh edges, in the order of the edge arrays.
+     */
+    private final Edge[] edges;
+
+    /**
+     * All mesh angles, in the order of the angle arrays.
+     */
+    private final Angle[] angles;
+
+    /**
+     * For every vertex the start of its range in
+     * <code>vertexAngles</code>. The range of the last vertex ends
+     * at the final element of this array.
+     */
+    private final int[] vertexAnglePtr;
+
+    /**
+     * Angles centered at each vertex, grouped by vertex.
+     */
+    private final int[] vertexAngles;
+
+    /**
+     * Index of each vertex in the function argument, or -1 if fixed.
+     */
+    protected final int[] vertexIndex;
+
+    /**
+     * Target angle sum of each vertex.
+     */
+    protected final double[] vertexTarget;
+
+    /**
+     * Logarithmic scale factor <i>u</i> of each vertex.
+     */
+    protected final double[] vertexU;
+
+    /**
+     * First vertex of each edge.
+     */
+    protected final int[] edgeV1;
+
+    /**
+     * Second vertex of each edge.
+     */
+    protected final int[] edgeV2;
+
+    /**
+     * Logarithmic length of each edge in the original mesh.
      */
-    protected final Collection<Vertex> vertices;
+    protected final double[] edgeOrigLogLength;
 
     /**
-     * Collection of all mesh edges.
+     * Current logarithmic length of each edge.
      */
-    protected final Collection<Edge> edges;
+    protected final double[] edgeLogLength;
 
     /**
-     * Collection of all mesh angles.
+     * Current length of each edge.
      */
-    protected final Collection<Angle> angles;
+    protected final double[] edgeLength;
 
     /**
-     * Collection of all mesh triangles.
+     * Vertex at the center of each angle.
      */
-    protected final Collection<Triangle> triangles;
+    protected final int[] angleVertex;
+
+    /**
+     * Vertex following the center of each angle.
+     */
+    protected final int[] angleNextVertex;
+
+    /**
+     * Vertex preceding the center of each angle.
+     */
+    protected final int[] anglePrevVertex;
+
+    /**
+     * Edge opposite to each angle.
+     */
+    protected final int[] angleOppositeEdge;
+
+    /**
+     * Edge from the center to the following vertex of each angle.
+     */
+    protected final int[] angleNextEdge;
+
+    /**
+     * Edge from the center to the preceding vertex of each angle.
+     */
+    protected final int[] anglePrevEdge;
+
+    /**
+     * Current value of each angle, measured in radians.
+     */
+    protected final double[] angleValue;
+
+    /**
+     * Scratch space for arguments of Clausen's integral.
+     * Every sweep only uses the elements for its own range of angles.
+     */
+    protected final double[] clausenIn;
+
+    /**
+     * Scratch space for values of Clausen's integral.
+     * Every sweep only uses the elements for its own range of angles.
+     */
+    protected final double[] clausenOut;
 
     /**
      * Input dimension of energy function, equal to number of unfixed vertices.
@@ -62,37 +196,137 @@ class Energy implements Functional {
     private final int size;
 
     /**
-     * Intermediate result from last call to <code>value()</code>.
+     * Accumulator for the terms of the function value.
+     */
+    private final PreciseSum valueSum = new PreciseSum();
+
+    /**
+     * Precise result from last call to <code>value()</code>.
      * Used for precise difference calculation in
      * <code>valueChange()</code>.
      */
-    private double[] lastValueTerms;
+    private final PreciseSum lastValue = new PreciseSum();
+
+    /**
+     * Sparse hessian matrix whose pattern matches the hessian slots.
+     * Created on first request, then reused for every assembly.
+     */
+    private CompRowMatrix sparseHessian;
 
     /**
-     * Final result from last call to <code>value()</code>.
-     * This is here only for debugging purposes, as it is no longer
-     * used for the actual calculation of the difference. So it may be
-     * reomved once the debug code that uses it is gone.
+     * For every angle the slot of the hessian entry for the next
+     * vertex on the diagonal. This is a position in the data array of
+     * the sparse hessian, or -1 if the vertex is fixed.
      */
-    private double oldValue;
+    private int[] hessNextNext;
+
+    /**
+     * For every angle the slot of the hessian entry for the previous
+     * vertex on the diagonal, or -1 if the vertex is fixed.
+     */
+    private int[] hessPrevPrev;
+
+    /**
+     * For every angle the slot of the hessian entry in the row of the
+     * next vertex and the column of the previous vertex, or -1 if
+     * either vertex is fixed.
+     */
+    private int[] hessNextPrev;
+
+    /**
+     * For every angle the slot of the hessian entry in the row of the
+     * previous vertex and the column of the next vertex, or -1 if
+     * either vertex is fixed.
+     */
+    private int[] hessPrevNext;
+
+    /**
+     * Diagonal hessian weight of each angle.
+     * @see #hessianWeights(int, double[])
+     */
+    private double[] hessDiag;
+
+    /**
+     * Off-diagonal hessian weight of each angle.
+     * @see #hessianWeights(int, double[])
+     */
+    private double[] hessOff;
+
+    /**
+     * Whether the hessian weights match the current angles.
+     */
+    private boolean hessWeightsValid = false;
+
+    /**
+     * Number of angles processed as a block by {@link #evaluate}.
+     * This has to be a multiple of three.
+     */
+    static final int BLOCK = 3*512;
+
+    /**
+     * Results requested from the current call to {@link #evaluate}.
+     */
+    private int evaluateFlags;
+
+    /**
+     * Executor used to evaluate chunks in parallel,
+     * or <code>null</code> to evaluate everything in the calling thread.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Number of chunks into which the arrays are split.
+     */
+    private int chunks = 1;
+
+    /**
+     * Tasks for the chunks of every kind of sweep, created along with
+     * the executor so that sweeps don't have to create them.
+     */
+    private Map<Sweep, List<Callable<Object>>> tasks;
+
+    /**
+     * Partial value sums for each chunk.
+     */
+    private PreciseSum[] partialSums = { valueSum };
+
+    /**
+     * Data of the gradient currently being calculated.
+     */
+    private double[] gradientData;
+
+    /**
+     * Scratch space for the hessian weights of a single angle,
+     * one for each chunk.
+     * @see #hessianWeights(int, double[])
+     */
+    private double[][] weights = { new double[2] };
 
     /**
      * Construct energy function for given mesh.
      * @param mesh the mesh whose energy should be calculated
      */
     public Energy(InternalMesh<?> mesh) {
-        vertices = mesh.getVertices();
-        edges = mesh.getEdges();
-        angles = mesh.getAngles();
-        triangles = mesh.getTriangles();
+        List<Vertex> vl = mesh.getVertices();
+        List<Edge> el = mesh.getEdges();
+        List<Triangle> tl = mesh.getTriangles();
+        int nv = vl.size(), ne = el.size(), na = 3*tl.size();
 
+        vertices = vl.toArray(new Vertex[nv]);
+        vertexIndex = new int[nv];
+        vertexTarget = new double[nv];
+        vertexU = new double[nv];
         int index = 0;
-        for (Vertex v: vertices) {
+        for (int i = 0; i < nv; ++i) {
+            Vertex v = vertices[i];
             if (v.fixed) v.index = -1;
             else v.index = index++;
+            vertexIndex[i] = v.index;
+            vertexTarget[i] = v.target;
+            vertexU[i] = v.u;
         }
         if (logger.isDebugEnabled()) {
-            for (java.util.Map.Entry<?, Vertex> entry:
+            for (Map.Entry<?, Vertex> entry:
                  mesh.getVertexMap().entrySet()) {
                 Vertex v = entry.getValue();
                 logger.debug(entry.getKey() + " -> " + v.index +
@@ -101,6 +335,129 @@ class Energy implements Functional {
             }
         }
         size = index;
+
+        edges = el.toArray(new Edge[ne]);
+        edgeV1 = new int[ne];
+        edgeV2 = new int[ne];
+        edgeOrigLogLength = new double[ne];
+        edgeLogLength = new double[ne];
+        edgeLength = new double[ne];
+        for (int j = 0; j < ne; ++j) {
+            Edge e = edges[j];
+            edgeV1[j] = e.v1.id;
+            edgeV2[j] = e.v2.id;
+            edgeOrigLogLength[j] = e.origLogLength;
+            edgeLogLength[j] = e.logLength;
+            edgeLength[j] = e.length;
+        }
+
+        angles = new Angle[na];
+        angleVertex = new int[na];
+        angleNextVertex = new int[na];
+        anglePrevVertex = new int[na];
+        angleOppositeEdge = new int[na];
+        angleNextEdge = new int[na];
+        anglePrevEdge = new int[na];
+        angleValue = new double[na];
+        clausenIn = new double[na];
+        clausenOut = new double[na];
+        int[] corners = mesh.getCorners();
+        int[] cornerEdges = mesh.getCornerEdges();
+        mesh.getAngles().toArray(angles);
+        int k;
+        for (k = 0; k < na; ++k) {
+            int t = k - k%3, next = t + (k + 1)%3, prev = t + (k + 2)%3;
+            angleVertex[k] = corners[k];
+            angleNextVertex[k] = corners[next];
+            anglePrevVertex[k] = corners[prev];
+            angleOppositeEdge[k] = cornerEdges[k];
+            angleNextEdge[k] = cornerEdges[prev];
+            anglePrevEdge[k] = cornerEdges[next];
+            angleValue[k] = angles[k].angle;
+        }
+
+        vertexAnglePtr = new int[nv + 1];
+        vertexAngles = new int[na];
+        for (k = 0; k < na; ++k)
+            ++vertexAnglePtr[angleVertex[k] + 1];
+        for (int i = 0; i < nv; ++i)
+            vertexAnglePtr[i + 1] += vertexAnglePtr[i];
+        int[] fill = new int[nv];
+        for (k = 0; k < na; ++k) {
+            int i = angleVertex[k];
+            vertexAngles[vertexAnglePtr[i] + fill[i]++] = k;
+        }
+    }
+
+    /**
+     * Prepare for another optimization of the same mesh.<p>
+     *
+     * Target angle sums, scale factors and lengths are read from the
+     * objects of the mesh again, as they would be on construction.
+     * Everything derived from the combinatorics of the mesh and the
+     * set of fixed vertices is kept, in particular the assignment of
+     * argument indices and the sparse hessian. So this is only
+     * possible if the same vertices are fixed as before.
+     *
+     * @return <code>true</code> if the energy was reloaded, or
+     *         <code>false</code> if the set of fixed vertices changed
+     *         and a new energy has to be created
+     * @since 1.2
+     */
+    public boolean reload() {
+        int nv = vertices.length;
+        for (int i = 0; i < nv; ++i)
+            if (vertices[i].fixed != (vertexIndex[i] < 0))
+                return false;
+        for (int i = 0; i < nv; ++i) {
+            Vertex v = vertices[i];
+            vertexTarget[i] = v.target;
+            vertexU[i] = v.u;
+        }
+        for (int j = 0; j < edges.length; ++j) {
+            Edge e = edges[j];
+            edgeOrigLogLength[j] = e.origLogLength;
+            edgeLogLength[j] = e.logLength;
+            edgeLength[j] = e.length;
+        }
+        for (int k = 0; k < angles.length; ++k)
+            angleValue[k] = angles[k].angle;
+        hessWeightsValid = false;
+        return true;
+    }
+
+    /**
+     * Distribute evaluation across several threads.
+     * Every sweep over the arrays will be split into the given number
+     * of chunks, which are then submitted to the executor as
+     * individual tasks. The calling thread waits for all of them to
+     * complete. The executor will not be shut down by this class.
+     * The tasks are created once, but the executor will still
+     * allocate its futures for every sweep.
+     * @param executor the executor to run the tasks, or
+     *        <code>null</code> to evaluate in the calling thread
+     * @param chunks the number of tasks per sweep
+     * @throws IllegalArgumentException if <code>chunks</code> is not
+     *         positive
+     */
+    public void setExecutor(ExecutorService executor, int chunks) {
+        if (chunks < 1)
+            throw new IllegalArgumentException("chunks must be positive");
+        this.executor = executor;
+        this.chunks = chunks;
+        partialSums = new PreciseSum[chunks];
+        partialSums[0] = valueSum;
+        for (int c = 1; c < chunks; ++c)
+            partialSums[c] = new PreciseSum();
+        weights = new double[chunks][2];
+        tasks = new EnumMap<Sweep, List<Callable<Object>>>(Sweep.class);
+        for (Sweep sweep: Sweep.values()) {
+            List<Callable<Object>> list =
+                new ArrayList<Callable<Object>>(chunks);
+            for (int c = 0; c < chunks; ++c)
+                list.add(new Chunk(sweep, c));
+            tasks.put(sweep, list);
+        }
     }
 
     public int getInputDimension() {
@@ -110,24 +467,47 @@ class Energy implements Functional {
     /**
      * Set function agrument.<p>
      *
-     * This implementation updates the internal mesh representation
-     * accordingly, so that subsequent requests can be efficiently
-     * answered from those data structures.
+     * This implementation updates the internal arrays accordingly,
+     * so that subsequent requests can be efficiently answered from
+     * those data structures.
      *
      * @param u the function argument vector
      */
     public void setArgument(Vector u) {
-        for (Vertex v: vertices) {
-            int i = v.index;
-            if (i >= 0)
-                v.u = u.get(i);
-        }
-        for (Edge e: edges) {
-            update(e);
+        int nv = vertexU.length;
+        for (int i = 0; i < nv; ++i) {
+            int index = vertexIndex[i];
+            if (index >= 0)
+                vertexU[i] = u.get(index);
         }
-        for (Angle a: angles) {
-            update(a);
+        updateLengthsAndAngles();
+    }
+
+    /**
+     * Update all edge lengths and angles from vertex scale factors.
+     */
+    private void updateLengthsAndAngles() {
+        sweep(Sweep.EDGES);
+        sweep(Sweep.ANGLES);
+        hessWeightsValid = false;
+    }
+
+    /**
+     * Write the current state back to the mesh.
+     * This assigns the scale factors of all vertices as well as the
+     * lengths of all edges and the values of all angles to the
+     * corresponding objects of the internal mesh representation.
+     */
+    public void updateMesh() {
+        for (int i = 0; i < vertices.length; ++i)
+            vertices[i].u = vertexU[i];
+        for (int j = 0; j < edges.length; ++j) {
+            Edge e = edges[j];
+            e.logLength = edgeLogLength[j];
+            e.length = edgeLength[j];
         }
+        for (int k = 0; k < angles.length; ++k)
+            angles[k].angle = angleValue[k];
     }
 
     /**
@@ -135,30 +515,31 @@ class Energy implements Functional {
      * @return the function value
      */
     public double value() {
-        double[] terms = valueTerms();
-        oldValue = preciseSum(terms);
-        lastValueTerms = terms;
-        return oldValue;
+        sweep(Sweep.VALUE);
+        lastValue.set(valueSum);
+        double value = valueSum.doubleValue();
+        assert !Double.isInfinite(value): "value is infinite";
+        assert !Double.isNaN(value): "value is NaN";
+        return value;
     }
 
     /**
      * Calculate change in value.
+     * The change is calculated from the precise sums of both values,
+     * so it will be accurate even if it is very small compared to
+     * the values themselves.
      * @return the change in value since the last call to <code>value</code>
      */
     public double valueChange() {
-        // For evaluation purposes we still give the results of both
-        // the precise and the dumb calculation of value difference.
-        double[] terms = valueTerms();
-        Arrays.sort(terms);
-        double simpleChange = Double.NaN;
-        if (logger.isDebugEnabled())
-            simpleChange = preciseSum(terms) - oldValue;
-        for (int i = 0; i < terms.length; ++i)
-            terms[i] -= lastValueTerms[i];
-        double preciseChange = preciseSum(terms);
-        logger.debug("valueChange simple: " + simpleChange + ", " +
-                     "precise: " + preciseChange);
-        return preciseChange;
+        sweep(Sweep.VALUE);
+        double change = valueSum.minus(lastValue);
+        if (logger.isDebugEnabled()) {
+            double simpleChange = valueSum.doubleValue() -
+                lastValue.doubleValue();
+            logger.debug("valueChange simple: " + simpleChange + ", " +
+                         "precise: " + change);
+        }
+        return change;
     }
 
     /**
@@ -169,49 +550,329 @@ class Energy implements Functional {
      */
     public Vector gradient(Vector g) {
         if (g == null) g = new DenseVector(getInputDimension());
-        else g.zero();
-        for (Vertex v: vertices) {
-            int i = v.index;
-            if (i >= 0)
-                g.add(i, v.target);
-        }
-        for (Angle a: angles) {
-            int i = a.vertex.index;
-            if (i >= 0)
-                g.add(i, -a.angle);
-        }
+        gradientData = ((DenseVector)g).getData();
+        sweep(Sweep.GRADIENT);
+        gradientData = null;
         return g;
     }
 
     /**
-     * Calculate hessian.
+     * Calculate gradient entries for a range of vertices.
+     * @param from the first vertex of the range
+     * @param to the vertex following the range
+     */
+    private void gradient(int from, int to) {
+        double[] gd = gradientData;
+        for (int i = from; i < to; ++i) {
+            int index = vertexIndex[i];
+            if (index < 0)
+                continue;
+            double d = vertexTarget[i];
+            for (int p = vertexAnglePtr[i]; p < vertexAnglePtr[i + 1]; ++p)
+                d -= angleValue[vertexAngles[p]];
+            gd[index] = d;
+        }
+    }
+
+    /**
+     * Calculate hessian.<p>
+     *
+     * If <code>h</code> is <code>null</code> or the matrix returned
+     * from a previous invocation, the sparse hessian of this energy
+     * will be used. Any other matrix will be filled using its generic
+     * <code>add</code> method, which might be useful for debugging.
+     *
      * @param h a preallocated matrix that may be used to receive the
      *          result, or <code>null</code>
      * @return the hessian of the energy
      */
     public Matrix hessian(Matrix h) {
-        if (h == null) h = new LowerSPDPackMatrix(getInputDimension());
-        else h.zero();
-        for (Angle a: angles) {
-            double alpha = a.angle;
-            if (alpha <= 0 || alpha >= Math.PI) continue;
-            double cot = Math.cos(alpha)/Math.sin(alpha);
-            double cot2 = cot/2;
-            int i = a.nextVertex.index;
-            int j = a.prevVertex.index;
+        if (h == null) {
+            if (sparseHessian == null)
+                sparseHessian = createHessian();
+            h = sparseHessian;
+        }
+        if (!hessWeightsValid) {
+            allocateHessianWeights();
+            sweep(Sweep.WEIGHTS);
+            hessWeightsValid = true;
+        }
+        assemble(h);
+        return h;
+    }
+
+    /**
+     * Calculate several results in a single sweep.<p>
+     *
+     * The hessian is assembled the same way as for {@link
+     * #hessian(Matrix)}, so passing the matrix returned from a
+     * previous invocation of either method will use the sparse
+     * hessian of this energy. A requested value will serve as the
+     * reference for subsequent calls to <code>valueChange</code>.
+     *
+     * @param flags the results to calculate
+     * @param g the vector to receive the gradient
+     * @param h the matrix to receive the hessian
+     * @return the function value, or <code>NaN</code> if not requested
+     * @since 1.2
+     */
+    public double evaluate(int flags, Vector g, Matrix h) {
+        if ((flags & GRADIENT) != 0)
+            gradientData = ((DenseVector)g).getData();
+        if ((flags & HESSIAN) != 0) {
+            if (h == null)
+                throw new NullPointerException("h must not be null");
+            allocateHessianWeights();
+        }
+        evaluateFlags = hessWeightsValid ? flags & ~HESSIAN : flags;
+        sweep(Sweep.EVALUATE);
+        gradientData = null;
+        if ((flags & HESSIAN) != 0) {
+            hessWeightsValid = true;
+            assemble(h);
+        }
+        if ((flags & VALUE) == 0)
+            return Double.NaN;
+        lastValue.set(valueSum);
+        double value = valueSum.doubleValue();
+        assert !Double.isInfinite(value): "value is infinite";
+        assert !Double.isNaN(value): "value is NaN";
+        return value;
+    }
+
+    /**
+     * Process a range of angles and vertices for {@link #evaluate}.
+     * The angles are processed in blocks, each of which is used for
+     * all requested results before moving on to the next block.
+     * @param from the first angle of the range
+     * @param to the angle following the range
+     * @param vFrom the first vertex of the range
+     * @param vTo the vertex following the range
+     * @param c the number of the chunk
+     */
+    private void evaluate(int from, int to, int vFrom, int vTo, int c) {
+        int flags = evaluateFlags;
+        PreciseSum sum = partialSums[c];
+        if ((flags & VALUE) != 0)
+            sum.reset();
+        for (int b = from; b < to; b += BLOCK) {
+            int e = Math.min(b + BLOCK, to);
+            if ((flags & HESSIAN) != 0)
+                hessianWeights(b, e, weights[c]);
+            if ((flags & VALUE) != 0)
+                valueTerms(sum, b, e);
+        }
+        if ((flags & GRADIENT) != 0)
+            gradient(vFrom, vTo);
+        if ((flags & VALUE) != 0)
+            vertexTerms(sum, vFrom, vTo);
+    }
+
+    /**
+     * Assemble the hessian from the weights of all angles.
+     * @param h the matrix to receive the hessian
+     */
+    private void assemble(Matrix h) {
+        h.zero();
+        int na = angleValue.length;
+        if (h == sparseHessian) {
+            double[] data = sparseHessian.getData();
+            for (int k = 0; k < na; ++k) {
+                double d = hessDiag[k], o = hessOff[k];
+                if (hessNextNext[k] >= 0)
+                    data[hessNextNext[k]] += d;
+                if (hessPrevPrev[k] >= 0)
+                    data[hessPrevPrev[k]] += d;
+                if (hessNextPrev[k] >= 0) {
+                    data[hessNextPrev[k]] += o;
+                    data[hessPrevNext[k]] += o;
+                }
+            }
+            return;
+        }
+        for (int k = 0; k < na; ++k) {
+            double d = hessDiag[k], o = hessOff[k];
+            int i = vertexIndex[angleNextVertex[k]];
+            int j = vertexIndex[anglePrevVertex[k]];
             if (i >= 0)
-                h.add(i, i, cot2);
+                h.add(i, i, d);
             if (j >= 0) {
-                h.add(j, j, cot2);
+                h.add(j, j, d);
                 if (i >= 0) {
-                    h.add(i, j, -cot2);
-                    h.add(j, i, -cot2);
+                    h.add(i, j, o);
+                    h.add(j, i, o);
                 }
             }
         }
+    }
+
+    /**
+     * Multiply the hessian with a vector.<p>
+     *
+     * This is a single pass over all angles, each of which
+     * contributes to the entries of the two vertices incident to its
+     * opposite edge. Both vectors have to be dense.
+     *
+     * @param x the vector to be multiplied with the hessian
+     * @param y a preallocated vector that may be used to receive the
+     *          result, or <code>null</code>
+     * @return the product of the hessian with <code>x</code>
+     * @since 1.2
+     */
+    public Vector hessianTimes(Vector x, Vector y) {
+        if (y == null) y = new DenseVector(getInputDimension());
+        if (!hessWeightsValid) {
+            allocateHessianWeights();
+            sweep(Sweep.WEIGHTS);
+            hessWeightsValid = true;
+        }
+        double[] xd = ((DenseVector)x).getData();
+        double[] yd = ((DenseVector)y).getData();
+        Arrays.fill(yd, 0);
+        int na = angleValue.length;
+        for (int k = 0; k < na; ++k) {
+            int i = vertexIndex[angleNextVertex[k]];
+            int j = vertexIndex[anglePrevVertex[k]];
+            double d = hessDiag[k], o = hessOff[k];
+            if (i >= 0) {
+                if (j >= 0) {
+                    double xi = xd[i], xj = xd[j];
+                    yd[i] += d*xi + o*xj;
+                    yd[j] += d*xj + o*xi;
+                }
+                else {
+                    yd[i] += d*xd[i];
+                }
+            }
+            else if (j >= 0) {
+                yd[j] += d*xd[j];
+            }
+        }
+        return y;
+    }
+
+    /**
+     * Allocate the arrays for the hessian weights of all angles.
+     */
+    private void allocateHessianWeights() {
+        if (hessDiag == null) {
+            hessDiag = new double[angleValue.length];
+            hessOff = new double[angleValue.length];
+        }
+    }
+
+    /**
+     * Calculate the hessian weights for a range of angles.
+     * Angles which don't contribute at all receive zero weights.
+     * @param from the first angle of the range
+     * @param to the angle following the range
+     * @param w scratch space for the weights of a single angle
+     */
+    private void hessianWeights(int from, int to, double[] w) {
+        for (int k = from; k < to; ++k) {
+            if (hessianWeights(k, w)) {
+                hessDiag[k] = w[0];
+                hessOff[k] = w[1];
+            }
+            else {
+                hessDiag[k] = hessOff[k] = 0;
+            }
+        }
+    }
+
+    /**
+     * Calculate the contribution of a single angle to the hessian.
+     * The angle contributes to the entries of the two vertices
+     * incident to its opposite edge. The value to be added to the
+     * diagonal entries of both these vertices will be stored in
+     * <code>w[0]</code>, the value for the two off-diagonal entries
+     * in <code>w[1]</code>.
+     * @param k the number of the angle under consideration
+     * @param w array receiving the diagonal and off-diagonal weight
+     * @return <code>false</code> if the angle doesn't contribute at all
+     */
+    protected boolean hessianWeights(int k, double[] w) {
+        double alpha = angleValue[k];
+        if (alpha <= 0 || alpha >= Math.PI) return false;
+        double cot = Math.cos(alpha)/Math.sin(alpha);
+        double cot2 = cot/2;
+        w[0] = cot2;
+        w[1] = -cot2;
+        return true;
+    }
+
+    /**
+     * Create the sparse hessian matrix.
+     * The sparsity pattern contains the diagonal as well as both
+     * entries for every edge connecting two vertices which are not
+     * fixed. The positions of these entries in the data array are
+     * recorded for the angles opposite the corresponding edges.
+     * @return a matrix suitable to receive the hessian
+     */
+    private CompRowMatrix createHessian() {
+        int ne = edgeV1.length, na = angleValue.length;
+        int[] count = new int[size];
+        for (int e = 0; e < ne; ++e) {
+            int i = vertexIndex[edgeV1[e]], j = vertexIndex[edgeV2[e]];
+            if (i >= 0 && j >= 0) {
+                ++count[i];
+                ++count[j];
+            }
+        }
+        int[][] nz = new int[size][];
+        for (int i = 0; i < size; ++i) {
+            nz[i] = new int[count[i] + 1];
+            nz[i][0] = i;
+            count[i] = 1;
+        }
+        for (int e = 0; e < ne; ++e) {
+            int i = vertexIndex[edgeV1[e]], j = vertexIndex[edgeV2[e]];
+            if (i >= 0 && j >= 0) {
+                nz[i][count[i]++] = j;
+                nz[j][count[j]++] = i;
+            }
+        }
+        for (int i = 0; i < size; ++i)
+            Arrays.sort(nz[i]);
+        CompRowMatrix h = new CompRowMatrix(size, size, nz);
+        int[] rowPtr = h.getRowPointers(), colIdx = h.getColumnIndices();
+        hessNextNext = new int[na];
+        hessPrevPrev = new int[na];
+        hessNextPrev = new int[na];
+        hessPrevNext = new int[na];
+        for (int k = 0; k < na; ++k) {
+            int i = vertexIndex[angleNextVertex[k]];
+            int j = vertexIndex[anglePrevVertex[k]];
+            hessNextNext[k] = i < 0 ? -1 : slot(rowPtr, colIdx, i, i);
+            hessPrevPrev[k] = j < 0 ? -1 : slot(rowPtr, colIdx, j, j);
+            if (i >= 0 && j >= 0) {
+                hessNextPrev[k] = slot(rowPtr, colIdx, i, j);
+                hessPrevNext[k] = slot(rowPtr, colIdx, j, i);
+            }
+            else {
+                hessNextPrev[k] = hessPrevNext[k] = -1;
+            }
+        }
         return h;
     }
 
+    /**
+     * Find the position of a matrix entry in compressed row storage.
+     * @param rowPtr the row pointers of the matrix
+     * @param colIdx the column indices of the matrix
+     * @param row the row of the entry
+     * @param col the column of the entry
+     * @return the index into the data array of the matrix
+     * @throws IllegalStateException if the entry is not in the pattern
+     */
+    private static int slot(int[] rowPtr, int[] colIdx, int row, int col) {
+        for (int k = rowPtr[row]; k < rowPtr[row + 1]; ++k)
+            if (colIdx[k] == col)
+                return k;
+        throw new IllegalStateException("Entry (" + row + ", " + col +
+                                        ") not in hessian pattern");
+    }
+
     /**
      * Scale solution.
      * Some boundary conditions lead to an arbitrarily scaled
@@ -221,28 +882,29 @@ class Energy implements Functional {
      */
     public void scale() {
         logger.debug("Scaling result");
+        int nv = vertexU.length;
         double sum = 0;
-        for (Vertex v: vertices)
-            sum += v.u;
-        double diff = -sum/vertices.size();
-        for (Vertex v: vertices)
-            v.u += diff;
-        for (Edge e: edges)
-            update(e);
-        for (Angle a: angles)
-            update(a);
+        for (int i = 0; i < nv; ++i)
+            sum += vertexU[i];
+        double diff = -sum/nv;
+        for (int i = 0; i < nv; ++i)
+            vertexU[i] += diff;
+        updateLengthsAndAngles();
     }
 
     /**
      * Update edge length from vertex length factors.
-     * @param e the edge to be updated
+     * @param j the number of the edge to be updated
      */
-    protected void update(Edge e) {
-        e.logLength = e.origLogLength + e.v1.u + e.v2.u;
-        assert !Double.isInfinite(e.logLength): "logLength is infinite";
-        assert !Double.isNaN(e.logLength): "logLength is NaN";
-        e.length = lamdaToLength(e.logLength);
-        assert e.length > 0: "length must stay positive (" + e.logLength + ")";
+    protected void updateEdge(int j) {
+        double lamda = edgeOrigLogLength[j] +
+            vertexU[edgeV1[j]] + vertexU[edgeV2[j]];
+        assert !Double.isInfinite(lamda): "logLength is infinite";
+        assert !Double.isNaN(lamda): "logLength is NaN";
+        edgeLogLength[j] = lamda;
+        double length = lamdaToLength(lamda);
+        assert length > 0: "length must stay positive (" + lamda + ")";
+        edgeLength[j] = length;
     }
 
     protected double lamdaToLength(double lamda) {
@@ -251,20 +913,20 @@ class Energy implements Functional {
 
     /**
      * Update angle value from edge lengths.
-     * @param a the angle to be updated
+     * @param k the number of the angle to be updated
      */
-    protected void update(Angle a) {
-        double lo = a.oppositeEdge.length;
-        double ln = a.nextEdge.length;
-        double lp = a.prevEdge.length;
+    protected void updateAngle(int k) {
+        double lo = edgeLength[angleOppositeEdge[k]];
+        double ln = edgeLength[angleNextEdge[k]];
+        double lp = edgeLength[anglePrevEdge[k]];
 
         // handle violations of triangle inequality
         if (lo >= ln + lp) {
-            a.angle = Math.PI;
+            angleValue[k] = Math.PI;
             return;
         }
         if (ln >= lo + lp || lp >= lo + ln) {
-            a.angle = 0;
+            angleValue[k] = 0;
             return;
         }
 
@@ -273,12 +935,14 @@ class Energy implements Functional {
         nom *= lengthAngleFactor(lo + lp - ln);
         double denom = lengthAngleFactor(lp + ln - lo);
         denom *= lengthAngleFactor(lo + lp + ln);
+        double angle;
         if (nom <= denom)
-            a.angle = 2.*Math.atan(Math.sqrt(nom/denom));
+            angle = 2.*Math.atan(Math.sqrt(nom/denom));
         else
-            a.angle = Math.PI - 2.*Math.atan(Math.sqrt(denom/nom));
-        assert !Double.isInfinite(a.angle): "angle is infinite";
-        assert !Double.isNaN(a.angle): "angle is NaN";
+            angle = Math.PI - 2.*Math.atan(Math.sqrt(denom/nom));
+        assert !Double.isInfinite(angle): "angle is infinite";
+        assert !Double.isNaN(angle): "angle is NaN";
+        angleValue[k] = angle;
     }
 
     /**
@@ -293,60 +957,196 @@ class Energy implements Functional {
 
     /**
      * Calculate individual terms whose sum make up the function
-     * value. Clever handling of those terms allows for more precise
+     * value, for a range of triangles. The terms are added to a
+     * compensated accumulator, which allows for more precise
      * calculation of function values and especially differences of
-     * such values.
-     * @return terms whose sum make up the function value
-     */
-    protected double[] valueTerms() {
-        double[] terms = new double[3*angles.size() + vertices.size()];
-        int nterms = 0;
-        for (Angle a: angles) {
-            double alpha = a.angle;
-            double lamda = a.oppositeEdge.logLength;
-            double cl2 = Clausen.cl2(2*alpha);
-            double u = a.vertex.u;
-            terms[nterms++] = alpha*lamda;
-            terms[nterms++] = cl2;
-            terms[nterms++] = -Math.PI*u;
-        }
-        for (Vertex v: vertices) {
-            double term = v.target*v.u;
-            terms[nterms++] = term;
-        }
-        assert nterms == terms.length: "Wrong number of terms";
-        return terms;
-    }
-
-    /**
-     * Calculate sum of an array of terms in a clever way.
-     * The sum is calculated in such a way as to keep errors for lack
-     * of precision low and have large terms cancel each other early
-     * on. The parameter array will be modified (i.e. sorted).
-     * @param terms the terms to sum over
-     * @return the sum of these terms
-     */
-    private double preciseSum(double[] terms) {
-        Arrays.sort(terms);
-        assert !Double.isInfinite(terms[0]);
-        assert !Double.isInfinite(terms[terms.length - 1]);
-        assert !Double.isNaN(terms[terms.length - 1]);
-        double sum = 0;
-        if (terms[0] >= 0) { // all non-negative
-            for (int i = 0; i < terms.length; ++i)
-                sum += terms[i];
-        }
-        else if (terms[terms.length - 1] <= 0) { // all non-positive
-            for (int i = terms.length - 1; i >= 0; --i)
-                sum += terms[i];
-        }
-        else { // mixed sign
-            for (int left = 0, right = terms.length; left < right; ) {
-                if (sum >= 0) sum += terms[left++];
-                else sum += terms[--right];
+     * such values. Subclasses may add terms for each triangle as
+     * well, as the range always covers complete triangles.
+     * @param sum the accumulator receiving the terms
+     * @param from the first angle of the range
+     * @param to the angle following the range
+     */
+    protected void valueTerms(PreciseSum sum, int from, int to) {
+        for (int k = from; k < to; ++k)
+            clausenIn[k] = 2*angleValue[k];
+        Clausen.cl2(clausenIn, clausenOut, from, to);
+        for (int k = from; k < to; ++k) {
+            double alpha = angleValue[k];
+            double lamda = edgeLogLength[angleOppositeEdge[k]];
+            double u = vertexU[angleVertex[k]];
+            sum.add(alpha*lamda);
+            sum.add(clausenOut[k]);
+            sum.add(-Math.PI*u);
+        }
+    }
+
+    /**
+     * Calculate the terms of the function value which depend on
+     * individual vertices only, for a range of vertices.
+     * @param sum the accumulator receiving the terms
+     * @param from the first vertex of the range
+     * @param to the vertex following the range
+     */
+    private void vertexTerms(PreciseSum sum, int from, int to) {
+        for (int i = from; i < to; ++i)
+            sum.add(vertexTarget[i]*vertexU[i]);
+    }
+
+    /**
+     * Kinds of sweeps over the arrays which can be split into chunks.
+     */
+    private enum Sweep {
+
+        /**
+         * Update all edge lengths.
+         */
+        EDGES,
+
+        /**
+         * Update all angles.
+         */
+        ANGLES,
+
+        /**
+         * Calculate the gradient.
+         */
+        GRADIENT,
+
+        /**
+         * Calculate the function value.
+         */
+        VALUE,
+
+        /**
+         * Calculate the hessian weights of all angles.
+         */
+        WEIGHTS,
+
+        /**
+         * Calculate the results requested by {@link #evaluate}.
+         */
+        EVALUATE,
+
+    }
+
+    /**
+     * Perform a sweep, either in the calling thread or distributed
+     * across the executor.
+     * @param sweep the kind of sweep to perform
+     * @throws CancellationException if the thread gets interrupted
+     */
+    private void sweep(Sweep sweep) {
+        if (executor == null || chunks == 1) {
+            for (int c = 0; c < chunks; ++c)
+                sweep(sweep, c);
+        }
+        else {
+            try {
+                for (Future<Object> f: executor.invokeAll(tasks.get(sweep)))
+                    f.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Energy evaluation " +
+                                                "interrupted");
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if (cause instanceof Error)
+                    throw (Error)cause;
+                throw new RuntimeException(cause);
             }
         }
-        return sum;
+        if (sweep == Sweep.VALUE ||
+            (sweep == Sweep.EVALUATE && (evaluateFlags & VALUE) != 0))
+            for (int c = 1; c < chunks; ++c)
+                valueSum.add(partialSums[c]);
+    }
+
+    /**
+     * Process a single chunk of a sweep.
+     * Chunks of angles always cover complete triangles.
+     * @param sweep the kind of sweep to perform
+     * @param c the number of the chunk
+     */
+    private void sweep(Sweep sweep, int c) {
+        switch (sweep) {
+        case EDGES:
+            for (int j = start(edgeLength.length, c),
+                     end = start(edgeLength.length, c + 1); j < end; ++j)
+                updateEdge(j);
+            break;
+        case ANGLES:
+            for (int k = 3*start(angleValue.length/3, c),
+                     end = 3*start(angleValue.length/3, c + 1); k < end; ++k)
+                updateAngle(k);
+            break;
+        case GRADIENT:
+            gradient(start(vertexU.length, c), start(vertexU.length, c + 1));
+            break;
+        case VALUE:
+            PreciseSum sum = partialSums[c];
+            sum.reset();
+            valueTerms(sum, 3*start(angleValue.length/3, c),
+                       3*start(angleValue.length/3, c + 1));
+            vertexTerms(sum, start(vertexU.length, c),
+                        start(vertexU.length, c + 1));
+            break;
+        case WEIGHTS:
+            hessianWeights(3*start(angleValue.length/3, c),
+                           3*start(angleValue.length/3, c + 1), weights[c]);
+            break;
+        case EVALUATE:
+            evaluate(3*start(angleValue.length/3, c),
+                     3*start(angleValue.length/3, c + 1),
+                     start(vertexU.length, c), start(vertexU.length, c + 1),
+                     c);
+            break;
+        }
+    }
+
+    /**
+     * Determine the start of a chunk.
+     * @param n the number of elements to split into chunks
+     * @param c the number of the chunk
+     * @return the first element of the chunk
+     */
+    private int start(int n, int c) {
+        return (int)((long)n*c/chunks);
+    }
+
+    /**
+     * Task processing a single chunk of a sweep.
+     */
+    private class Chunk implements Callable<Object> {
+
+        /**
+         * The kind of sweep to perform.
+         */
+        private final Sweep sweep;
+
+        /**
+         * The number of the chunk.
+         */
+        private final int c;
+
+        /**
+         * Construct task for a given chunk.
+         * @param sweep the kind of sweep to perform
+         * @param c the number of the chunk
+         */
+        public Chunk(Sweep sweep, int c) {
+            this.sweep = sweep;
+            this.c = c;
+        }
+
+        public Object call() {
+            sweep(sweep, c);
+            return null;
+        }
+
     }
 
 }
@@ -1,12 +1,14 @@
 package net.von_gagern.martin.confoo.conformal;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
+import net.von_gagern.martin.confoo.mesh.BinaryMesh;
+import net.von_gagern.martin.confoo.mesh.LocatedMesh;
 import net.von_gagern.martin.confoo.mesh.MeshException;
 import net.von_gagern.martin.confoo.mesh.ObjFormat;
+import net.von_gagern.martin.confoo.mesh.ObjWriter;
 
 /**
  * Command line interface to flatten a mesh.<p>
@@ -17,7 +19,11 @@ import net.von_gagern.martin.confoo.mesh.ObjFormat;
  * The application will read the mesh from <code>in.obj</code>, adjust
  * the angle at the first <i>n</i> vertices to the values given on the
  * command line and interpreted as degrees. Then it will transform the
- * mesh and write the resulting flat mesh to <code>out.obj</code>
+ * mesh and write the resulting flat mesh to <code>out.obj</code><p>
+ *
+ * File names ending in {@link BinaryMesh#EXTENSION} denote binary
+ * meshes instead of object files. A binary result also contains the
+ * parameter <i>u</i> of every vertex.
  *
  * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
  * @since 1.0
@@ -46,14 +52,31 @@ public class FlattenObj {
         }
         File inFile = new File(inFileName);
         File outFile = new File(outFileName);
-        FileInputStream inStream = new FileInputStream(inFile);
-        ObjFormat inObj = new ObjFormat(inStream);
-        inStream.close();
-        Conformal<Integer> c = Conformal.getInstance(inObj);
+        LocatedMesh<Integer> in;
+        int vertexCount;
+        if (inFileName.endsWith(BinaryMesh.EXTENSION)) {
+            BinaryMesh bin = new BinaryMesh(inFile);
+            vertexCount = bin.getVertexCount();
+            in = bin;
+        }
+        else {
+            ObjFormat obj = new ObjFormat(inFile);
+            vertexCount = obj.getVertexCount();
+            in = obj;
+        }
+        Conformal<Integer> c = Conformal.getInstance(in);
         c.fixedBoundaryCurvature(angles);
-        ObjFormat outObj = new ObjFormat(c.transform());
+        ResultMesh<Integer> res = c.transform();
         FileOutputStream outStream = new FileOutputStream(outFile);
-        outObj.write(outStream);
+        if (outFileName.endsWith(BinaryMesh.EXTENSION)) {
+            double[] u = new double[vertexCount];
+            for (int v = 1; v <= u.length; ++v)
+                u[v - 1] = res.getU(v);
+            new BinaryMesh(res, u, null).write(outStream);
+        }
+        else {
+            new ObjWriter(outStream).write(res);
+        }
         outStream.close();
     }
 
@@ -1,7 +1,5 @@
 package net.von_gagern.martin.confoo.conformal;
 
-import no.uib.cipr.matrix.LowerSPDPackMatrix;
-import no.uib.cipr.matrix.Matrix;
 import net.von_gagern.martin.confoo.fun.Clausen;
 import org.apache.log4j.Logger;
 
@@ -48,75 +46,76 @@ class HypEnergy extends Energy {
 
     /**
      * Calculate individual terms whose sum make up the function
-     * value. Clever handling of those terms allows for more precise
+     * value, for a range of triangles. The terms are added to a
+     * compensated accumulator, which allows for more precise
      * calculation of function values and especially differences of
      * such values.
-     * @return terms whose sum make up the function value
+     * @param sum the accumulator receiving the terms
+     * @param from the first angle of the range
+     * @param to the angle following the range
      */
-    @Override protected double[] valueTerms() {
-        double[] terms = new double[4*angles.size() +
-                                    triangles.size() +
-                                    vertices.size()];
-        int nterms = 0;
-        for (Angle a: angles) {
-            double alpha = a.angle;
-            double lamda = a.oppositeEdge.logLength;
-            double u = a.vertex.u;
-            double beta = (Math.PI + alpha - a.nextAngle.angle -
-                           a.nextAngle.nextAngle.angle)/2.;
+    @Override protected void valueTerms(PreciseSum sum, int from, int to) {
+        for (int k = from; k < to; ++k)
+            clausenIn[k] = 2*angleValue[k];
+        Clausen.cl2(clausenIn, clausenOut, from, to);
+        for (int k = from; k < to; ++k) {
+            double alpha = angleValue[k];
+            double lamda = edgeLogLength[angleOppositeEdge[k]];
+            double u = vertexU[angleVertex[k]];
+            double beta = beta(k);
 
-            terms[nterms++] = -alpha*u;
-            terms[nterms++] = beta*lamda;
-            terms[nterms++] = Clausen.cl2(2*alpha)/2.;
-            terms[nterms++] = Clausen.cl2(2*beta)/2.;
+            sum.add(-alpha*u);
+            sum.add(beta*lamda);
+            sum.add(clausenOut[k]/2.);
+            clausenIn[k] = 2*beta;
         }
-        for (Triangle t: triangles) {
-            double sum = Math.PI;
-            for (Angle a: t.getAngles())
-                sum -= a.angle;
-            terms[nterms++] = Clausen.cl2(sum)/2.;
-        }
-        for (Vertex v: vertices) {
-            terms[nterms++] = v.target*v.u;
-        }
-        assert nterms == terms.length: "Wrong number of terms";
-        return terms;
+        Clausen.cl2(clausenIn, clausenOut, from, to);
+        for (int k = from; k < to; ++k)
+            sum.add(clausenOut[k]/2.);
+
+        // one term per triangle, packed at the start of the range
+        int end = from;
+        for (int t = from; t < to; t += 3)
+            clausenIn[end++] = Math.PI - angleValue[t] -
+                angleValue[t + 1] - angleValue[t + 2];
+        Clausen.cl2(clausenIn, clausenOut, from, end);
+        for (int t = from; t < end; ++t)
+            sum.add(clausenOut[t]/2.);
     }
 
     /**
-     * Calculate hessian.
-     * @param h a preallocated matrix that may be used to receive the
-     *          result, or <code>null</code>
-     * @return the hessian of the energy
+     * Calculate the contribution of a single angle to the hessian.
+     * @param k the number of the angle under consideration
+     * @param w array receiving the diagonal and off-diagonal weight
+     * @return <code>false</code> if the angle doesn't contribute at all
      */
-    @Override public Matrix hessian(Matrix h) {
-        if (h == null) h = new LowerSPDPackMatrix(getInputDimension());
-        else h.zero();
-        for (Angle a: angles) {
-            double alpha = a.angle;
-            if (alpha <= 0 || alpha >= Math.PI) continue;
-            double beta = (Math.PI + alpha - a.nextAngle.angle -
-                           a.nextAngle.nextAngle.angle)/2.;
-            double l = a.oppositeEdge.length;
-            double cot = Math.cos(beta)/Math.sin(beta);
-            double cot2 = cot/2;
-            double tanh = Math.tanh(l/2);
-            double tanhSq = tanh*tanh;
-            double diag = cot2*(tanhSq + 1);
-            double nonDiag = cot2*(tanhSq - 1);
-            int i = a.nextVertex.index;
-            int j = a.prevVertex.index;
-            if (i >= 0)
-                h.add(i, i, diag);
-            if (j >= 0) {
-                h.add(j, j, diag);
-                if (i >= 0) {
-                    h.add(i, j, nonDiag);
-                    h.add(j, i, nonDiag);
-                }
-            }
-        }
-        return h;
+    @Override protected boolean hessianWeights(int k, double[] w) {
+        double alpha = angleValue[k];
+        if (alpha <= 0 || alpha >= Math.PI) return false;
+        double beta = beta(k);
+        double l = edgeLength[angleOppositeEdge[k]];
+        double cot = Math.cos(beta)/Math.sin(beta);
+        double cot2 = cot/2;
+        double tanh = Math.tanh(l/2);
+        double tanhSq = tanh*tanh;
+        w[0] = cot2*(tanhSq + 1);
+        w[1] = cot2*(tanhSq - 1);
+        return true;
+    }
+
+    /**
+     * Calculate the auxiliary angle beta for a given angle alpha.
+     * This is half the sum of alpha and pi minus the other two
+     * angles of the triangle.
+     * @param k the number of the angle alpha
+     * @return the value of beta
+     */
+    private double beta(int k) {
+        int t = k - k%3;
+        double alpha = angleValue[k];
+        double next = angleValue[t + (k + 1)%3];
+        double nextNext = angleValue[t + (k + 2)%3];
+        return (Math.PI + alpha - next - nextNext)/2.;
     }
 
     /**
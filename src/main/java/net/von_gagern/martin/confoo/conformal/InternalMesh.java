@@ -1,12 +1,16 @@
 package net.von_gagern.martin.confoo.conformal;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Iterator;
 import java.util.Collections;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Set;
 import net.von_gagern.martin.confoo.mesh.CorneredTriangle;
+import net.von_gagern.martin.confoo.mesh.IndexedMesh;
 import net.von_gagern.martin.confoo.mesh.LocatedMesh;
 import net.von_gagern.martin.confoo.mesh.MeshException;
 import net.von_gagern.martin.confoo.mesh.MetricMesh;
@@ -55,44 +59,209 @@ class InternalMesh<V> implements LocatedMesh<Vertex> {
     private final Map<V, Vertex> vm;
 
     /**
-     * Map from vertex pairs to edge objects.
+     * Vertex numbers of all corners, three consecutive ones per triangle.
+     * @since 1.2
      */
-    private final Map<VertexPair, Edge> em;
+    private final int[] corners;
 
     /**
-     * Construct internal mesh from metric mesh.
+     * Edge numbers of the edges opposite all corners.
+     * @since 1.2
+     */
+    private final int[] cornerEdges;
+
+    /**
+     * Start of the corners of each vertex in {@link #edgeCorners}.
+     * An edge is associated with the smaller of its two vertex numbers.
+     * @since 1.2
+     */
+    private final int[] edgeCornerPtr;
+
+    /**
+     * Corners opposite to all edges, sorted by smaller and then larger
+     * edge vertex, and by corner number for the same edge.
+     * @since 1.2
+     */
+    private final int[] edgeCorners;
+
+    /**
+     * Construct internal mesh from metric mesh.<p>
+     *
+     * Edges are identified using a corner table. The corners are
+     * sorted by the smaller and then the larger vertex number of the
+     * opposite edge, using two counting sorts, so that corners
+     * opposite the same edge become neighbours. This makes
+     * construction linear in the size of the mesh, even in the
+     * presence of vertices with many incident edges.
+     *
      * @throws MeshException if the internal mesh is malformed
      */
     public InternalMesh(MetricMesh<V> mesh) throws MeshException {
         vs = new ArrayList<Vertex>();
-        es = new ArrayList<Edge>();
-        ts = new ArrayList<Triangle>();
-        as = new ArrayList<Angle>();
         vm = new HashMap<V, Vertex>();
-        em = new HashMap<VertexPair, Edge>();
-
-        Object[] tcs = new Object[3];
-        Vertex[] tvs = new Vertex[3];
-        Edge[] tes = new Edge[3];
-        Angle[] tas = new Angle[3];
 
+        // handle vertices
+        int[] cs = new int[3*64];
+        int nc = 0;
         Iterator<? extends CorneredTriangle<? extends V>> iter;
         iter = mesh.iterator();
         while (iter.hasNext()) {
             CorneredTriangle<? extends V> triangle = iter.next();
-
-            // handle vertices
+            if (nc == cs.length) {
+                int[] tmp = new int[2*nc];
+                System.arraycopy(cs, 0, tmp, 0, nc);
+                cs = tmp;
+            }
             for (int i = 0; i < 3; ++i) {
                 V c = triangle.getCorner(i);
                 Vertex v = vm.get(c);
                 if (v == null) {
                     v = new Vertex(c);
+                    v.id = vs.size();
                     vs.add(v);
                     vm.put(c, v);
                 }
-                tcs[i] = c;
-                tvs[i] = v;
+                cs[nc++] = v.id;
+            }
+        }
+        corners = new int[nc];
+        System.arraycopy(cs, 0, corners, 0, nc);
+        cs = null;
+        int nv = vs.size();
+        edgeCornerPtr = new int[nv + 1];
+        edgeCorners = new int[nc];
+        cornerEdges = new int[nc];
+        es = new ArrayList<Edge>();
+        ts = new ArrayList<Triangle>(nc/3);
+        as = new ArrayList<Angle>(nc);
+        connect(mesh, null);
+    }
+
+    /**
+     * Construct internal mesh from indexed mesh.
+     * The vertex representants are the vertex indices, so this
+     * should be used for an <code>InternalMesh&lt;Integer&gt;</code>.
+     * No map is needed to look up vertices by index.
+     * @param mesh the indexed mesh
+     * @throws MeshException if the indexed mesh is malformed
+     * @since 1.2
+     */
+    InternalMesh(IndexedMesh mesh) throws MeshException {
+        int nv = mesh.getVertexCount();
+        corners = mesh.getTriangles().clone();
+        int nc = corners.length;
+        if (nc%3 != 0)
+            throw new MeshException("Number of triangle corners " + nc +
+                                    " is not a multiple of three");
+        boolean[] used = new boolean[nv];
+        for (int c = 0; c < nc; ++c) {
+            int v = corners[c];
+            if (v < 0 || v >= nv)
+                throw new MeshException("Vertex index out of range: " + v);
+            used[v] = true;
+        }
+        vs = new ArrayList<Vertex>(nv);
+        for (int i = 0; i < nv; ++i) {
+            if (!used[i])
+                throw new MeshException("Vertex " + i +
+                                        " is not part of any triangle");
+            Vertex v = new Vertex(Integer.valueOf(i));
+            v.id = i;
+            vs.add(v);
+        }
+        vm = new IndexMap<V>(vs);
+
+        double[] lengths = mesh.getEdgeLengths();
+        if (lengths == null) {
+            double[] xyz = mesh.getCoordinates();
+            if (xyz == null)
+                throw new MeshException("Neither edge lengths " +
+                                        "nor coordinates given");
+            if (xyz.length < 3*nv)
+                throw new MeshException("Too few coordinates");
+            lengths = new double[nc];
+            for (int c = 0; c < nc; ++c) {
+                int t = c - c%3;
+                int a = 3*corners[t + (c + 1)%3];
+                int b = 3*corners[t + (c + 2)%3];
+                double dx = xyz[a] - xyz[b];
+                double dy = xyz[a + 1] - xyz[b + 1];
+                double dz = xyz[a + 2] - xyz[b + 2];
+                lengths[c] = Math.sqrt(dx*dx + dy*dy + dz*dz);
+            }
+        }
+        else if (lengths.length != nc) {
+            throw new MeshException("Expected " + nc + " edge lengths " +
+                                    "but got " + lengths.length);
+        }
+        edgeCornerPtr = new int[nv + 1];
+        edgeCorners = new int[nc];
+        cornerEdges = new int[nc];
+        es = new ArrayList<Edge>();
+        ts = new ArrayList<Triangle>(nc/3);
+        as = new ArrayList<Angle>(nc);
+        connect(null, lengths);
+    }
+
+    /**
+     * Create edges, triangles and angles from the corner table.
+     * The constructor has to allocate the lists and tables filled by
+     * this method, so that they can be final. Edge lengths are either
+     * taken from an array or from the metric mesh the vertex
+     * representants belong to.
+     * @param metric the metric mesh, or <code>null</code>
+     * @param lengths the length of the edge opposite each corner,
+     *        or <code>null</code> to ask the metric mesh
+     * @throws MeshException if the internal mesh is malformed
+     */
+    private void connect(MetricMesh<V> metric, double[] lengths)
+        throws MeshException
+    {
+        int nc = corners.length, nv = vs.size(), nt = nc/3;
+
+        // sort corners by the larger vertex of the opposite edge, then
+        // stably group them by the smaller one
+        int[] ptr = new int[nv + 1];
+        int[] byMax = new int[nc];
+        for (int c = 0; c < nc; ++c)
+            ++ptr[maxVertex(c) + 1];
+        for (int i = 0; i < nv; ++i)
+            ptr[i + 1] += ptr[i];
+        for (int c = 0; c < nc; ++c)
+            byMax[ptr[maxVertex(c)]++] = c;
+        for (int c = 0; c < nc; ++c)
+            ++edgeCornerPtr[minVertex(c) + 1];
+        for (int i = 0; i < nv; ++i)
+            edgeCornerPtr[i + 1] += edgeCornerPtr[i];
+        System.arraycopy(edgeCornerPtr, 0, ptr, 0, nv);
+        for (int k = 0; k < nc; ++k) {
+            int c = byMax[k];
+            edgeCorners[ptr[minVertex(c)]++] = c;
+        }
+        ptr = null;
+        byMax = null;
+
+        // corners opposite the same edge are now adjacent, the smallest
+        // one first; record that one in cornerEdges for every corner,
+        // to be replaced by the edge number below
+        for (int k = 0; k < nc; ++k) {
+            int c = edgeCorners[k], first = c;
+            if (k > 0) {
+                int d = edgeCorners[k - 1];
+                if (minVertex(d) == minVertex(c) &&
+                    maxVertex(d) == maxVertex(c))
+                    first = cornerEdges[d];
             }
+            cornerEdges[c] = first;
+        }
+
+        Vertex[] tvs = new Vertex[3];
+        Edge[] tes = new Edge[3];
+        Angle[] tas = new Angle[3];
+
+        for (int tn = 0; tn < nt; ++tn) {
+            for (int i = 0; i < 3; ++i)
+                tvs[i] = vs.get(corners[3*tn + i]);
 
             // handle triangle
             Triangle t = new Triangle();
@@ -100,16 +269,23 @@ class InternalMesh<V> implements LocatedMesh<Vertex> {
 
             // handle edges
             for (int i = 0; i < 3; ++i) {
+                int c = 3*tn + i;
+                int first = cornerEdges[c];
                 Vertex v1 = tvs[(i+1)%3], v2 = tvs[(i+2)%3];
-                VertexPair vp = new VertexPair(v1, v2);
-                Edge e = em.get(vp);
-                if (e == null) {
-                    V c1 = (V)tcs[(i+1)%3], c2 = (V)tcs[(i+2)%3];
-                    e = new Edge(v1, v2, t, mesh.edgeLength(c1, c2));
+                Edge e;
+                if (first == c) {
+                    double length;
+                    if (lengths != null)
+                        length = lengths[c];
+                    else
+                        length = metric.edgeLength((V)v1.rep, (V)v2.rep);
+                    e = new Edge(v1, v2, t, length);
+                    cornerEdges[c] = es.size();
                     es.add(e);
-                    em.put(vp, e);
                 }
                 else {
+                    cornerEdges[c] = cornerEdges[first];
+                    e = es.get(cornerEdges[c]);
                     e.addTriangle(v2, v1, t);
                 }
                 tes[i] = e;
@@ -209,7 +385,88 @@ class InternalMesh<V> implements LocatedMesh<Vertex> {
      *         if the vertices are not adjacent to one another
      */
     public Edge getEdge(Vertex v1, Vertex v2) {
-        return em.get(new VertexPair(v1, v2));
+        int a = Math.min(v1.id, v2.id), b = Math.max(v1.id, v2.id);
+        int lo = edgeCornerPtr[a], hi = edgeCornerPtr[a + 1];
+        while (lo < hi) {                             // binary search
+            int k = (lo + hi) >>> 1;
+            int c = edgeCorners[k], m = maxVertex(c);
+            if (m == b)
+                return es.get(cornerEdges[c]);
+            if (m < b)
+                lo = k + 1;
+            else
+                hi = k;
+        }
+        return null;
+    }
+
+    /**
+     * Get the vertex numbers of all corners.
+     * The corners of each triangle are stored consecutively, in the
+     * order of the triangle list, so corner <i>k</i> corresponds to
+     * the <i>k</i>-th angle. Vertex numbers are positions in the
+     * vertex list. The returned array should not be modified.
+     * @return the vertex number of every corner
+     * @since 1.2
+     */
+    int[] getCorners() {
+        return corners;
+    }
+
+    /**
+     * Get the numbers of the edges opposite all corners.
+     * Edge numbers are positions in the edge list.
+     * The returned array should not be modified.
+     * @return the opposite edge number of every corner
+     * @since 1.2
+     */
+    int[] getCornerEdges() {
+        return cornerEdges;
+    }
+
+    /**
+     * Get the smaller vertex number of the edge opposite a corner.
+     * @param c a corner number
+     * @return the smaller of the two vertex numbers
+     */
+    private int minVertex(int c) {
+        int t = c - c%3;
+        return Math.min(corners[t + (c + 1)%3], corners[t + (c + 2)%3]);
+    }
+
+    /**
+     * Get the larger vertex number of the edge opposite a corner.
+     * @param c a corner number
+     * @return the larger of the two vertex numbers
+     */
+    private int maxVertex(int c) {
+        int t = c - c%3;
+        return Math.max(corners[t + (c + 1)%3], corners[t + (c + 2)%3]);
+    }
+
+    /**
+     * Forget the result of a previous layout phase.
+     * As the layout only assigns locations and directions which have
+     * not been set before, this has to be called before the mesh can
+     * be layed out again.
+     * @since 1.2
+     */
+    void clearLayout() {
+        for (Vertex v: vs)
+            v.location = null;
+        for (Edge e: es)
+            e.clearDirection();
+    }
+
+    /**
+     * Forget the vertices fixed by a previous boundary condition.
+     * Boundary conditions only ever fix vertices, so this has to be
+     * called before a different boundary condition can be applied.
+     * @since 1.2
+     */
+    void clearBoundary() {
+        for (Vertex v: vs)
+            v.fixed = false;
     }
 
     /**
@@ -263,4 +520,78 @@ class InternalMesh<V> implements LocatedMesh<Vertex> {
         return 0;
     }
 
+    /**
+     * Map from vertex indices to the vertices of an indexed mesh.
+     * The keys are the vertex representants, which are
+     * <code>Integer</code> indices but typed like those of the mesh.
+     * @since 1.2
+     */
+    private static class IndexMap<K> extends AbstractMap<K, Vertex> {
+
+        /**
+         * List of vertices, ordered by index.
+         */
+        private final List<Vertex> vs;
+
+        /**
+         * Construct map for vertex list.
+         * @param vs the list of vertices, ordered by index
+         */
+        IndexMap(List<Vertex> vs) {
+            this.vs = vs;
+        }
+
+        @Override public Vertex get(Object key) {
+            if (!(key instanceof Integer)) return null;
+            int i = ((Integer)key).intValue();
+            if (i < 0 || i >= vs.size()) return null;
+            return vs.get(i);
+        }
+
+        @Override public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override public int size() {
+            return vs.size();
+        }
+
+        public Set<Map.Entry<K, Vertex>> entrySet() {
+            return new AbstractSet<Map.Entry<K, Vertex>>() {
+                public int size() {
+                    return vs.size();
+                }
+                public Iterator<Map.Entry<K, Vertex>> iterator() {
+                    final Iterator<Vertex> iter = vs.iterator();
+                    return new Iterator<Map.Entry<K, Vertex>>() {
+                        public boolean hasNext() {
+                            return iter.hasNext();
+                        }
+                        public Map.Entry<K, Vertex> next() {
+                            final Vertex v = iter.next();
+                            return new Map.Entry<K, Vertex>() {
+                                // Representants of indexed meshes are
+                                // the Integer keys of this map
+                                @SuppressWarnings("unchecked")
+                                public K getKey() {
+                                    return (K)v.rep;
+                                }
+                                public Vertex getValue() {
+                                    return v;
+                                }
+                                public Vertex setValue(Vertex value) {
+                                    throw new UnsupportedOperationException();
+                                }
+                            };
+                        }
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+    }
+
 }
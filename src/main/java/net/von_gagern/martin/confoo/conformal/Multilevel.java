@@ -0,0 +1,717 @@
+package net.von_gagern.martin.confoo.conformal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.von_gagern.martin.confoo.mesh.IndexedMesh;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.opt.Newton;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.MatrixNotSPDException;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
+import org.apache.log4j.Logger;
+
+/**
+ * Coarse-to-fine approximation of the scale factors.<p>
+ *
+ * A hierarchy of coarser meshes is built by repeatedly removing an
+ * independent set of interior vertices. The star of every removed
+ * vertex is flattened, with its angles scaled to a sum of 2&#960;,
+ * and the resulting polygon is triangulated again by clipping
+ * ears. Boundary vertices, fixed vertices and vertices with a target
+ * angle sum other than 2&#960; are never removed, so the coarse
+ * meshes share the boundary condition of the input mesh.<p>
+ *
+ * The energy is minimized on the coarsest mesh first. The scale
+ * factors are then carried over to the next finer mesh, where every
+ * removed vertex receives the scale factor that gives it its target
+ * angle sum with respect to its neighbours. This serves
+ * as the starting point for the optimization on that mesh, and so on
+ * up to the input mesh itself. As the coarse solutions only serve as
+ * starting points, they are computed with a reduced accuracy.<p>
+ *
+ * This is only meaningful for euclidean input and output geometry,
+ * as the stars of removed vertices are flattened in the euclidean
+ * plane.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+class Multilevel {
+
+    /**
+     * Log4j logger for customizable logging and reporting.
+     */
+    private final Logger logger = Logger.getLogger(Multilevel.class);
+
+    /**
+     * Maximal number of neighbours of a removed vertex.
+     */
+    private static final int MAX_DEGREE = 8;
+
+    /**
+     * Bound for the angle error on coarse levels.
+     */
+    private static final double COARSE_EPSILON = 1e-8;
+
+    /**
+     * Maximal number of Newton iterations on coarse levels. A coarse
+     * mesh might not admit a solution without degenerate triangles,
+     * in which case the optimization stagnates, but its result is
+     * still a useful starting point.
+     */
+    private static final int COARSE_ITERATIONS = 16;
+
+    /**
+     * Number of bisection steps used to adjust removed vertices.
+     */
+    private static final int RELAX_STEPS = 40;
+
+    /**
+     * Coarsening stops once a level would retain more than this
+     * proportion of the vertices of the next finer level.
+     */
+    private static final double MIN_REDUCTION = 0.9;
+
+    /**
+     * All levels of the hierarchy, starting with the input mesh.
+     */
+    private final List<Level> levels = new ArrayList<Level>();
+
+    /**
+     * Build hierarchy for a mesh.
+     * The boundary condition must already have been applied to the
+     * mesh, as it determines which vertices may be removed.
+     * @param mesh the input mesh
+     * @param minVertices coarsening stops once a level has at most
+     *        this number of vertices
+     */
+    public Multilevel(InternalMesh<?> mesh, int minVertices) {
+        List<Vertex> vs = mesh.getVertices();
+        List<Edge> es = mesh.getEdges();
+        int[] cornerEdges = mesh.getCornerEdges();
+        int nv = vs.size(), nc = cornerEdges.length;
+        double[] lengths = new double[nc];
+        for (int c = 0; c < nc; ++c)
+            lengths[c] = es.get(cornerEdges[c]).origLength;
+        double[] target = new double[nv];
+        boolean[] fixed = new boolean[nv];
+        for (int i = 0; i < nv; ++i) {
+            Vertex v = vs.get(i);
+            target[i] = v.target;
+            fixed[i] = v.fixed;
+        }
+        Level level = new Level(nv, mesh.getCorners(), lengths,
+                                target, fixed);
+        levels.add(level);
+        while (level.nv > minVertices) {
+            Level coarse = level.coarsen();
+            if (coarse.nv > MIN_REDUCTION*level.nv)
+                break;
+            levels.add(coarse);
+            level = coarse;
+        }
+        if (logger.isDebugEnabled()) {
+            StringBuilder buf = new StringBuilder("Vertices per level:");
+            for (Level l: levels)
+                buf.append(' ').append(l.nv);
+            logger.debug(buf.toString());
+        }
+    }
+
+    /**
+     * Get the number of levels, including the input mesh.
+     * @return the number of levels
+     */
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * Get a coarse level as an indexed mesh.
+     * @param i the number of the level, zero for the input mesh
+     * @return the mesh of that level
+     */
+    IndexedMesh getLevel(int i) {
+        return levels.get(i);
+    }
+
+    /**
+     * Approximate the scale factors of the input mesh.
+     * All coarse levels are solved in turn, and the result is carried
+     * over to the input mesh. If a level can not be solved, its
+     * starting point is carried over instead, so that the solutions
+     * of the coarser levels are not lost.
+     * @param conformal the transformer used to configure the optimizers
+     * @return the scale factor of every vertex of the input mesh, or
+     *         <code>null</code> if the hierarchy has a single level
+     *         or no coarse level could be solved
+     */
+    public double[] solve(Conformal<?> conformal) {
+        double[] u = null;
+        for (int i = levels.size() - 1; i > 0; --i) {
+            try {
+                u = levels.get(i).solve(u, conformal);
+            }
+            catch (MeshException e) {
+                logger.warn("Could not solve level " + i + ": " + e);
+            }
+            if (u != null)
+                u = levels.get(i - 1).prolong(u);
+        }
+        return u;
+    }
+
+    /**
+     * A single level of the hierarchy.
+     */
+    private static class Level implements IndexedMesh {
+
+        /**
+         * Number of vertices.
+         */
+        final int nv;
+
+        /**
+         * Vertex numbers of all corners.
+         */
+        final int[] corners;
+
+        /**
+         * Length of the edge opposite each corner.
+         */
+        final double[] lengths;
+
+        /**
+         * Target angle sum of each vertex.
+         */
+        final double[] target;
+
+        /**
+         * Whether each vertex is fixed.
+         */
+        final boolean[] fixed;
+
+        /**
+         * Start of the corners of each vertex in
+         * <code>vertexCorners</code>.
+         */
+        int[] vertexCornerPtr;
+
+        /**
+         * Corners grouped by vertex.
+         */
+        int[] vertexCorners;
+
+        /**
+         * Vertex number on the next coarser level, or -1 if removed.
+         */
+        int[] coarse;
+
+        /**
+         * Construct level.
+         * @param nv the number of vertices
+         * @param corners the vertex numbers of all corners
+         * @param lengths the length of the edge opposite each corner
+         * @param target the target angle sum of each vertex
+         * @param fixed whether each vertex is fixed
+         */
+        Level(int nv, int[] corners, double[] lengths,
+              double[] target, boolean[] fixed) {
+            this.nv = nv;
+            this.corners = corners;
+            this.lengths = lengths;
+            this.target = target;
+            this.fixed = fixed;
+        }
+
+        public int getVertexCount() {
+            return nv;
+        }
+
+        public int[] getTriangles() {
+            return corners;
+        }
+
+        public double[] getCoordinates() {
+            return null;
+        }
+
+        public double[] getEdgeLengths() {
+            return lengths;
+        }
+
+        /**
+         * Group corners by vertex.
+         */
+        private void groupCorners() {
+            int nc = corners.length;
+            vertexCornerPtr = new int[nv + 1];
+            vertexCorners = new int[nc];
+            for (int c = 0; c < nc; ++c)
+                ++vertexCornerPtr[corners[c] + 1];
+            for (int i = 0; i < nv; ++i)
+                vertexCornerPtr[i + 1] += vertexCornerPtr[i];
+            int[] fill = new int[nv];
+            for (int c = 0; c < nc; ++c) {
+                int v = corners[c];
+                vertexCorners[vertexCornerPtr[v] + fill[v]++] = c;
+            }
+        }
+
+        /**
+         * Get the corner following a given one in its triangle.
+         * @param c a corner number
+         * @return the next corner of the same triangle
+         */
+        private static int next(int c) {
+            return c - c%3 + (c + 1)%3;
+        }
+
+        /**
+         * Get the corner preceding a given one in its triangle.
+         * @param c a corner number
+         * @return the previous corner of the same triangle
+         */
+        private static int prev(int c) {
+            return c - c%3 + (c + 2)%3;
+        }
+
+        /**
+         * Determine whether two vertices are adjacent.
+         * @param a one vertex
+         * @param b another vertex
+         * @return whether an edge connects the two vertices
+         */
+        private boolean adjacent(int a, int b) {
+            for (int p = vertexCornerPtr[a]; p < vertexCornerPtr[a + 1];
+                 ++p) {
+                int c = vertexCorners[p];
+                if (corners[next(c)] == b || corners[prev(c)] == b)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Order the corners of an interior vertex around it.
+         * The corner at position <i>i</i> belongs to the triangle
+         * spanned by the vertex and its neighbours <i>i</i> and
+         * <i>i</i>+1.
+         * @param v the vertex
+         * @return the corners in cyclic order, or <code>null</code>
+         *         if the vertex does not have a closed star
+         */
+        private int[] star(int v) {
+            int from = vertexCornerPtr[v], to = vertexCornerPtr[v + 1];
+            int k = to - from;
+            if (k < 3 || k > MAX_DEGREE)
+                return null;
+            int[] res = new int[k];
+            res[0] = vertexCorners[from];
+            for (int i = 1; i < k; ++i) {
+                int w = corners[prev(res[i - 1])];
+                res[i] = -1;
+                for (int p = from; p < to; ++p) {
+                    int c = vertexCorners[p];
+                    if (corners[next(c)] == w) {
+                        res[i] = c;
+                        break;
+                    }
+                }
+                if (res[i] < 0 || res[i] == res[0])
+                    return null;
+            }
+            if (corners[prev(res[k - 1])] != corners[next(res[0])])
+                return null;
+            for (int i = 0; i < k; ++i)
+                for (int j = 0; j < i; ++j)
+                    if (corners[next(res[i])] == corners[next(res[j])])
+                        return null;
+            return res;
+        }
+
+        /**
+         * Build the next coarser level.
+         * @return the coarser level
+         */
+        Level coarsen() {
+            groupCorners();
+            int nc = corners.length;
+            boolean[] removed = new boolean[nv];
+            boolean[] blocked = new boolean[nv];
+            boolean[] deleted = new boolean[nc/3];
+            Set<Long> diagonals = new HashSet<Long>();
+            int[] newCorners = new int[nc];
+            double[] newLengths = new double[nc];
+            int nn = 0;
+            int[] poly = new int[MAX_DEGREE];
+            double[] polyLen = new double[MAX_DEGREE];
+            double[] xs = new double[MAX_DEGREE];
+            double[] ys = new double[MAX_DEGREE];
+            int[] tri = new int[3*(MAX_DEGREE - 2)];
+            double[] triLen = new double[3*(MAX_DEGREE - 2)];
+            long[] triDiag = new long[MAX_DEGREE - 3];
+
+            for (int v = 0; v < nv; ++v) {
+                if (blocked[v] || fixed[v] || target[v] != 2*Math.PI)
+                    continue;
+                int[] star = star(v);
+                if (star == null)
+                    continue;
+                int k = star.length;
+
+                // flatten star, scaling its angles to a sum of 2 pi
+                double sum = 0;
+                for (int i = 0; i < k; ++i) {
+                    int c = star[i];
+                    sum += angle(lengths[c], lengths[prev(c)],
+                                 lengths[next(c)]);
+                }
+                double theta = 0;
+                for (int i = 0; i < k; ++i) {
+                    int c = star[i];
+                    double r = lengths[prev(c)];
+                    poly[i] = corners[next(c)];
+                    polyLen[i] = lengths[c];
+                    xs[i] = r*Math.cos(theta);
+                    ys[i] = r*Math.sin(theta);
+                    theta += angle(lengths[c], r, lengths[next(c)])*
+                        (2*Math.PI/sum);
+                }
+
+                // clip ears
+                int n = k, nt = 0, nd = 0;
+                while (n > 3) {
+                    int best = -1;
+                    double bestLen = Double.POSITIVE_INFINITY;
+                    for (int i = 0; i < n; ++i) {
+                        int a = (i + n - 1)%n, b = (i + 1)%n;
+                        if (!convex(xs, ys, a, i, b))
+                            continue;
+                        boolean empty = true;
+                        for (int j = 0; j < n && empty; ++j)
+                            if (j != a && j != i && j != b &&
+                                inside(xs, ys, a, i, b, j))
+                                empty = false;
+                        if (!empty)
+                            continue;
+                        double d = diagonal(xs, ys, a, i, b,
+                                            polyLen[a], polyLen[i]);
+                        if (d >= bestLen ||
+                            !triangle(polyLen[i], d, polyLen[a]))
+                            continue;
+                        if (adjacent(poly[a], poly[b]) ||
+                            diagonals.contains(key(poly[a], poly[b])))
+                            continue;
+                        best = i;
+                        bestLen = d;
+                    }
+                    if (best < 0)
+                        break;
+                    int a = (best + n - 1)%n, b = (best + 1)%n;
+                    tri[3*nt] = poly[a];
+                    tri[3*nt + 1] = poly[best];
+                    tri[3*nt + 2] = poly[b];
+                    triLen[3*nt] = polyLen[best];
+                    triLen[3*nt + 1] = bestLen;
+                    triLen[3*nt + 2] = polyLen[a];
+                    ++nt;
+                    triDiag[nd++] = key(poly[a], poly[b]);
+                    polyLen[a] = bestLen;
+                    for (int j = best; j < n - 1; ++j) {
+                        poly[j] = poly[j + 1];
+                        polyLen[j] = polyLen[j + 1];
+                        xs[j] = xs[j + 1];
+                        ys[j] = ys[j + 1];
+                    }
+                    --n;
+                }
+                if (n > 3 || !triangle(polyLen[1], polyLen[2], polyLen[0]))
+                    continue;
+                tri[3*nt] = poly[0];
+                tri[3*nt + 1] = poly[1];
+                tri[3*nt + 2] = poly[2];
+                triLen[3*nt] = polyLen[1];
+                triLen[3*nt + 1] = polyLen[2];
+                triLen[3*nt + 2] = polyLen[0];
+                ++nt;
+
+                // commit removal
+                removed[v] = true;
+                for (int i = 0; i < k; ++i) {
+                    blocked[corners[next(star[i])]] = true;
+                    deleted[star[i]/3] = true;
+                }
+                for (int i = 0; i < nd; ++i)
+                    diagonals.add(triDiag[i]);
+                System.arraycopy(tri, 0, newCorners, nn, 3*nt);
+                System.arraycopy(triLen, 0, newLengths, nn, 3*nt);
+                nn += 3*nt;
+            }
+
+            // number remaining vertices
+            coarse = new int[nv];
+            int cnv = 0;
+            for (int v = 0; v < nv; ++v)
+                coarse[v] = removed[v] ? -1 : cnv++;
+            double[] cTarget = new double[cnv];
+            boolean[] cFixed = new boolean[cnv];
+            for (int v = 0; v < nv; ++v) {
+                if (removed[v]) continue;
+                cTarget[coarse[v]] = target[v];
+                cFixed[coarse[v]] = fixed[v];
+            }
+
+            // collect remaining and new triangles
+            int cnc = nn;
+            for (int t = 0; t < nc/3; ++t)
+                if (!deleted[t])
+                    cnc += 3;
+            int[] cCorners = new int[cnc];
+            double[] cLengths = new double[cnc];
+            int m = 0;
+            for (int c = 0; c < nc; ++c) {
+                if (deleted[c/3]) continue;
+                cCorners[m] = coarse[corners[c]];
+                cLengths[m++] = lengths[c];
+            }
+            for (int c = 0; c < nn; ++c) {
+                cCorners[m] = coarse[newCorners[c]];
+                cLengths[m++] = newLengths[c];
+            }
+            return new Level(cnv, cCorners, cLengths, cTarget, cFixed);
+        }
+
+        /**
+         * Minimize the energy of this level.
+         * @param start the starting scale factor of each vertex, or
+         *        <code>null</code> to start at zero
+         * @param conformal the transformer used to configure the
+         *        optimizer
+         * @return the scale factor of each vertex
+         * @throws MeshException if the energy could not be minimized
+         */
+        double[] solve(double[] start, Conformal<?> conformal)
+            throws MeshException
+        {
+            InternalMesh<Integer> mesh = new InternalMesh<Integer>(this);
+            List<Vertex> vs = mesh.getVertices();
+            for (int i = 0; i < nv; ++i) {
+                Vertex v = vs.get(i);
+                v.target = target[i];
+                v.fixed = fixed[i];
+            }
+            for (Edge e: mesh.getEdges())
+                e.initLamdas(2*Math.log(e.origLength));
+            Energy energy = new Energy(mesh);
+            Newton newton = Newton.getInstance(energy);
+            conformal.configureNewton(newton);
+            newton.setEpsilon(Newton.ExitCondition.GRADIENT, COARSE_EPSILON);
+            newton.setMaxIterations(COARSE_ITERATIONS);
+            if (start != null) {
+                Vector x = new DenseVector(energy.getInputDimension());
+                for (int i = 0; i < nv; ++i) {
+                    int index = vs.get(i).index;
+                    if (index >= 0)
+                        x.set(index, start[i]);
+                }
+                newton.setStartingPoint(x);
+            }
+            try {
+                newton.optimize();
+            }
+            catch (IterativeSolverNotConvergedException e) {
+                throw new MeshException("Could not find optimal " +
+                                        "solution: " + e.getReason(), e);
+            }
+            catch (MatrixNotSPDException e) {
+                throw new MeshException("Could not find optimal " +
+                                        "solution: " + e.getMessage(), e);
+            }
+            energy.updateMesh();
+            double[] u = new double[nv];
+            for (int i = 0; i < nv; ++i)
+                u[i] = vs.get(i).u;
+            return u;
+        }
+
+        /**
+         * Carry scale factors over from the next coarser level.
+         * Every removed vertex receives the scale factor which gives
+         * it its target angle sum, while the scale factors of its
+         * neighbours are kept. As removed vertices are never adjacent,
+         * this can be done for each of them independently.
+         * @param u the scale factors of the coarser level
+         * @return the scale factors of this level
+         */
+        double[] prolong(double[] u) {
+            double[] res = new double[nv];
+            for (int v = 0; v < nv; ++v)
+                if (coarse[v] >= 0)
+                    res[v] = u[coarse[v]];
+            for (int v = 0; v < nv; ++v) {
+                if (coarse[v] >= 0)
+                    continue;
+                int from = vertexCornerPtr[v], to = vertexCornerPtr[v + 1];
+                double sum = 0;
+                for (int p = from; p < to; ++p)
+                    sum += res[corners[next(vertexCorners[p])]];
+                res[v] = sum/(to - from);
+                relax(v, res);
+            }
+            return res;
+        }
+
+        /**
+         * Adjust the scale factor of a single vertex to its target
+         * angle sum, using bisection. The angle sum decreases with the
+         * scale factor, from the number of adjacent triangles times
+         * &#960; down to zero, so a solution always exists.
+         * @param v the vertex to be adjusted
+         * @param u the scale factors, including an initial guess for
+         *        the vertex
+         */
+        private void relax(int v, double[] u) {
+            double lo = u[v], hi = u[v], step = 1;
+            while (angleSum(v, lo, u) < target[v]) {
+                lo -= step;
+                step *= 2;
+            }
+            step = 1;
+            while (angleSum(v, hi, u) > target[v]) {
+                hi += step;
+                step *= 2;
+            }
+            for (int i = 0; i < RELAX_STEPS; ++i) {
+                double mid = 0.5*(lo + hi);
+                if (angleSum(v, mid, u) > target[v])
+                    lo = mid;
+                else
+                    hi = mid;
+            }
+            u[v] = 0.5*(lo + hi);
+        }
+
+        /**
+         * Calculate the angle sum of a vertex for a given scale factor.
+         * Every edge length is scaled by the exponential of the mean
+         * scale factor of its end points.
+         * @param v the vertex
+         * @param uv the scale factor of the vertex
+         * @param u the scale factors of all other vertices
+         * @return the sum of the angles around the vertex
+         */
+        private double angleSum(int v, double uv, double[] u) {
+            double sum = 0;
+            for (int p = vertexCornerPtr[v]; p < vertexCornerPtr[v + 1];
+                 ++p) {
+                int c = vertexCorners[p];
+                double un = u[corners[next(c)]], up = u[corners[prev(c)]];
+                sum += angle(lengths[c]*Math.exp(0.5*(un + up)),
+                             lengths[next(c)]*Math.exp(0.5*(uv + up)),
+                             lengths[prev(c)]*Math.exp(0.5*(uv + un)));
+            }
+            return sum;
+        }
+
+    }
+
+    /**
+     * Calculate an angle of a triangle from its edge lengths.
+     * @param a the length of the edge opposite the angle
+     * @param b the length of a second edge
+     * @param c the length of the third edge
+     * @return the angle opposite <code>a</code>
+     */
+    private static double angle(double a, double b, double c) {
+        double cos = (b*b + c*c - a*a)/(2*b*c);
+        if (cos >= 1) return 0;
+        if (cos <= -1) return Math.PI;
+        return Math.acos(cos);
+    }
+
+    /**
+     * Determine whether three lengths satisfy the triangle inequality.
+     * The last triangle of a re-triangulated star consists of
+     * diagonals which were computed independently of one another, so
+     * it might violate the inequality. Ears with an angle close to
+     * &#960; might do so as well, due to rounding errors.
+     * @param a the length of one edge
+     * @param b the length of a second edge
+     * @param c the length of the third edge
+     * @return whether each length is less than the sum of the others
+     */
+    private static boolean triangle(double a, double b, double c) {
+        return a < b + c && b < c + a && c < a + b;
+    }
+
+    /**
+     * Calculate the length of the diagonal cutting off an ear.
+     * The lengths of the two sides of the ear are kept, while the
+     * angle between them is taken from the flattened polygon. As that
+     * angle is less than &#960; for a convex ear, the three lengths
+     * satisfy the triangle inequality, up to rounding errors.
+     * @param xs the x coordinates of the polygon
+     * @param ys the y coordinates of the polygon
+     * @param a the vertex preceding the tip of the ear
+     * @param b the tip of the ear
+     * @param c the vertex following the tip of the ear
+     * @param ab the length of the edge from a to b
+     * @param bc the length of the edge from b to c
+     * @return the length of the edge from a to c
+     */
+    private static double diagonal(double[] xs, double[] ys,
+                                   int a, int b, int c,
+                                   double ab, double bc) {
+        double ax = xs[a] - xs[b], ay = ys[a] - ys[b];
+        double cx = xs[c] - xs[b], cy = ys[c] - ys[b];
+        double cos = Math.cos(Math.atan2(Math.abs(ax*cy - ay*cx),
+                                         ax*cx + ay*cy));
+        return Math.sqrt(Math.max(0, ab*ab + bc*bc - 2*ab*bc*cos));
+    }
+
+    /**
+     * Determine whether three polygon vertices form a left turn.
+     * @param xs the x coordinates of the polygon
+     * @param ys the y coordinates of the polygon
+     * @param a the first vertex
+     * @param b the second vertex
+     * @param c the third vertex
+     * @return whether the triangle abc is oriented counterclockwise
+     */
+    private static boolean convex(double[] xs, double[] ys,
+                                  int a, int b, int c) {
+        return (xs[b] - xs[a])*(ys[c] - ys[a]) -
+            (ys[b] - ys[a])*(xs[c] - xs[a]) > 0;
+    }
+
+    /**
+     * Determine whether a point lies in a counterclockwise triangle.
+     * @param xs the x coordinates of the polygon
+     * @param ys the y coordinates of the polygon
+     * @param a the first corner of the triangle
+     * @param b the second corner of the triangle
+     * @param c the third corner of the triangle
+     * @param p the point to be tested
+     * @return whether the point lies inside or on the triangle
+     */
+    private static boolean inside(double[] xs, double[] ys,
+                                  int a, int b, int c, int p) {
+        return !convex(xs, ys, b, a, p) && !convex(xs, ys, c, b, p) &&
+            !convex(xs, ys, a, c, p);
+    }
+
+    /**
+     * Create a key identifying an unordered vertex pair.
+     * @param a one vertex
+     * @param b another vertex
+     * @return a key which does not depend on the order of the vertices
+     */
+    private static long key(int a, int b) {
+        return ((long)Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+}
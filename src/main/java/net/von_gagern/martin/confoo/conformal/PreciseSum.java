@@ -0,0 +1,91 @@
+package net.von_gagern.martin.confoo.conformal;
+
+/**
+ * Compensated accumulator for sums of floating point numbers.<p>
+ *
+ * The sum is kept as an unevaluated pair of doubles, a leading part
+ * and a trailing correction, which gives roughly twice the precision
+ * of a single double. Every term is added using the error-free
+ * transformation by Knuth, so that no rounding error of the leading
+ * part is lost. In contrast to sorting the terms, this works in a
+ * single pass and without any storage for the terms themselves.<p>
+ *
+ * The difference between two such sums is calculated from both parts
+ * of each, so large values which cancel do not spoil the precision of
+ * the difference.
+ *
+ * @see <a href="http://dx.doi.org/10.1137/030601818">Accurate Sum and Dot Product by Ogita, Rump and Oishi</a>
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+class PreciseSum {
+
+    /**
+     * Leading part of the sum.
+     */
+    private double hi;
+
+    /**
+     * Accumulated rounding errors of the leading part.
+     */
+    private double lo;
+
+    /**
+     * Reset the sum to zero.
+     */
+    public void reset() {
+        hi = 0;
+        lo = 0;
+    }
+
+    /**
+     * Add a single term to the sum.
+     * @param x the term to be added
+     */
+    public void add(double x) {
+        double s = hi + x;
+        double z = s - hi;
+        lo += (hi - (s - z)) + (x - z);
+        hi = s;
+    }
+
+    /**
+     * Add another sum to this one, keeping the precision of both.
+     * @param that the sum to be added
+     */
+    public void add(PreciseSum that) {
+        add(that.hi);
+        lo += that.lo;
+    }
+
+    /**
+     * Copy the current value of another sum.
+     * @param that the sum to be copied
+     */
+    public void set(PreciseSum that) {
+        hi = that.hi;
+        lo = that.lo;
+    }
+
+    /**
+     * Calculate the difference between this sum and another one.
+     * @param that the sum to be subtracted
+     * @return the difference <code>this - that</code>
+     */
+    public double minus(PreciseSum that) {
+        double d = hi - that.hi;
+        double z = d - hi;
+        double err = (hi - (d - z)) - (that.hi + z);
+        return d + (err + (lo - that.lo));
+    }
+
+    /**
+     * Get the value of this sum, rounded to a single double.
+     * @return the sum of all terms added so far
+     */
+    public double doubleValue() {
+        return hi + lo;
+    }
+
+}
@@ -23,6 +23,14 @@ class Vertex {
         this.rep = rep;
     }
 
+    /**
+     * The vertex number.
+     * This is the position of the vertex in the vertex list of the
+     * internal mesh, which is used to look up edges.
+     * @since 1.2
+     */
+    int id = -1;
+
     /**
      * The vertex index.
      * This is used by the Energy function. Fixed vertices will have
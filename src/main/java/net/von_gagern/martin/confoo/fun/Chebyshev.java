@@ -23,7 +23,7 @@ public class Chebyshev {
     /**
      * Constant used to decide the use of the Reinsch modification
      */
-    private static double TEST = 0.6;
+    private static final double TEST = 0.6;
 
     /**
      * Evaluate a Chebyshev series.
@@ -79,4 +79,116 @@ public class Chebyshev {
         }
     }
 
+    /**
+     * Evaluate a Chebyshev series at several points.
+     * The result for every point is the same as the one computed by
+     * {@link #cheval(int, double[], double)}. The arrays for points
+     * and results may be the same, in which case the points will be
+     * overwritten by the results.
+     *
+     * @param n the number of terms in the sequence
+     * @param a the coefficients of the Chebyshev series
+     * @param t the values at which the series is to be evaluated
+     * @param out the array receiving the values of the series
+     * @param from the index of the first value to evaluate
+     * @param to the index following the last value to evaluate
+     * @since 1.2
+     */
+    public static void cheval(int n, double[] a, double[] t, double[] out,
+                              int from, int to) {
+        for (int j = from; j < to; ++j) {
+            double tj = t[j];
+            double u1 = 0, u2 = 0;
+            if (tj < TEST && tj > -TEST) {
+                double u0 = 0;
+                double tt = tj + tj;
+                for (int i = n; i >= 0; --i) {
+                    u2 = u1;
+                    u1 = u0;
+                    u0 = tt*u1 + a[i] - u2;
+                }
+                out[j] = (u0 - u2)/2;
+            }
+            else if (tj > 0) {
+                double d1 = 0, d2 = 0;
+                double tt = (tj - 0.5) - 0.5;
+                tt += tt;
+                for (int i = n; i >= 0; --i) {
+                    d2 = d1;
+                    u2 = u1;
+                    d1 = tt*u2 + a[i] + d2;
+                    u1 = d1 + u2;
+                }
+                out[j] = (d1 + d2)/2;
+            }
+            else {
+                double d1 = 0, d2 = 0;
+                double tt = (tj + 0.5) + 0.5;
+                tt += tt;
+                for (int i = n; i >= 0; --i) {
+                    d2 = d1;
+                    u2 = u1;
+                    d1 = tt*u2 + a[i] - d2;
+                    u1 = d1 - u2;
+                }
+                out[j] = (d1 - d2)/2;
+            }
+        }
+    }
+
+    /**
+     * Evaluate a Chebyshev series at several points, using the
+     * standard Clenshaw method for all of them. Unlike
+     * {@link #cheval(int, double[], double[], double[], int, int)}
+     * this never switches to the Reinsch modification, so every point
+     * takes the same path through the code. The rounding errors for
+     * points close to -1 or 1 are larger, which is acceptable for
+     * series whose coefficients decrease fast. The arrays for points
+     * and results may be the same.
+     *
+     * @param n the number of terms in the sequence
+     * @param a the coefficients of the Chebyshev series
+     * @param t the values at which the series is to be evaluated
+     * @param out the array receiving the values of the series
+     * @param from the index of the first value to evaluate
+     * @param to the index following the last value to evaluate
+     */
+    static void clenshaw(int n, double[] a, double[] t, double[] out,
+                         int from, int to) {
+        int j = from;
+
+        // Four points at a time, so that their recurrences overlap
+        for (; j + 4 <= to; j += 4) {
+            double tt0 = t[j] + t[j], tt1 = t[j + 1] + t[j + 1];
+            double tt2 = t[j + 2] + t[j + 2], tt3 = t[j + 3] + t[j + 3];
+            double u10 = 0, u11 = 0, u12 = 0, u13 = 0;
+            double u20 = 0, u21 = 0, u22 = 0, u23 = 0;
+            for (int i = n; i > 0; --i) {
+                double ai = a[i];
+                double u00 = tt0*u10 + (ai - u20);
+                double u01 = tt1*u11 + (ai - u21);
+                double u02 = tt2*u12 + (ai - u22);
+                double u03 = tt3*u13 + (ai - u23);
+                u20 = u10; u21 = u11; u22 = u12; u23 = u13;
+                u10 = u00; u11 = u01; u12 = u02; u13 = u03;
+            }
+            out[j] = (tt0*u10 + (a[0] - u20) - u20)/2;
+            out[j + 1] = (tt1*u11 + (a[0] - u21) - u21)/2;
+            out[j + 2] = (tt2*u12 + (a[0] - u22) - u22)/2;
+            out[j + 3] = (tt3*u13 + (a[0] - u23) - u23)/2;
+        }
+
+        // Remaining points one by one
+        for (; j < to; ++j) {
+            double tt = t[j] + t[j];
+            double u1 = 0, u2 = 0;
+            for (int i = n; i > 0; --i) {
+                double u0 = tt*u1 + (a[i] - u2);
+                u2 = u1;
+                u1 = u0;
+            }
+            out[j] = (tt*u1 + (a[0] - u2) - u2)/2;
+        }
+    }
+
 }
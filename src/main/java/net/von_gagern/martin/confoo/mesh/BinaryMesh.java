@@ -0,0 +1,514 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact binary representation of a located mesh.<p>
+ *
+ * This format stores the same information as an {@link ObjFormat}
+ * object file, but without any text encoding, so it can be used to
+ * pass meshes between stages of a processing pipeline at little
+ * cost. Optionally it also stores the parameter <i>u</i> of each
+ * vertex, as obtained from a conformal transformation, and texture
+ * coordinates. Vertices are identified by integers starting at 1.<p>
+ *
+ * All numbers are stored in little endian byte order. The file
+ * starts with a header of six 32 bit integers: the magic number
+ * {@link #MAGIC}, the format {@link #VERSION}, a set of flags
+ * indicating the optional sections, the number of vertices and the
+ * number of faces, followed by a reserved zero. Next come three
+ * doubles per vertex holding the coordinates and three integers per
+ * face holding its corners. Then, aligned to a multiple of eight
+ * bytes, come one double per vertex if {@link #FLAG_U} is set and
+ * two doubles per vertex if {@link #FLAG_UV} is set.<p>
+ *
+ * An object of this class is a view of a buffer in that format. The
+ * buffer may be mapped from a file, in which case vertices and faces
+ * are read directly from the mapped file, without copying or
+ * decoding them in advance. As buffers are limited to 2 GB, so are
+ * the files read this way.<p>
+ *
+ * Binary meshes are read only.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public class BinaryMesh
+    implements LocatedMesh<Integer>, Iterable<CorneredTriangle<Integer>>
+{
+
+    /**
+     * Magic number at the start of every file, the characters
+     * <code>CFMB</code> in little endian byte order.
+     */
+    public static final int MAGIC = 0x424d4643;
+
+    /**
+     * Version of the format written by this class.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Flag indicating the presence of the parameter <i>u</i>.
+     */
+    public static final int FLAG_U = 1;
+
+    /**
+     * Flag indicating the presence of texture coordinates.
+     */
+    public static final int FLAG_UV = 2;
+
+    /**
+     * Suggested file name extension for this format.
+     */
+    public static final String EXTENSION = ".bmesh";
+
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER = 24;
+
+    /**
+     * The buffer holding the whole mesh.
+     */
+    private ByteBuffer buf;
+
+    /**
+     * Flags indicating the optional sections present.
+     */
+    private int flags;
+
+    /**
+     * Number of vertices.
+     */
+    private int vertexCount;
+
+    /**
+     * Number of faces.
+     */
+    private int faceCount;
+
+    /**
+     * View of the vertex coordinates, three per vertex.
+     */
+    private DoubleBuffer coords;
+
+    /**
+     * View of the face corners, three per face.
+     */
+    private IntBuffer faces;
+
+    /**
+     * View of the parameter u, or <code>null</code> if not present.
+     */
+    private DoubleBuffer u;
+
+    /**
+     * View of the texture coordinates, two per vertex, or
+     * <code>null</code> if not present.
+     */
+    private DoubleBuffer uv;
+
+    /**
+     * Construct view of a buffer holding a binary mesh.
+     * The mesh is read from the current position of the buffer. The
+     * buffer is neither copied nor modified, so it must not be
+     * modified while this mesh is in use. Face corners are not
+     * checked in advance.
+     * @param buffer a buffer in binary mesh format
+     * @throws IOException if the buffer doesn't hold a valid mesh
+     */
+    public BinaryMesh(ByteBuffer buffer) throws IOException {
+        ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (b.remaining() < HEADER || b.getInt(0) != MAGIC)
+            throw new IOException("Not a binary mesh");
+        if (b.getInt(4) < 1 || b.getInt(4) > VERSION)
+            throw new IOException("Unsupported binary mesh version " +
+                                  b.getInt(4));
+        int nv = b.getInt(12), nf = b.getInt(16);
+        if (nv < 0 || nf < 0 || b.remaining() < size(b.getInt(8), nv, nf))
+            throw new IOException("Truncated binary mesh");
+        wrap(b);
+    }
+
+    /**
+     * Construct from binary mesh file.
+     * The file is mapped into memory, so its contents are only read
+     * when they are accessed.
+     * @param file a binary mesh file
+     * @throws IOException if the file can't be read or isn't valid
+     */
+    public BinaryMesh(File file) throws IOException {
+        this(map(file));
+    }
+
+    /**
+     * Construct from integer mesh.<p>
+     *
+     * The integers identifying vertices in the underlying mesh must
+     * start at 1 and form a continuous range. The optional arrays
+     * contain the data of vertex <code>v</code> at index
+     * <code>v-1</code>, or two elements starting at
+     * <code>2(v-1)</code> for texture coordinates.
+     *
+     * @param mesh the mesh to construct the binary mesh from
+     * @param u the parameter u for each vertex, or <code>null</code>
+     * @param uv two texture coordinates for each vertex, or
+     *        <code>null</code>
+     * @throws IllegalArgumentException if an array is too short
+     */
+    public BinaryMesh(LocatedMesh<Integer> mesh, double[] u, double[] uv) {
+        wrap(encode(mesh, u, uv));
+    }
+
+    /**
+     * Construct from integer mesh, without any optional sections.
+     * @param mesh the mesh to construct the binary mesh from
+     * @see #BinaryMesh(LocatedMesh, double[], double[])
+     */
+    public BinaryMesh(LocatedMesh<Integer> mesh) {
+        this(mesh, null, null);
+    }
+
+    /**
+     * Set up views of a buffer which is known to be valid.
+     * @param b a little endian buffer starting with the header
+     */
+    private void wrap(ByteBuffer b) {
+        buf = b;
+        flags = b.getInt(8);
+        vertexCount = b.getInt(12);
+        faceCount = b.getInt(16);
+        coords = slice(HEADER, 24L*vertexCount).asDoubleBuffer();
+        faces = slice(facesOffset(vertexCount), 12L*faceCount).asIntBuffer();
+        long offset = uOffset(vertexCount, faceCount);
+        if ((flags & FLAG_U) != 0) {
+            u = slice(offset, 8L*vertexCount).asDoubleBuffer();
+            offset += 8L*vertexCount;
+        }
+        if ((flags & FLAG_UV) != 0)
+            uv = slice(offset, 16L*vertexCount).asDoubleBuffer();
+    }
+
+    /**
+     * Create a little endian view of a part of the buffer.
+     * @param offset the start of the part
+     * @param length the length of the part in bytes
+     * @return a buffer representing that part
+     */
+    private ByteBuffer slice(long offset, long length) {
+        ByteBuffer b = buf.duplicate();
+        b.limit((int)(offset + length));
+        b.position((int)offset);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Calculate the position of the face section.
+     * @param nv the number of vertices
+     * @return the offset of the first face corner
+     */
+    private static long facesOffset(int nv) {
+        return HEADER + 24L*nv;
+    }
+
+    /**
+     * Calculate the position of the optional sections.
+     * @param nv the number of vertices
+     * @param nf the number of faces
+     * @return the offset of the first optional section
+     */
+    private static long uOffset(int nv, int nf) {
+        return (facesOffset(nv) + 12L*nf + 7) & ~7L;
+    }
+
+    /**
+     * Calculate the size of a binary mesh.
+     * @param flags the optional sections present
+     * @param nv the number of vertices
+     * @param nf the number of faces
+     * @return the number of bytes required for the mesh
+     */
+    private static long size(int flags, int nv, int nf) {
+        long size = uOffset(nv, nf);
+        if ((flags & FLAG_U) != 0)
+            size += 8L*nv;
+        if ((flags & FLAG_UV) != 0)
+            size += 16L*nv;
+        return size;
+    }
+
+    /**
+     * Encode an integer mesh in binary format.
+     * @param mesh the mesh to be encoded
+     * @param u the parameter u for each vertex, or <code>null</code>
+     * @param uv two texture coordinates for each vertex, or
+     *        <code>null</code>
+     * @return a little endian buffer holding the encoded mesh
+     * @throws IllegalArgumentException if an array is too short or
+     *         the mesh is too large
+     */
+    private static ByteBuffer encode(LocatedMesh<Integer> mesh,
+                                     double[] u, double[] uv) {
+        Iterator<? extends CorneredTriangle<? extends Integer>> iter;
+        iter = mesh.iterator();
+        int[] cs = new int[3*64];
+        int n = 0, nv = 0;
+        while (iter.hasNext()) {
+            CorneredTriangle<? extends Integer> t = iter.next();
+            if (n == cs.length) {
+                int[] bigger = new int[2*cs.length];
+                System.arraycopy(cs, 0, bigger, 0, n);
+                cs = bigger;
+            }
+            for (int i = 0; i < 3; ++i) {
+                int c = t.getCorner(i);
+                cs[n++] = c;
+                if (nv < c)
+                    nv = c;
+            }
+        }
+        int flags = 0;
+        if (u != null) {
+            if (u.length < nv)
+                throw new IllegalArgumentException("Too few values of u");
+            flags |= FLAG_U;
+        }
+        if (uv != null) {
+            if (uv.length < 2*nv)
+                throw new IllegalArgumentException("Too few texture " +
+                                                   "coordinates");
+            flags |= FLAG_UV;
+        }
+        long size = size(flags, nv, n/3);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Mesh too large");
+        ByteBuffer b = ByteBuffer.allocate((int)size);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(MAGIC).putInt(VERSION).putInt(flags);
+        b.putInt(nv).putInt(n/3).putInt(0);
+        for (int v = 1; v <= nv; ++v) {
+            b.putDouble(mesh.getX(v));
+            b.putDouble(mesh.getY(v));
+            b.putDouble(mesh.getZ(v));
+        }
+        for (int i = 0; i < n; ++i)
+            b.putInt(cs[i]);
+        b.position((int)uOffset(nv, n/3));
+        if (u != null)
+            for (int v = 0; v < nv; ++v)
+                b.putDouble(u[v]);
+        if (uv != null)
+            for (int i = 0; i < 2*nv; ++i)
+                b.putDouble(uv[i]);
+        b.clear();
+        return b;
+    }
+
+    /**
+     * Map a file into memory.
+     * @param file the file to be mapped
+     * @return a read only buffer of the contents of the file
+     * @throws IOException if the file can't be mapped
+     */
+    private static ByteBuffer map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                               0, channel.size());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write binary mesh to a channel.
+     * @param out the channel to which the mesh will be written
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(WritableByteChannel out) throws IOException {
+        ByteBuffer b = buf.duplicate();
+        b.limit((int)size(flags, vertexCount, faceCount));
+        b.position(0);
+        while (b.hasRemaining())
+            out.write(b);
+    }
+
+    /**
+     * Write binary mesh to a stream.
+     * @param out the stream to which the mesh will be written
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(OutputStream out) throws IOException {
+        write(Channels.newChannel(out));
+    }
+
+    /**
+     * Get the number of vertices.
+     * @return the number of vertices, which are numbered from 1
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Get the number of faces.
+     * @return the number of faces
+     */
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * Get x coordinate of vertex.
+     * @param v index of a vertex
+     * @return the x coordinate of that vertex
+     */
+    public double getX(Integer v) {
+        return coords.get(3*(v - 1));
+    }
+
+    /**
+     * Get y coordinate of vertex.
+     * @param v index of a vertex
+     * @return the y coordinate of that vertex
+     */
+    public double getY(Integer v) {
+        return coords.get(3*(v - 1) + 1);
+    }
+
+    /**
+     * Get z coordinate of vertex.
+     * @param v index of a vertex
+     * @return the z coordinate of that vertex
+     */
+    public double getZ(Integer v) {
+        return coords.get(3*(v - 1) + 2);
+    }
+
+    /**
+     * Determine edge length.
+     * @param v1 index of first vertex
+     * @param v2 index of second vertex
+     * @return the distance as calculated from the vertex coordinates
+     */
+    public double edgeLength(Integer v1, Integer v2) {
+        int k1 = 3*(v1 - 1), k2 = 3*(v2 - 1);
+        double res = 0;
+        for (int i = 0; i < 3; ++i) {
+            double d = coords.get(k1 + i) - coords.get(k2 + i);
+            res += d*d;
+        }
+        return Math.sqrt(res);
+    }
+
+    /**
+     * Determine whether the parameter u is stored for all vertices.
+     * @return whether {@link #getU} may be called
+     */
+    public boolean hasU() {
+        return u != null;
+    }
+
+    /**
+     * Get the parameter u of a vertex.
+     * @param v index of a vertex
+     * @return the parameter u of that vertex
+     * @throws IllegalStateException if the mesh contains no such data
+     */
+    public double getU(Integer v) {
+        if (u == null)
+            throw new IllegalStateException("Mesh has no parameter u");
+        return u.get(v - 1);
+    }
+
+    /**
+     * Determine whether texture coordinates are stored.
+     * @return whether {@link #getTextureU} and {@link #getTextureV}
+     *         may be called
+     */
+    public boolean hasTexture() {
+        return uv != null;
+    }
+
+    /**
+     * Get the first texture coordinate of a vertex.
+     * @param v index of a vertex
+     * @return the horizontal texture coordinate of that vertex
+     * @throws IllegalStateException if the mesh contains no such data
+     */
+    public double getTextureU(Integer v) {
+        if (uv == null)
+            throw new IllegalStateException("Mesh has no texture");
+        return uv.get(2*(v - 1));
+    }
+
+    /**
+     * Get the second texture coordinate of a vertex.
+     * @param v index of a vertex
+     * @return the vertical texture coordinate of that vertex
+     * @throws IllegalStateException if the mesh contains no such data
+     */
+    public double getTextureV(Integer v) {
+        if (uv == null)
+            throw new IllegalStateException("Mesh has no texture");
+        return uv.get(2*(v - 1) + 1);
+    }
+
+    /**
+     * Get iterator over all triangles.
+     * @return an iterator over all triangles in the mesh
+     */
+    public MeshIterator<Integer> iterator() {
+        return new Iter();
+    }
+
+    /**
+     * Iterator over the faces of a binary mesh.
+     *
+     * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+     */
+    private class Iter extends AbstractMeshIterator<Integer> {
+
+        /**
+         * Index of the first corner of the next face.
+         */
+        private int i = 0;
+
+        /**
+         * Determine whether there are any more faces.
+         * @return whether there are any more faces to iterate
+         */
+        public boolean hasNext() {
+            return i < 3*faceCount;
+        }
+
+        /**
+         * Get next triangle.
+         * @return a triangle representing the next face
+         */
+        public CorneredTriangle<Integer> next() {
+            if (i >= 3*faceCount)
+                throw new NoSuchElementException();
+            i += 3;
+            return new SimpleTriangle<Integer>
+                (faces.get(i - 3), faces.get(i - 2), faces.get(i - 1));
+        }
+
+    }
+
+}
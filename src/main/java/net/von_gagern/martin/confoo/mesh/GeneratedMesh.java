@@ -0,0 +1,135 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Mesh created by {@link MeshGenerator}.<p>
+ *
+ * Vertices are identified by integers starting at 1, as they are in
+ * object files, so a generated mesh can be turned into an {@link
+ * ObjFormat} without any vertex map. All data is kept in primitive
+ * arrays, which keeps the memory footprint low even for millions of
+ * vertices. Every generated mesh is topologically a disk, and the
+ * generator records four boundary vertices which are suitable as
+ * corners of a fixed boundary curvature condition.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public class GeneratedMesh
+    implements LocatedMesh<Integer>, Iterable<CorneredTriangle<Integer>>
+{
+
+    /**
+     * Vertex coordinates, three per vertex.
+     */
+    private final double[] coords;
+
+    /**
+     * Triangle corners, three zero-based vertex indices per triangle.
+     */
+    private final int[] triangles;
+
+    /**
+     * Zero-based indices of four boundary vertices in cyclic order.
+     */
+    private final int[] corners;
+
+    /**
+     * Construct mesh from arrays. The arrays are not copied.
+     * @param coords vertex coordinates, three per vertex
+     * @param triangles zero-based triangle corners, three per triangle
+     * @param corners four zero-based boundary vertices
+     */
+    GeneratedMesh(double[] coords, int[] triangles, int[] corners) {
+        this.coords = coords;
+        this.triangles = triangles;
+        this.corners = corners;
+    }
+
+    /**
+     * Get the number of vertices.
+     * @return the number of vertices, which are numbered from 1
+     */
+    public int getVertexCount() {
+        return coords.length/3;
+    }
+
+    /**
+     * Get the number of triangles.
+     * @return the number of triangles
+     */
+    public int getTriangleCount() {
+        return triangles.length/3;
+    }
+
+    /**
+     * Get four corners for a boundary condition.
+     * The corners are spread along the boundary. Assigning right
+     * angles to them results in a rectangle when used as fixed
+     * boundary curvature for a flat result.
+     * @param angle the angle to be assigned to each corner
+     * @return a map from four boundary vertices to the given angle
+     * @see net.von_gagern.martin.confoo.conformal.Conformal#fixedBoundaryCurvature
+     */
+    public Map<Integer, Double> corners(double angle) {
+        Map<Integer, Double> res = new HashMap<Integer, Double>();
+        for (int i = 0; i < 4; ++i)
+            res.put(corners[i] + 1, angle);
+        return res;
+    }
+
+    public MeshIterator<Integer> iterator() {
+        return new Iter();
+    }
+
+    public double getX(Integer v) {
+        return coords[3*(v - 1)];
+    }
+
+    public double getY(Integer v) {
+        return coords[3*(v - 1) + 1];
+    }
+
+    public double getZ(Integer v) {
+        return coords[3*(v - 1) + 2];
+    }
+
+    public double edgeLength(Integer v1, Integer v2) {
+        int k1 = 3*(v1 - 1), k2 = 3*(v2 - 1);
+        double dx = coords[k1] - coords[k2];
+        double dy = coords[k1 + 1] - coords[k2 + 1];
+        double dz = coords[k1 + 2] - coords[k2 + 2];
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+
+    /**
+     * Iterator over the triangles of a generated mesh.
+     *
+     * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+     */
+    private class Iter extends AbstractMeshIterator<Integer> {
+
+        /**
+         * Index of the first corner of the next triangle.
+         */
+        private int i = 0;
+
+        public boolean hasNext() {
+            return i < triangles.length;
+        }
+
+        public CorneredTriangle<Integer> next() {
+            if (i >= triangles.length)
+                throw new NoSuchElementException();
+            CorneredTriangle<Integer> t = new SimpleTriangle<Integer>
+                (triangles[i] + 1, triangles[i + 1] + 1, triangles[i + 2] + 1);
+            i += 3;
+            return t;
+        }
+
+    }
+
+}
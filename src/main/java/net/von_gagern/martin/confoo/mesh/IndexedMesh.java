@@ -0,0 +1,61 @@
+package net.von_gagern.martin.confoo.mesh;
+
+/**
+ * A mesh stored in primitive arrays.<p>
+ *
+ * Vertices are identified by their index, starting at zero. The
+ * triangles are given as an array of vertex indices, three
+ * consecutive entries for each triangle, oriented consistently. The
+ * metric is either given by vertex coordinates, from which euclidean
+ * edge lengths are derived, or by explicit edge lengths.<p>
+ *
+ * In contrast to the generic mesh interfaces, no objects have to be
+ * created for vertices or triangles, and vertices need not be hashed
+ * in order to identify them. This makes this interface well suited
+ * for large meshes which are already available in array form.<p>
+ *
+ * Callers should not modify the returned arrays, and implementations
+ * may return internal data structures.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public interface IndexedMesh {
+
+    /**
+     * Get the number of vertices.
+     * Every vertex has to be a corner of at least one triangle.
+     * @return the number of vertices
+     */
+    public int getVertexCount();
+
+    /**
+     * Get the corners of all triangles.
+     * The three corners of triangle <i>t</i> are stored at positions
+     * 3<i>t</i> to 3<i>t</i>+2.
+     * @return an array of vertex indices
+     */
+    public int[] getTriangles();
+
+    /**
+     * Get the coordinates of all vertices.
+     * The <i>x</i>, <i>y</i> and <i>z</i> coordinate of vertex
+     * <i>v</i> are stored at positions 3<i>v</i> to 3<i>v</i>+2.
+     * This is only used if {@link #getEdgeLengths} returns
+     * <code>null</code>.
+     * @return an array of vertex coordinates, or <code>null</code>
+     */
+    public double[] getCoordinates();
+
+    /**
+     * Get the lengths of all edges.
+     * The array is indexed like the array of triangle corners, with
+     * each entry giving the length of the edge opposite that
+     * corner. Where an edge is shared by two triangles, the length
+     * given for its first occurrence is used.
+     * @return an array of edge lengths, or <code>null</code> to use
+     *         euclidean distances between vertex coordinates
+     */
+    public double[] getEdgeLengths();
+
+}
@@ -0,0 +1,462 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.util.Random;
+
+/**
+ * Generator for synthetic meshes of arbitrary size.<p>
+ *
+ * The meshes created here are meant as reproducible input for tests
+ * and benchmarks, in order to measure how solvers and file formats
+ * scale with the size of the mesh. All meshes are topologically
+ * disks and consistently oriented, so they can be passed to
+ * <code>Conformal</code> directly or written as an object file using
+ * {@link ObjFormat}. Randomized meshes take an explicit seed, so the
+ * same arguments always result in the same mesh.<p>
+ *
+ * The size parameter <code>n</code> controls the resolution of the
+ * mesh; the number of vertices grows quadratically with it. A mesh
+ * of about 10<sup>7</sup> vertices requires a size of a few thousand.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public class MeshGenerator {
+
+    /**
+     * Not instantiable, as all methods are static.
+     */
+    private MeshGenerator() {
+    }
+
+    /**
+     * Create a regular grid on the unit square.
+     * The grid has <code>n</code> by <code>n</code> cells, each split
+     * into two triangles along the same diagonal. Vertices are
+     * numbered row by row, the corners are those of the square.
+     * @param n the number of cells along each side
+     * @return a flat mesh with <code>(n+1)<sup>2</sup></code> vertices
+     */
+    public static GeneratedMesh grid(int n) {
+        return perturbedGrid(n, 0, 0);
+    }
+
+    /**
+     * Create a grid with randomly displaced interior vertices.
+     * Every coordinate of every interior vertex is displaced by up to
+     * half the given amount, relative to the size of a grid cell. The
+     * displacement in z direction makes the mesh non-planar. Amounts
+     * below one half keep all triangles properly oriented in the xy
+     * projection.
+     * @param n the number of cells along each side
+     * @param amount the maximal displacement relative to the cell size
+     * @param seed the seed for the random number generator
+     * @return a mesh with <code>(n+1)<sup>2</sup></code> vertices
+     */
+    public static GeneratedMesh perturbedGrid(int n, double amount,
+                                              long seed) {
+        return new GeneratedMesh(gridCoords(n, amount, seed),
+                                 gridTriangles(n, n), gridCorners(n, n));
+    }
+
+    /**
+     * Create a grid containing badly shaped triangles.
+     * Starting from a regular grid, interior vertices with even row
+     * and column are moved with a probability of one half towards a
+     * randomly chosen neighbour. As no two of these vertices are
+     * adjacent, the severity is the fraction of the distance to that
+     * neighbour which is covered. Values close to 1 result in almost
+     * degenerate needles and caps, while all triangles stay properly
+     * oriented.
+     * @param n the number of cells along each side
+     * @param severity the fraction of the distance moved, 0 &le;
+     *        severity &lt; 1
+     * @param seed the seed for the random number generator
+     * @return a flat mesh with <code>(n+1)<sup>2</sup></code> vertices
+     */
+    public static GeneratedMesh badTriangles(int n, double severity,
+                                             long seed) {
+        if (severity < 0 || severity >= 1)
+            throw new IllegalArgumentException("0 <= severity < 1");
+        double[] coords = gridCoords(n, 0, 0);
+        // neighbours of a vertex, matching the diagonals of the grid
+        int[] di = { 1, 1, 0, -1, -1, 0 };
+        int[] dj = { 0, 1, 1, 0, -1, -1 };
+        Random rnd = new Random(seed);
+        int m = n + 1;
+        for (int j = 2; j < n; j += 2) {
+            for (int i = 2; i < n; i += 2) {
+                if (!rnd.nextBoolean())
+                    continue;
+                int dir = rnd.nextInt(6);
+                int k = 3*(j*m + i);
+                coords[k] += severity*di[dir]/n;
+                coords[k + 1] += severity*dj[dir]/n;
+            }
+        }
+        return new GeneratedMesh(coords, gridTriangles(n, n),
+                                 gridCorners(n, n));
+    }
+
+    /**
+     * Create a cylinder which is cut open along one side.
+     * The cylinder has radius 1 and is divided into <code>4n</code>
+     * cells around its circumference and <code>n</code> cells along
+     * its axis, so that the cells are approximately square. The
+     * vertices along the cut are duplicated, so the mesh is a disk
+     * whose corners are the ends of the cut.
+     * @param n the number of cells along the axis
+     * @return a mesh with <code>(n+1)(4n+1)</code> vertices
+     */
+    public static GeneratedMesh cutCylinder(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("n must be positive");
+        int cols = 4*n, m = cols + 1;
+        double h = 2*Math.PI/cols;
+        double[] coords = new double[3*m*(n + 1)];
+        for (int j = 0; j <= n; ++j) {
+            for (int i = 0; i < m; ++i) {
+                int k = 3*(j*m + i);
+                coords[k] = Math.cos(i*h);
+                coords[k + 1] = Math.sin(i*h);
+                coords[k + 2] = j*h;
+            }
+        }
+        return new GeneratedMesh(coords, gridTriangles(cols, n),
+                                 gridCorners(cols, n));
+    }
+
+    /**
+     * Create a sphere with a circular hole cut into it.
+     * The mesh is made up of <code>n</code> concentric rings around
+     * the north pole of the unit sphere, with six vertices in the
+     * first ring and six additional vertices in each further ring.
+     * The rings are equally spaced in latitude, the last one forming
+     * the boundary at the given polar angle. An angle of
+     * <code>&pi;/2</code> results in a hemisphere, larger angles in
+     * most of a sphere.
+     * @param n the number of rings
+     * @param theta the polar angle of the boundary, 0 &lt; theta
+     *        &lt; &pi;
+     * @return a mesh with <code>3n(n+1)+1</code> vertices
+     */
+    public static GeneratedMesh cutSphere(int n, double theta) {
+        if (theta <= 0 || theta >= Math.PI)
+            throw new IllegalArgumentException("0 < theta < pi");
+        double[] coords = ringCoords(n);
+        for (int k = 0; k < coords.length; k += 3) {
+            double x = coords[k], y = coords[k + 1];
+            double r = Math.sqrt(x*x + y*y);
+            double t = r*theta, s = r == 0 ? 0 : Math.sin(t)/r;
+            coords[k] = x*s;
+            coords[k + 1] = y*s;
+            coords[k + 2] = Math.cos(t);
+        }
+        return new GeneratedMesh(coords, ringTriangles(n), ringCorners(n));
+    }
+
+    /**
+     * Create a random Delaunay triangulation of the unit disk.
+     * The vertices are those of concentric rings as for {@link
+     * #cutSphere}, with interior vertices displaced at random. The
+     * triangulation is then made Delaunay by flipping edges.
+     * @param n the number of rings
+     * @param seed the seed for the random number generator
+     * @return a flat mesh with <code>3n(n+1)+1</code> vertices
+     */
+    public static GeneratedMesh delaunayDisk(int n, long seed) {
+        double[] coords = ringCoords(n);
+        Random rnd = new Random(seed);
+        double radius = 0.2/n;
+        for (int k = 0, end = 3*ringStart(n); k < end; k += 3) {
+            double r = radius*Math.sqrt(rnd.nextDouble());
+            double phi = 2*Math.PI*rnd.nextDouble();
+            coords[k] += r*Math.cos(phi);
+            coords[k + 1] += r*Math.sin(phi);
+        }
+        int[] triangles = ringTriangles(n);
+        delaunayFlips(coords, triangles);
+        return new GeneratedMesh(coords, triangles, ringCorners(n));
+    }
+
+    /**
+     * Create the vertices of a grid on the unit square.
+     * @param n the number of cells along each side
+     * @param amount the maximal displacement relative to the cell size
+     * @param seed the seed for the random number generator
+     * @return the vertex coordinates, three per vertex
+     */
+    private static double[] gridCoords(int n, double amount, long seed) {
+        if (n < 1)
+            throw new IllegalArgumentException("n must be positive");
+        Random rnd = new Random(seed);
+        int m = n + 1;
+        double h = 1./n;
+        double[] coords = new double[3*m*m];
+        for (int j = 0; j < m; ++j) {
+            for (int i = 0; i < m; ++i) {
+                int k = 3*(j*m + i);
+                coords[k] = i*h;
+                coords[k + 1] = j*h;
+                if (amount != 0 && i > 0 && i < n && j > 0 && j < n) {
+                    coords[k] += (rnd.nextDouble() - 0.5)*amount*h;
+                    coords[k + 1] += (rnd.nextDouble() - 0.5)*amount*h;
+                    coords[k + 2] = (rnd.nextDouble() - 0.5)*amount*h;
+                }
+            }
+        }
+        return coords;
+    }
+
+    /**
+     * Triangulate a grid of vertices numbered row by row.
+     * @param cols the number of cells in each row
+     * @param rows the number of rows of cells
+     * @return the triangle corners, three per triangle
+     */
+    private static int[] gridTriangles(int cols, int rows) {
+        int m = cols + 1;
+        int[] triangles = new int[6*cols*rows];
+        int t = 0;
+        for (int j = 0; j < rows; ++j) {
+            for (int i = 0; i < cols; ++i) {
+                int a = j*m + i, b = a + 1, c = a + m + 1, d = a + m;
+                triangles[t++] = a;
+                triangles[t++] = b;
+                triangles[t++] = c;
+                triangles[t++] = a;
+                triangles[t++] = c;
+                triangles[t++] = d;
+            }
+        }
+        return triangles;
+    }
+
+    /**
+     * Get the corners of a grid of vertices numbered row by row.
+     * @param cols the number of cells in each row
+     * @param rows the number of rows of cells
+     * @return the four corners in counter-clockwise order
+     */
+    private static int[] gridCorners(int cols, int rows) {
+        int m = cols + 1;
+        return new int[] { 0, cols, rows*m + cols, rows*m };
+    }
+
+    /**
+     * Number of the first vertex of a ring.
+     * The center forms ring 0, ring <code>i</code> for positive
+     * <code>i</code> contains <code>6i</code> vertices.
+     * @param i the number of the ring
+     * @return the number of vertices in all previous rings
+     */
+    private static int ringStart(int i) {
+        return i == 0 ? 0 : 1 + 3*i*(i - 1);
+    }
+
+    /**
+     * Create concentric rings of vertices in the unit disk.
+     * @param n the number of rings around the center
+     * @return the vertex coordinates, three per vertex
+     */
+    private static double[] ringCoords(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("n must be positive");
+        double[] coords = new double[3*ringStart(n + 1)];
+        for (int i = 1; i <= n; ++i) {
+            int start = ringStart(i), count = 6*i;
+            double r = i/(double)n;
+            for (int k = 0; k < count; ++k) {
+                double phi = 2*Math.PI*k/count;
+                coords[3*(start + k)] = r*Math.cos(phi);
+                coords[3*(start + k) + 1] = r*Math.sin(phi);
+            }
+        }
+        return coords;
+    }
+
+    /**
+     * Triangulate concentric rings of vertices.
+     * Each pair of adjacent rings is connected by walking along both
+     * rings, always advancing along the ring whose next vertex has
+     * the smaller angle.
+     * @param n the number of rings around the center
+     * @return the triangle corners, three per triangle
+     */
+    private static int[] ringTriangles(int n) {
+        int[] triangles = new int[18*n*n];
+        int t = 0;
+        for (int k = 0; k < 6; ++k) {
+            triangles[t++] = 0;
+            triangles[t++] = 1 + k;
+            triangles[t++] = 1 + (k + 1)%6;
+        }
+        for (int i = 1; i < n; ++i) {
+            int in = ringStart(i), out = ringStart(i + 1);
+            int p = 6*i, q = 6*(i + 1);
+            int j = 0, k = 0;
+            while (j < p || k < q) {
+                triangles[t++] = in + j%p;
+                if (k < q && (j == p || (k + 1)*p <= (j + 1)*q)) {
+                    triangles[t++] = out + k;
+                    triangles[t++] = out + (k + 1)%q;
+                    ++k;
+                }
+                else {
+                    triangles[t++] = out + k%q;
+                    triangles[t++] = in + (j + 1)%p;
+                    ++j;
+                }
+            }
+        }
+        return triangles;
+    }
+
+    /**
+     * Get four equally spaced vertices of the outermost ring.
+     * @param n the number of rings around the center
+     * @return the four corners in counter-clockwise order
+     */
+    private static int[] ringCorners(int n) {
+        int start = ringStart(n);
+        return new int[] { start, start + 3*n/2, start + 3*n,
+                           start + 9*n/2 };
+    }
+
+    /**
+     * Make a planar triangulation Delaunay by flipping edges.
+     * Neighbouring triangles are found using a table of opposite
+     * corners: corner <code>c</code> is the corner at position
+     * <code>c%3</code> of triangle <code>c/3</code>, and the opposite
+     * corner is the one across the edge not incident with
+     * <code>c</code>, or -1 for boundary edges. Edges violating the
+     * empty circle condition are kept on a stack and flipped until
+     * none remain. In exact arithmetic every pair of vertices is
+     * connected by a flip at most once, so exceeding that number of
+     * flips means that rounding errors keep flipping the same edges.
+     * @param coords the vertex coordinates, three per vertex
+     * @param triangles the triangles, modified in place
+     * @throws IllegalStateException if the flips do not terminate
+     */
+    private static void delaunayFlips(double[] coords, int[] triangles) {
+        int nv = coords.length/3;
+        int[] opposite = oppositeCorners(triangles, nv);
+        int nc = triangles.length;
+        int[] stack = new int[nc];
+        boolean[] queued = new boolean[nc];
+        int top = 0;
+        for (int c = 0; c < nc; ++c) {
+            stack[top++] = c;
+            queued[c] = true;
+        }
+        long flips = (long)nv*(nv - 1)/2;
+        while (top > 0) {
+            int c = stack[--top];
+            queued[c] = false;
+            int d = opposite[c];
+            if (d < 0)
+                continue;
+            int c1 = next(c), c2 = prev(c), d1 = next(d), d2 = prev(d);
+            int p = triangles[c], a = triangles[c1], b = triangles[c2];
+            int q = triangles[d];
+            if (inCircle(coords, p, a, b, q) <= 0)
+                continue;
+
+            if (flips-- == 0)
+                throw new IllegalStateException("Delaunay flips do not " +
+                                                "terminate");
+
+            // triangles (p, a, b) and (q, b, a) become (p, a, q), (q, b, p)
+            triangles[c2] = q;
+            triangles[d2] = p;
+            int oc1 = opposite[c1], od1 = opposite[d1];
+            opposite[c] = od1;
+            if (od1 >= 0) opposite[od1] = c;
+            opposite[d] = oc1;
+            if (oc1 >= 0) opposite[oc1] = d;
+            opposite[c1] = d1;
+            opposite[d1] = c1;
+
+            int[] recheck = { c, c2, d, d2 };
+            for (int r: recheck) {
+                if (!queued[r]) {
+                    stack[top++] = r;
+                    queued[r] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the table of opposite corners.
+     * @param triangles the triangle corners, three per triangle
+     * @param nv the number of vertices
+     * @return the opposite of every corner, or -1 at the boundary
+     */
+    private static int[] oppositeCorners(int[] triangles, int nv) {
+        int nc = triangles.length;
+        // corners grouped by the start of the edge they are opposite to
+        int[] ptr = new int[nv + 1];
+        for (int c = 0; c < nc; ++c)
+            ++ptr[triangles[next(c)] + 1];
+        for (int v = 0; v < nv; ++v)
+            ptr[v + 1] += ptr[v];
+        int[] fill = new int[nv];
+        int[] byStart = new int[nc];
+        for (int c = 0; c < nc; ++c) {
+            int v = triangles[next(c)];
+            byStart[ptr[v] + fill[v]++] = c;
+        }
+        int[] opposite = new int[nc];
+        for (int c = 0; c < nc; ++c) {
+            int a = triangles[next(c)], b = triangles[prev(c)];
+            opposite[c] = -1;
+            for (int k = ptr[b]; k < ptr[b + 1]; ++k) {
+                int d = byStart[k];
+                if (triangles[prev(d)] == a) {
+                    opposite[c] = d;
+                    break;
+                }
+            }
+        }
+        return opposite;
+    }
+
+    /**
+     * Get the next corner of the same triangle.
+     * @param c a corner
+     * @return the corner following <code>c</code>
+     */
+    private static int next(int c) {
+        return c%3 == 2 ? c - 2 : c + 1;
+    }
+
+    /**
+     * Get the previous corner of the same triangle.
+     * @param c a corner
+     * @return the corner preceding <code>c</code>
+     */
+    private static int prev(int c) {
+        return c%3 == 0 ? c + 2 : c - 1;
+    }
+
+    /**
+     * Test whether a point lies within the circumcircle of a
+     * counter-clockwise triangle in the xy plane.
+     * @param coords the vertex coordinates, three per vertex
+     * @param a the first vertex of the triangle
+     * @param b the second vertex of the triangle
+     * @param c the third vertex of the triangle
+     * @param d the vertex to be tested
+     * @return a positive value if <code>d</code> lies inside the circle
+     */
+    static double inCircle(double[] coords, int a, int b, int c, int d) {
+        double dx = coords[3*d], dy = coords[3*d + 1];
+        double adx = coords[3*a] - dx, ady = coords[3*a + 1] - dy;
+        double bdx = coords[3*b] - dx, bdy = coords[3*b + 1] - dy;
+        double cdx = coords[3*c] - dx, cdy = coords[3*c + 1] - dy;
+        return (adx*adx + ady*ady)*(bdx*cdy - cdx*bdy)
+            + (bdx*bdx + bdy*bdy)*(cdx*ady - adx*cdy)
+            + (cdx*cdx + cdy*cdy)*(adx*bdy - bdx*ady);
+    }
+
+}
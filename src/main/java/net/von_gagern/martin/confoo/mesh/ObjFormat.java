@@ -1,22 +1,17 @@
 package net.von_gagern.martin.confoo.mesh;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.Writer;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.NoSuchElementException;
 
 /**
  * Bare bones interoperability with obj file format.<p>
@@ -39,67 +34,31 @@ public class ObjFormat
 {
 
     /**
-     * Regular expression representing whitespace.
+     * Smallest chunk of a file to be parsed by a single thread.
      */
-    private static final String whitespaceStr = "[ \r\n\t]+";
+    private static final long MIN_CHUNK = 1L << 20;
 
     /**
-     * Regular expression of a single vertex description of a face line.
+     * Largest chunk of a file to be mapped into memory at once.
      */
-    private static final String faceVertexStr = "(\\d+)(/\\d*){0,2}";
+    private static final long MAX_CHUNK = 1L << 28;
 
     /**
-     * Compiled whitespace regular expression pattern.
+     * Vertex coordinates, three per vertex.
      */
-    private static Pattern whitespacePattern;
+    private double[] vs;
 
     /**
-     * Compiled face vertex regular expression pattern.
+     * Face corners, three one-based vertex indices per face.
      */
-    private static Pattern faceVertexPattern;
-
-    /**
-     * Perform class initialization. Called by every constructor.
-     */
-    private static synchronized void init() {
-        if (whitespacePattern == null)
-            whitespacePattern = Pattern.compile(whitespaceStr);
-        if (faceVertexPattern == null)
-            faceVertexPattern = Pattern.compile(faceVertexStr);
-    }
-
-    /**
-     * List of vertices. Each element is an array of three coordinates.
-     */
-    private List<double[]> vs;
-
-    /**
-     * List of faces. Each element is an array of three vertex indices.
-     */
-    private List<int[]> fs;
-
-    /**
-     * Basic internal constructor. Called by the other constructors.
-     */
-    private ObjFormat() {
-        init();
-        vs = new ArrayList<double[]>();
-        fs = new ArrayList<int[]>();
-    }
+    private int[] fs;
 
     /**
      * Construct from object file text.
      * @param in a reader over some object file
      */
     public ObjFormat(BufferedReader in) throws IOException {
-        this();
-        for (String line = in.readLine(); line != null;
-             line = in.readLine()) {
-            if (line.startsWith("v "))
-                readVertex(line);
-            else if (line.startsWith("f "))
-                readFace(line);
-        }
+        this((Reader)in);
     }
 
     /**
@@ -107,18 +66,67 @@ public class ObjFormat
      * @param in a reader over some object file
      */
     public ObjFormat(Reader in) throws IOException {
-        this(new BufferedReader(in));
+        ObjParser parser = new ObjParser();
+        parser.read(in);
+        vs = parser.getCoords();
+        fs = parser.getFaces();
     }
 
     /**
      * Construct from object file input stream.
-     * Input will be decoded using latin1 encoding, as this will avoid
-     * encoding related errors and texts elements will be disregarded
-     * in any case.
+     * Input will be interpreted using latin1 encoding, as this will
+     * avoid encoding related errors and texts elements will be
+     * disregarded in any case.
      * @param in an input stream over some object file
      */
     public ObjFormat(InputStream in) throws IOException {
-        this(new InputStreamReader(in, "ISO-8859-1"));
+        ObjParser parser = new ObjParser();
+        parser.read(in);
+        vs = parser.getCoords();
+        fs = parser.getFaces();
+    }
+
+    /**
+     * Construct from object file, using all available processors.
+     * @param file an object file
+     * @throws IOException if reading fails or the file is malformed
+     * @since 1.2
+     * @see #ObjFormat(File, int)
+     */
+    public ObjFormat(File file) throws IOException {
+        this(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct from object file, parsing it in parallel.<p>
+     *
+     * The file is mapped into memory and split into chunks of
+     * complete lines, which are parsed by the given number of
+     * threads. Relative vertex indices are resolved against all
+     * vertices preceding them in the file, as they would be when
+     * reading it sequentially.
+     *
+     * @param file an object file
+     * @param parallelism the number of threads to use
+     * @throws IOException if reading fails or the file is malformed
+     * @throws IllegalArgumentException if the parallelism is not positive
+     * @since 1.2
+     */
+    public ObjFormat(File file, int parallelism) throws IOException {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long chunkSize = channel.size()/(4*parallelism) + 1;
+            chunkSize = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, chunkSize));
+            ObjParser parser = ObjParser.load(channel, parallelism, chunkSize);
+            vs = parser.getCoords();
+            fs = parser.getFaces();
+        }
+        finally {
+            in.close();
+        }
     }
 
     /**
@@ -135,14 +143,16 @@ public class ObjFormat
      * @param vertexMap the vertex map as described above or <code>null</code>
      */
     public <V> ObjFormat(LocatedMesh<V> mesh, Map<V, Integer> vertexMap) {
-        this();
         if (vertexMap == null)
             vertexMap = new HashMap<V, Integer>();
         Iterator<? extends CorneredTriangle<? extends V>> iter;
         iter = mesh.iterator();
+        int[] cs = new int[3*64];
+        int n = 0;
         while (iter.hasNext()) {
             CorneredTriangle<? extends V> t = iter.next();
-            int[] cs = new int[3];
+            if (n == cs.length)
+                cs = grow(cs);
             for (int i = 0; i < 3; ++i) {
                 V c = t.getCorner(i);
                 Integer ci = vertexMap.get(c);
@@ -150,17 +160,18 @@ public class ObjFormat
                     ci = vertexMap.size() + 1;
                     vertexMap.put(c, ci);
                 }
-                cs[i] = ci;
+                cs[n++] = ci;
             }
-            fs.add(cs);
         }
-        vs.addAll(Collections.nCopies(vertexMap.size(), (double[])null));
+        fs = new int[n];
+        System.arraycopy(cs, 0, fs, 0, n);
+        vs = new double[3*vertexMap.size()];
         for (Map.Entry<V, Integer> entry: vertexMap.entrySet()) {
             V v = entry.getKey();
-            double x = mesh.getX(v);
-            double y = mesh.getY(v);
-            double z = mesh.getZ(v);
-            vs.set(entry.getValue() - 1, new double[] {x, y, z});
+            int k = 3*(entry.getValue() - 1);
+            vs[k] = mesh.getX(v);
+            vs[k + 1] = mesh.getY(v);
+            vs[k + 2] = mesh.getZ(v);
         }
     }
 
@@ -173,60 +184,41 @@ public class ObjFormat
      * @param mesh the mesh to construct the object file from
      */
     public ObjFormat(LocatedMesh<Integer> mesh) {
-        this();
         Iterator<? extends CorneredTriangle<? extends Integer>> iter;
         iter = mesh.iterator();
         int maxVertex = 0;
+        int[] cs = new int[3*64];
+        int n = 0;
         while (iter.hasNext()) {
             CorneredTriangle<? extends Integer> t = iter.next();
-            int[] cs = new int[3];
+            if (n == cs.length)
+                cs = grow(cs);
             for (int i = 0; i < 3; ++i) {
                 int c = t.getCorner(i);
-                cs[i] = c;
+                cs[n++] = c;
                 if (maxVertex < c)
                     maxVertex = c;
             }
-            fs.add(cs);
         }
+        fs = new int[n];
+        System.arraycopy(cs, 0, fs, 0, n);
+        vs = new double[3*maxVertex];
         for (int v = 1; v <= maxVertex; ++v) {
-            double x = mesh.getX(v);
-            double y = mesh.getY(v);
-            double z = mesh.getZ(v);
-            vs.add(new double[] {x, y, z});
+            vs[3*v - 3] = mesh.getX(v);
+            vs[3*v - 2] = mesh.getY(v);
+            vs[3*v - 1] = mesh.getZ(v);
         }
     }
 
     /**
-     * Helper method to read a single vertex line from an obj file.
-     * @param str the input line
+     * Double the size of an array.
+     * @param a the array to be copied
+     * @return a copy twice the size of the original
      */
-    private void readVertex(String str) throws IOException {
-        String[] parts = whitespacePattern.split(str);
-        if (parts.length != 4)
-            throw new IOException("Invalid vertex line:\n" + str);
-        double[] coords = new double[3];
-        for (int i = 0; i < 3; ++i) {
-            coords[i] = Double.parseDouble(parts[i + 1]);
-        }
-        vs.add(coords);
-    }
-
-    /**
-     * Helper method to read a single face line from an obj file.
-     * @param str the input line
-     */
-    private void readFace(String str) throws IOException {
-        String[] parts = whitespacePattern.split(str);
-        if (parts.length != 4)
-            throw new IOException("Invalid triangle line:\n" + str);
-        int[] corners = new int[3];
-        for (int i = 0; i < 3; ++i) {
-            Matcher m = faceVertexPattern.matcher(parts[i + 1]);
-            if (!m.matches())
-                throw new IOException("Invalid triangle line:\n" + str);
-            corners[i] = Integer.parseInt(m.group(1));
-        }
-        fs.add(corners);
+    private static int[] grow(int[] a) {
+        int[] res = new int[2*a.length];
+        System.arraycopy(a, 0, res, 0, a.length);
+        return res;
     }
 
     /**
@@ -235,16 +227,16 @@ public class ObjFormat
      * @throws IOException if an I/O error occurs
      */
     public void write(Appendable out) throws IOException {
-        for (double[] v: vs) {
+        for (int k = 0; k < vs.length; k += 3) {
             out.append('v');
             for (int i = 0; i < 3; ++i)
-                out.append(' ').append(Double.toString(v[i]));
+                out.append(' ').append(Double.toString(vs[k + i]));
             out.append('\n');
         }
-        for (int[] f: fs) {
+        for (int k = 0; k < fs.length; k += 3) {
             out.append('f');
             for (int i = 0; i < 3; ++i)
-                out.append(' ').append(Integer.toString(f[i]));
+                out.append(' ').append(Integer.toString(fs[k + i]));
             out.append('\n');
         }
     }
@@ -255,12 +247,32 @@ public class ObjFormat
      * @throws IOException if an I/O error occurs
      */
     public void write(OutputStream out) throws IOException {
-        Writer writer = new OutputStreamWriter(out, "US-ASCII");
-        writer = new BufferedWriter(writer);
-        write(writer);
+        ObjWriter writer = new ObjWriter(out);
+        for (int k = 0; k < vs.length; k += 3)
+            writer.vertex(vs[k], vs[k + 1], vs[k + 2]);
+        for (int k = 0; k < fs.length; k += 3)
+            writer.face(fs[k], fs[k + 1], fs[k + 2]);
         writer.flush();
     }
 
+    /**
+     * Get the number of vertices.
+     * @return the number of vertices, which are numbered from 1
+     * @since 1.2
+     */
+    public int getVertexCount() {
+        return vs.length/3;
+    }
+
+    /**
+     * Get the number of faces.
+     * @return the number of faces
+     * @since 1.2
+     */
+    public int getFaceCount() {
+        return fs.length/3;
+    }
+
     /**
      * Determine edge length.
      * @param v1 index of first vertex
@@ -268,10 +280,10 @@ public class ObjFormat
      * @return the distance as calculated from the vertex coordinates
      */
     public double edgeLength(Integer v1, Integer v2) {
-        double[] c1 = vs.get(v1 - 1), c2 = vs.get(v2 - 1);
+        int k1 = 3*(v1 - 1), k2 = 3*(v2 - 1);
         double res = 0;
         for (int i = 0; i < 3; ++i) {
-            double d = c1[i] - c2[i];
+            double d = vs[k1 + i] - vs[k2 + i];
             res += d*d;
         }
         return Math.sqrt(res);
@@ -283,7 +295,7 @@ public class ObjFormat
      * @return the x coordinate of that vertex
      */
     public double getX(Integer v) {
-        return vs.get(v - 1)[0];
+        return vs[3*(v - 1)];
     }
 
     /**
@@ -293,7 +305,7 @@ public class ObjFormat
      *
      */
     public double getY(Integer v) {
-        return vs.get(v - 1)[1];
+        return vs[3*(v - 1) + 1];
     }
 
     /**
@@ -302,7 +314,7 @@ public class ObjFormat
      * @return the z coordinate of that vertex
      */
     public double getZ(Integer v) {
-        return vs.get(v - 1)[2];
+        return vs[3*(v - 1) + 2];
     }
 
     /**
@@ -321,16 +333,16 @@ public class ObjFormat
     private class Iter extends AbstractMeshIterator<Integer> {
 
         /**
-         * Iterator over the faces.
+         * Index of the first corner of the next face.
          */
-        private Iterator<int[]> i = fs.iterator();
+        private int i = 0;
 
         /**
          * Determine whether there are any more faces.
          * @return whether there are any more faces to iterate
          */
         public boolean hasNext() {
-            return i.hasNext();
+            return i < fs.length;
         }
 
         /**
@@ -338,8 +350,10 @@ public class ObjFormat
          * @return a triangle representing the next face
          */
         public CorneredTriangle<Integer> next() {
-            int[] cs = i.next();
-            return new SimpleTriangle(cs[0], cs[1], cs[2]);
+            if (i >= fs.length)
+                throw new NoSuchElementException();
+            i += 3;
+            return new SimpleTriangle(fs[i - 3], fs[i - 2], fs[i - 1]);
         }
 
     }
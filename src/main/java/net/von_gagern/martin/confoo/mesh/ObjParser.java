@@ -0,0 +1,633 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tokenizer for the vertex and face lines of object files.<p>
+ *
+ * The parser works on a buffer of bytes, each byte representing one
+ * latin1 character, and stores the vertices and faces it encounters
+ * in growable primitive arrays. Numbers are converted directly from
+ * the buffer, without creating any strings or other objects per
+ * line. Floating point numbers with at most 18 significant digits
+ * and a moderate exponent are converted using exact double
+ * arithmetic, which gives the same correctly rounded result as
+ * <code>Double.parseDouble</code>. Other numbers are handed to that
+ * method.<p>
+ *
+ * Only lines starting with <code>"v "</code> or <code>"f "</code> are
+ * considered, all other lines are ignored. A vertex line has to
+ * contain exactly three coordinates, a face line exactly three
+ * corners. A corner may contain texture and normal indices separated
+ * by slashes, which are ignored. Negative vertex indices are relative
+ * to the last vertex defined before the face.<p>
+ *
+ * Large files can be parsed in parallel by {@link #load}. The file
+ * is split into chunks of complete lines, each parsed by a parser of
+ * its own, and the results are concatenated. Relative vertex indices
+ * are resolved only when the number of vertices in all preceding
+ * chunks is known.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+class ObjParser {
+
+    /**
+     * Exactly representable powers of ten.
+     */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Largest integer such that all smaller integers are exactly
+     * representable as doubles.
+     */
+    private static final long MAX_EXACT = 1L << 53;
+
+    /**
+     * Buffer holding the input not parsed yet.
+     */
+    private byte[] buf = new byte[1 << 16];
+
+    /**
+     * Vertex coordinates, three per vertex.
+     */
+    private double[] coords = new double[3*1024];
+
+    /**
+     * Number of vertices read so far.
+     */
+    private int vertexCount;
+
+    /**
+     * Face corners, three one-based vertex indices per face.
+     */
+    private int[] faces = new int[3*1024];
+
+    /**
+     * Number of faces read so far.
+     */
+    private int faceCount;
+
+    /**
+     * Positions within the face array which hold unresolved relative
+     * vertex indices. The index stored for them assumes no vertices
+     * before those read by this parser.
+     */
+    private int[] relative = new int[16];
+
+    /**
+     * Number of unresolved relative vertex indices.
+     */
+    private int relativeCount;
+
+    /**
+     * Parse a file in parallel.
+     * The file is mapped into memory and split into chunks of at most
+     * the given size, each extended to the end of its last line.
+     * @param channel the file to be parsed
+     * @param parallelism the number of threads to use
+     * @param chunkSize the nominal size of each chunk in bytes,
+     *        which must leave room for one line below 2 GB
+     * @return a parser containing the vertices and faces of the file
+     * @throws IOException if reading fails or the input is malformed
+     */
+    public static ObjParser load(FileChannel channel, int parallelism,
+                                 long chunkSize)
+        throws IOException
+    {
+        long size = channel.size();
+        List<Chunk> tasks = new ArrayList<Chunk>();
+        for (long start = 0, end; start < size; start = end) {
+            end = lineEnd(channel, Math.min(size, start + chunkSize));
+            tasks.add(new Chunk(channel, start, end));
+        }
+        List<ObjParser> chunks = new ArrayList<ObjParser>(tasks.size());
+        if (parallelism <= 1 || tasks.size() <= 1) {
+            for (Chunk task: tasks)
+                chunks.add(task.call());
+        }
+        else {
+            ExecutorService executor =
+                Executors.newFixedThreadPool(parallelism);
+            try {
+                for (Future<ObjParser> f: executor.invokeAll(tasks))
+                    chunks.add(f.get());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Parsing interrupted");
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException)cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if (cause instanceof Error)
+                    throw (Error)cause;
+                throw new RuntimeException(cause);
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+        return concat(chunks);
+    }
+
+    /**
+     * Find the end of the line containing a given position.
+     * @param channel the file to be searched
+     * @param pos the position where the search starts
+     * @return the position following the next line terminator, or
+     *         the size of the file if there is none
+     * @throws IOException if reading fails
+     */
+    private static long lineEnd(FileChannel channel, long pos)
+        throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        for (;;) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n < 0)
+                return channel.size();
+            for (int i = 0; i < n; ++i) {
+                byte b = buf.get(i);
+                if (b == '\n' || b == '\r')
+                    return pos + i + 1;
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Concatenate the results of several parsers.
+     * Relative vertex indices are resolved in the process.
+     * @param chunks the parsers, in the order of the input
+     * @return a parser containing all the vertices and faces
+     * @throws IOException if a relative index precedes all vertices
+     */
+    private static ObjParser concat(List<ObjParser> chunks)
+        throws IOException
+    {
+        int vertexCount = 0, faceCount = 0;
+        for (ObjParser chunk: chunks) {
+            vertexCount += chunk.vertexCount;
+            faceCount += chunk.faceCount;
+        }
+        ObjParser res = new ObjParser();
+        res.coords = new double[3*vertexCount];
+        res.faces = new int[3*faceCount];
+        for (ObjParser chunk: chunks) {
+            chunk.resolve(res.vertexCount);
+            System.arraycopy(chunk.coords, 0, res.coords,
+                             3*res.vertexCount, 3*chunk.vertexCount);
+            System.arraycopy(chunk.faces, 0, res.faces,
+                             3*res.faceCount, 3*chunk.faceCount);
+            res.vertexCount += chunk.vertexCount;
+            res.faceCount += chunk.faceCount;
+        }
+        return res;
+    }
+
+    /**
+     * Resolve relative vertex indices.
+     * @param offset the number of vertices preceding the input of
+     *        this parser
+     * @throws IOException if a relative index precedes all vertices
+     */
+    private void resolve(int offset) throws IOException {
+        for (int i = 0; i < relativeCount; ++i) {
+            faces[relative[i]] += offset;
+            if (faces[relative[i]] < 1)
+                throw new IOException("Relative vertex index " +
+                                      "before first vertex");
+        }
+        relativeCount = 0;
+    }
+
+    /**
+     * Read all lines from an input stream.
+     * @param in the stream to read from
+     * @throws IOException if reading fails or the input is malformed
+     */
+    public void read(InputStream in) throws IOException {
+        int len = 0;
+        for (int n; (n = in.read(buf, len, buf.length - len)) >= 0; )
+            len = consume(len + n);
+        parse(buf, 0, len, true);
+        resolve(0);
+    }
+
+    /**
+     * Read all lines from a reader.
+     * Characters outside the latin1 range can't be part of any valid
+     * vertex or face line. They are replaced by a question mark.
+     * @param in the reader to read from
+     * @throws IOException if reading fails or the input is malformed
+     */
+    public void read(Reader in) throws IOException {
+        char[] cbuf = new char[buf.length];
+        int len = 0;
+        for (;;) {
+            int n = in.read(cbuf, 0, Math.min(cbuf.length, buf.length - len));
+            if (n < 0)
+                break;
+            for (int i = 0; i < n; ++i) {
+                char c = cbuf[i];
+                buf[len + i] = c < 0x100 ? (byte)c : (byte)'?';
+            }
+            len = consume(len + n);
+        }
+        parse(buf, 0, len, true);
+        resolve(0);
+    }
+
+    /**
+     * Read all lines from a byte buffer.
+     * The buffer is read from its position to its limit. Relative
+     * vertex indices are left unresolved.
+     * @param in the buffer to read from
+     * @throws IOException if the input is malformed
+     */
+    private void read(ByteBuffer in) throws IOException {
+        int len = 0;
+        while (in.hasRemaining()) {
+            int n = Math.min(in.remaining(), buf.length - len);
+            in.get(buf, len, n);
+            len = consume(len + n);
+        }
+        parse(buf, 0, len, true);
+    }
+
+    /**
+     * Parse all complete lines in the buffer and keep the rest.
+     * The buffer is enlarged if it contains no complete line at all.
+     * @param len the number of bytes in the buffer
+     * @return the number of bytes kept at the start of the buffer
+     * @throws IOException if the input is malformed
+     */
+    private int consume(int len) throws IOException {
+        int done = parse(buf, 0, len, false);
+        len -= done;
+        System.arraycopy(buf, done, buf, 0, len);
+        if (len == buf.length) {
+            byte[] bigger = new byte[2*buf.length];
+            System.arraycopy(buf, 0, bigger, 0, len);
+            buf = bigger;
+        }
+        return len;
+    }
+
+    /**
+     * Parse the lines in a range of bytes.
+     * Lines are terminated by either carriage return or line feed.
+     * Unless this is the end of the input, an unterminated line at
+     * the end of the range is left alone.
+     * @param b the bytes to be parsed
+     * @param from the first byte of the range
+     * @param to the byte following the range
+     * @param eof whether the range extends to the end of the input
+     * @return the position of the first byte not parsed
+     * @throws IOException if the input is malformed
+     */
+    public int parse(byte[] b, int from, int to, boolean eof)
+        throws IOException
+    {
+        int start = from;
+        while (start < to) {
+            int end = start;
+            while (end < to && b[end] != '\n' && b[end] != '\r')
+                ++end;
+            if (end == to && !eof)
+                break;
+            if (end - start >= 2 && b[start + 1] == ' ') {
+                if (b[start] == 'v')
+                    parseVertex(b, start, end);
+                else if (b[start] == 'f')
+                    parseFace(b, start, end);
+            }
+            start = end + 1;
+        }
+        return Math.min(start, to);
+    }
+
+    /**
+     * Parse a single vertex line.
+     * @param b the buffer containing the line
+     * @param from the first byte of the line
+     * @param to the end of the line, excluding the terminator
+     * @throws IOException if the line is malformed
+     */
+    private void parseVertex(byte[] b, int from, int to)
+        throws IOException
+    {
+        if (3*vertexCount == coords.length)
+            coords = grow(coords);
+        int pos = from + 1;
+        for (int i = 0; i < 3; ++i) {
+            pos = skipWhitespace(b, pos, to);
+            int end = tokenEnd(b, pos, to);
+            if (pos == end)
+                throw malformed("Invalid vertex line:\n", b, from, to);
+            coords[3*vertexCount + i] = parseDouble(b, pos, end);
+            pos = end;
+        }
+        if (skipWhitespace(b, pos, to) != to)
+            throw malformed("Invalid vertex line:\n", b, from, to);
+        ++vertexCount;
+    }
+
+    /**
+     * Parse a single face line.
+     * @param b the buffer containing the line
+     * @param from the first byte of the line
+     * @param to the end of the line, excluding the terminator
+     * @throws IOException if the line is malformed
+     */
+    private void parseFace(byte[] b, int from, int to) throws IOException {
+        if (3*faceCount == faces.length)
+            faces = grow(faces);
+        int pos = from + 1;
+        for (int i = 0; i < 3; ++i) {
+            pos = skipWhitespace(b, pos, to);
+            int end = tokenEnd(b, pos, to);
+            boolean rel = pos < end && b[pos] == '-';
+            if (rel)
+                ++pos;
+            int start = pos, index = 0;
+            for (; pos < end && b[pos] >= '0' && b[pos] <= '9'; ++pos) {
+                int digit = b[pos] - '0';
+                if (index > (Integer.MAX_VALUE - digit)/10)
+                    throw malformed("Invalid triangle line:\n", b, from, to);
+                index = 10*index + digit;
+            }
+            if (pos == start || rel && index == 0)
+                throw malformed("Invalid triangle line:\n", b, from, to);
+            for (int slashes = 0; pos < end; ++pos) {
+                boolean slash = b[pos] == '/';
+                if (slash ? ++slashes > 2 : b[pos] < '0' || b[pos] > '9')
+                    throw malformed("Invalid triangle line:\n", b, from, to);
+            }
+            if (rel) {
+                if (relativeCount == relative.length)
+                    relative = grow(relative);
+                relative[relativeCount++] = 3*faceCount + i;
+                index = vertexCount + 1 - index;
+            }
+            faces[3*faceCount + i] = index;
+        }
+        if (skipWhitespace(b, pos, to) != to)
+            throw malformed("Invalid triangle line:\n", b, from, to);
+        ++faceCount;
+    }
+
+    /**
+     * Skip whitespace within a line.
+     * @param b the buffer containing the line
+     * @param pos the current position
+     * @param to the end of the line
+     * @return the position of the next non-whitespace byte, or
+     *         <code>to</code> if there is none
+     */
+    private static int skipWhitespace(byte[] b, int pos, int to) {
+        while (pos < to && (b[pos] == ' ' || b[pos] == '\t'))
+            ++pos;
+        return pos;
+    }
+
+    /**
+     * Find the end of a token.
+     * @param b the buffer containing the line
+     * @param pos the start of the token
+     * @param to the end of the line
+     * @return the position of the next whitespace byte, or
+     *         <code>to</code> if there is none
+     */
+    private static int tokenEnd(byte[] b, int pos, int to) {
+        while (pos < to && b[pos] != ' ' && b[pos] != '\t')
+            ++pos;
+        return pos;
+    }
+
+    /**
+     * Convert a range of bytes to a floating point number.
+     * The result is the same as that of
+     * <code>Double.parseDouble</code> for the same characters.
+     * @param b the buffer containing the number
+     * @param from the first byte of the number
+     * @param to the byte following the number
+     * @return the value of the number
+     * @throws NumberFormatException if the bytes don't form a number
+     */
+    static double parseDouble(byte[] b, int from, int to) {
+        int pos = from;
+        boolean negative = false;
+        if (pos < to && (b[pos] == '-' || b[pos] == '+'))
+            negative = b[pos++] == '-';
+        long mantissa = 0;
+        int digits = 0, significant = 0, exponent = 0;
+        for (; pos < to && b[pos] >= '0' && b[pos] <= '9'; ++pos, ++digits) {
+            if (mantissa != 0 || b[pos] != '0') {
+                mantissa = 10*mantissa + (b[pos] - '0');
+                ++significant;
+            }
+        }
+        if (pos < to && b[pos] == '.') {
+            for (++pos; pos < to && b[pos] >= '0' && b[pos] <= '9';
+                 ++pos, ++digits) {
+                if (mantissa != 0 || b[pos] != '0') {
+                    mantissa = 10*mantissa + (b[pos] - '0');
+                    ++significant;
+                }
+                --exponent;
+            }
+        }
+        if (digits != 0 && pos < to && (b[pos] == 'e' || b[pos] == 'E')) {
+            ++pos;
+            boolean negExp = false;
+            if (pos < to && (b[pos] == '-' || b[pos] == '+'))
+                negExp = b[pos++] == '-';
+            int exp = 0, expDigits = 0;
+            for (; pos < to && b[pos] >= '0' && b[pos] <= '9'; ++pos) {
+                if (exp < 10000)
+                    exp = 10*exp + (b[pos] - '0');
+                ++expDigits;
+            }
+            if (expDigits == 0)
+                digits = 0;
+            exponent += negExp ? -exp : exp;
+        }
+        if (pos == to && digits != 0 && significant <= 18) {
+            if (mantissa == 0)
+                return negative ? -0. : 0.;
+            if (mantissa <= MAX_EXACT && exponent >= -22 && exponent <= 22) {
+                double value = mantissa;
+                if (exponent < 0)
+                    value /= POW10[-exponent];
+                else
+                    value *= POW10[exponent];
+                return negative ? -value : value;
+            }
+        }
+        return Double.parseDouble(latin1(b, from, to));
+    }
+
+    /**
+     * Create a string from a range of bytes.
+     * @param b the buffer containing the characters
+     * @param from the first byte of the range
+     * @param to the byte following the range
+     * @return the bytes interpreted as latin1 characters
+     */
+    private static String latin1(byte[] b, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; ++i)
+            chars[i] = (char)(b[from + i] & 0xff);
+        return new String(chars);
+    }
+
+    /**
+     * Create an exception describing a malformed line.
+     * @param msg the start of the message
+     * @param b the buffer containing the line
+     * @param from the first byte of the line
+     * @param to the end of the line
+     * @return an exception containing the message and the line
+     */
+    private static IOException malformed(String msg, byte[] b,
+                                         int from, int to) {
+        return new IOException(msg + latin1(b, from, to));
+    }
+
+    /**
+     * Double the size of an array.
+     * @param a the array to be copied
+     * @return a copy twice the size of the original
+     */
+    private static double[] grow(double[] a) {
+        double[] res = new double[2*a.length];
+        System.arraycopy(a, 0, res, 0, a.length);
+        return res;
+    }
+
+    /**
+     * Double the size of an array.
+     * @param a the array to be copied
+     * @return a copy twice the size of the original
+     */
+    private static int[] grow(int[] a) {
+        int[] res = new int[2*a.length];
+        System.arraycopy(a, 0, res, 0, a.length);
+        return res;
+    }
+
+    /**
+     * Get the number of vertices read so far.
+     * @return the number of vertices
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Get the number of faces read so far.
+     * @return the number of faces
+     */
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * Get the coordinates of all vertices read so far.
+     * The internal array is returned without copying if its size
+     * matches the number of vertices.
+     * @return an array containing three coordinates per vertex
+     */
+    public double[] getCoords() {
+        if (coords.length == 3*vertexCount)
+            return coords;
+        double[] res = new double[3*vertexCount];
+        System.arraycopy(coords, 0, res, 0, res.length);
+        return res;
+    }
+
+    /**
+     * Get the corners of all faces read so far.
+     * The internal array is returned without copying if its size
+     * matches the number of faces.
+     * @return an array containing three vertex indices per face
+     */
+    public int[] getFaces() {
+        if (faces.length == 3*faceCount)
+            return faces;
+        int[] res = new int[3*faceCount];
+        System.arraycopy(faces, 0, res, 0, res.length);
+        return res;
+    }
+
+    /**
+     * Task parsing a single chunk of a file.
+     *
+     * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+     */
+    private static class Chunk implements Callable<ObjParser> {
+
+        /**
+         * The file containing the chunk.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Position of the first byte of the chunk.
+         */
+        private final long start;
+
+        /**
+         * Position following the last byte of the chunk.
+         */
+        private final long end;
+
+        /**
+         * Construct task for a given chunk.
+         * @param channel the file containing the chunk
+         * @param start the position of the first byte of the chunk
+         * @param end the position following the last byte of the chunk
+         */
+        public Chunk(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Map and parse the chunk.
+         * @return a parser containing the contents of the chunk
+         * @throws IOException if reading fails or the input is malformed
+         */
+        public ObjParser call() throws IOException {
+            ObjParser parser = new ObjParser();
+            parser.read(channel.map(FileChannel.MapMode.READ_ONLY,
+                                    start, end - start));
+            return parser;
+        }
+
+    }
+
+}
@@ -0,0 +1,379 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Streaming writer for object files.<p>
+ *
+ * In contrast to {@link ObjFormat#write(OutputStream)}, this writer
+ * does not need a copy of the mesh in memory. Vertices and faces are
+ * formatted straight from any located mesh into a buffer, which is
+ * passed on to a channel whenever it is full.<p>
+ *
+ * By default every coordinate is written with full precision, using
+ * the same representation as <code>Double.toString</code>. A number
+ * of significant digits can be configured instead, in which case
+ * coordinates are formatted without creating any objects. Formatting
+ * this way scales each number by a power of ten, so in rare cases
+ * close to a tie the last digit may be rounded the other way.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public class ObjWriter {
+
+    /**
+     * Maximal number of significant digits supported.
+     */
+    public static final int MAX_DIGITS = 15;
+
+    /**
+     * Powers of ten which are exactly representable as doubles.
+     */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Powers of ten as long integers.
+     */
+    private static final long[] LONG_POW10 = new long[MAX_DIGITS + 2];
+
+    static {
+        LONG_POW10[0] = 1;
+        for (int i = 1; i < LONG_POW10.length; ++i)
+            LONG_POW10[i] = 10*LONG_POW10[i - 1];
+    }
+
+    /**
+     * Channel receiving the output.
+     */
+    private final WritableByteChannel out;
+
+    /**
+     * Stream underlying the channel, or <code>null</code>.
+     */
+    private final OutputStream stream;
+
+    /**
+     * Buffer for output not written to the channel yet.
+     */
+    private final byte[] buf = new byte[1 << 16];
+
+    /**
+     * Number of bytes in the buffer.
+     */
+    private int len;
+
+    /**
+     * Scratch space for the digits of a single number.
+     */
+    private final byte[] digitBuf = new byte[24];
+
+    /**
+     * Number of significant digits, or 0 for full precision.
+     */
+    private int digits = 0;
+
+    /**
+     * Construct writer for a channel.
+     * @param out the channel receiving the object file
+     */
+    public ObjWriter(WritableByteChannel out) {
+        this.out = out;
+        stream = null;
+    }
+
+    /**
+     * Construct writer for a stream.
+     * @param out the stream receiving the object file
+     */
+    public ObjWriter(OutputStream out) {
+        this.out = Channels.newChannel(out);
+        stream = out;
+    }
+
+    /**
+     * Set the number of significant digits used for coordinates.
+     * A value of 0 selects full precision, which is the default.
+     * @param digits the number of digits, between 0 and {@link
+     *        #MAX_DIGITS}
+     * @throws IllegalArgumentException if the number is out of range
+     */
+    public void setDigits(int digits) {
+        if (digits < 0 || digits > MAX_DIGITS)
+            throw new IllegalArgumentException("0 <= digits <= " +
+                                               MAX_DIGITS);
+        this.digits = digits;
+    }
+
+    /**
+     * Get the number of significant digits used for coordinates.
+     * @return the number of digits, or 0 for full precision
+     */
+    public int getDigits() {
+        return digits;
+    }
+
+    /**
+     * Write an integer mesh.
+     * The integers identifying vertices in the mesh must start at 1
+     * and form a continuous range. They are used as indices in the
+     * object file. The mesh is iterated twice, once to determine the
+     * number of vertices and once to write the faces.
+     * @param mesh the mesh to be written
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(LocatedMesh<Integer> mesh) throws IOException {
+        Iterator<? extends CorneredTriangle<? extends Integer>> iter;
+        int maxVertex = 0;
+        for (iter = mesh.iterator(); iter.hasNext(); ) {
+            CorneredTriangle<? extends Integer> t = iter.next();
+            for (int i = 0; i < 3; ++i)
+                maxVertex = Math.max(maxVertex, t.getCorner(i));
+        }
+        for (int v = 1; v <= maxVertex; ++v)
+            vertex(mesh.getX(v), mesh.getY(v), mesh.getZ(v));
+        for (iter = mesh.iterator(); iter.hasNext(); ) {
+            CorneredTriangle<? extends Integer> t = iter.next();
+            face(t.getCorner(0), t.getCorner(1), t.getCorner(2));
+        }
+        flush();
+    }
+
+    /**
+     * Write an arbitrary located mesh.<p>
+     *
+     * Vertices are numbered in the order in which they are first
+     * encountered, and written in that order. An empty map can be
+     * provided to receive this numbering, similar to {@link
+     * ObjFormat#ObjFormat(LocatedMesh, Map)}. The mesh is iterated
+     * twice.
+     *
+     * @param mesh the mesh to be written
+     * @param vertexMap an empty vertex map or <code>null</code>
+     * @throws IOException if an I/O error occurs
+     */
+    public <V> void write(LocatedMesh<V> mesh, Map<V, Integer> vertexMap)
+        throws IOException
+    {
+        if (vertexMap == null)
+            vertexMap = new HashMap<V, Integer>();
+        Iterator<? extends CorneredTriangle<? extends V>> iter;
+        for (iter = mesh.iterator(); iter.hasNext(); ) {
+            CorneredTriangle<? extends V> t = iter.next();
+            for (int i = 0; i < 3; ++i) {
+                V c = t.getCorner(i);
+                if (!vertexMap.containsKey(c)) {
+                    vertexMap.put(c, vertexMap.size() + 1);
+                    vertex(mesh.getX(c), mesh.getY(c), mesh.getZ(c));
+                }
+            }
+        }
+        for (iter = mesh.iterator(); iter.hasNext(); ) {
+            CorneredTriangle<? extends V> t = iter.next();
+            face(vertexMap.get(t.getCorner(0)),
+                 vertexMap.get(t.getCorner(1)),
+                 vertexMap.get(t.getCorner(2)));
+        }
+        flush();
+    }
+
+    /**
+     * Write a single vertex line.
+     * @param x the x coordinate of the vertex
+     * @param y the y coordinate of the vertex
+     * @param z the z coordinate of the vertex
+     * @throws IOException if an I/O error occurs
+     */
+    public void vertex(double x, double y, double z) throws IOException {
+        reserve(80);
+        buf[len++] = 'v';
+        buf[len++] = ' ';
+        number(x);
+        buf[len++] = ' ';
+        number(y);
+        buf[len++] = ' ';
+        number(z);
+        buf[len++] = '\n';
+    }
+
+    /**
+     * Write a single face line.
+     * @param v1 the index of the first corner
+     * @param v2 the index of the second corner
+     * @param v3 the index of the third corner
+     * @throws IOException if an I/O error occurs
+     */
+    public void face(int v1, int v2, int v3) throws IOException {
+        reserve(40);
+        buf[len++] = 'f';
+        buf[len++] = ' ';
+        integer(v1);
+        buf[len++] = ' ';
+        integer(v2);
+        buf[len++] = ' ';
+        integer(v3);
+        buf[len++] = '\n';
+    }
+
+    /**
+     * Pass all buffered output on to the channel.
+     * A stream passed to the constructor is flushed as well.
+     * @throws IOException if an I/O error occurs
+     */
+    public void flush() throws IOException {
+        write();
+        if (stream != null)
+            stream.flush();
+    }
+
+    /**
+     * Write the contents of the buffer to the channel.
+     * @throws IOException if an I/O error occurs
+     */
+    private void write() throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, len);
+        while (b.hasRemaining())
+            out.write(b);
+        len = 0;
+    }
+
+    /**
+     * Make sure the buffer has room for a given number of bytes.
+     * @param n the number of bytes required
+     * @throws IOException if an I/O error occurs
+     */
+    private void reserve(int n) throws IOException {
+        if (len + n > buf.length)
+            write();
+    }
+
+    /**
+     * Append an integer to the buffer.
+     * @param n the integer to be appended
+     */
+    private void integer(long n) {
+        if (n < 0) {
+            buf[len++] = '-';
+            n = -n;
+        }
+        int k = digitBuf.length;
+        do {
+            digitBuf[--k] = (byte)('0' + n%10);
+            n /= 10;
+        } while (n != 0);
+        System.arraycopy(digitBuf, k, buf, len, digitBuf.length - k);
+        len += digitBuf.length - k;
+    }
+
+    /**
+     * Append a floating point number to the buffer.
+     * @param x the number to be appended
+     */
+    private void number(double x) {
+        if (digits == 0 || Double.isNaN(x) || Double.isInfinite(x)) {
+            String s = Double.toString(x);
+            for (int i = 0; i < s.length(); ++i)
+                buf[len++] = (byte)s.charAt(i);
+            return;
+        }
+        if (x == 0) {
+            buf[len++] = '0';
+            return;
+        }
+        if (x < 0) {
+            buf[len++] = '-';
+            x = -x;
+        }
+
+        // find mantissa m with the requested digits, x ~ m 10^(exp-digits+1)
+        int exp = (int)Math.floor(Math.log10(x));
+        long m = scale(x, digits - 1 - exp);
+        if (m < LONG_POW10[digits - 1]) {
+            --exp;
+            m = scale(x, digits - 1 - exp);
+        }
+        if (m >= LONG_POW10[digits]) {
+            ++exp;
+            m = scale(x, digits - 1 - exp);
+        }
+
+        // strip trailing zeros
+        int n = digits;
+        while (n > 1 && m%10 == 0) {
+            m /= 10;
+            --n;
+        }
+        int k = digitBuf.length;
+        for (int i = 0; i < n; ++i) {
+            digitBuf[--k] = (byte)('0' + m%10);
+            m /= 10;
+        }
+
+        if (exp >= -4 && exp < digits) {
+            // plain decimal notation
+            if (exp < 0) {
+                buf[len++] = '0';
+                buf[len++] = '.';
+                for (int i = -1; i > exp; --i)
+                    buf[len++] = '0';
+                System.arraycopy(digitBuf, k, buf, len, n);
+                len += n;
+            }
+            else {
+                for (int i = 0; i <= exp; ++i)
+                    buf[len++] = i < n ? digitBuf[k + i] : (byte)'0';
+                if (n > exp + 1) {
+                    buf[len++] = '.';
+                    System.arraycopy(digitBuf, k + exp + 1, buf, len,
+                                     n - exp - 1);
+                    len += n - exp - 1;
+                }
+            }
+        }
+        else {
+            // scientific notation
+            buf[len++] = digitBuf[k];
+            if (n > 1) {
+                buf[len++] = '.';
+                System.arraycopy(digitBuf, k + 1, buf, len, n - 1);
+                len += n - 1;
+            }
+            buf[len++] = 'E';
+            integer(exp);
+        }
+    }
+
+    /**
+     * Scale a positive number by a power of ten and round it.
+     * @param x the number to be scaled
+     * @param e the exponent of the power of ten
+     * @return the rounded value of x 10<sup>e</sup>
+     */
+    private static long scale(double x, int e) {
+        if (e >= 0) {
+            while (e > 22) {
+                x *= 1e22;
+                e -= 22;
+            }
+            return Math.round(x*POW10[e]);
+        }
+        else {
+            while (e < -22) {
+                x /= 1e22;
+                e += 22;
+            }
+            return Math.round(x/POW10[-e]);
+        }
+    }
+
+}
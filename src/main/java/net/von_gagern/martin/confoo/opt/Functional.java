@@ -45,6 +45,24 @@ import no.uib.cipr.matrix.Vector;
  */
 public interface Functional {
 
+    /**
+     * Flag requesting the function value from {@link #evaluate}.
+     * @since 1.2
+     */
+    public static final int VALUE = 1;
+
+    /**
+     * Flag requesting the gradient from {@link #evaluate}.
+     * @since 1.2
+     */
+    public static final int GRADIENT = 2;
+
+    /**
+     * Flag requesting the hessian from {@link #evaluate}.
+     * @since 1.2
+     */
+    public static final int HESSIAN = 4;
+
     /**
      * Return the dimension of the input space. This is the number of
      * real argument values the functional takes as an input.
@@ -126,4 +144,58 @@ public interface Functional {
      */
     public Matrix hessian(Matrix h);
 
+    /**
+     * Multiply the hessian with a vector (optional operation).<p>
+     *
+     * Calculates the product of the hessian at the position given by
+     * the most recent call to {@link #setArgument(Vector)} with a
+     * given vector, without assembling the hessian. This allows
+     * optimization of functionals whose hessian would be too large to
+     * keep in memory. The two vectors must not be the same.<p>
+     *
+     * The caller may provide a preallocated vector to receive the
+     * result, the same way as for {@link #gradient(Vector)}.
+     *
+     * @param x the vector to be multiplied with the hessian
+     * @param y a preallocated vector that may be used for the result
+     * @return the product of the hessian with <code>x</code>
+     * @throws IllegalStateException if there was no preceding call to
+     *         <code>setArgument</code>
+     * @throws UnsupportedOperationException if the functional does
+     *         not support this operation
+     * @since 1.2
+     */
+    public Vector hessianTimes(Vector x, Vector y);
+
+    /**
+     * Calculate several results at once (optional operation).<p>
+     *
+     * Calculates any combination of function value, gradient and
+     * hessian at the position given by the most recent call to
+     * {@link #setArgument(Vector)}. The results are the same as those
+     * of {@link #value}, {@link #gradient(Vector)} and {@link
+     * #hessian(Matrix)}, but an implementation may compute them in a
+     * single pass over its data. A requested value serves as the
+     * reference for subsequent calls to {@link #valueChange}.<p>
+     *
+     * In contrast to the individual methods, the results are always
+     * stored in the given objects, so they must not be
+     * <code>null</code> if the corresponding result is requested.
+     * Suitable objects can be obtained from previous calls to
+     * <code>gradient</code> and <code>hessian</code>.
+     *
+     * @param flags a combination of {@link #VALUE}, {@link #GRADIENT}
+     *        and {@link #HESSIAN}, selecting the results to calculate
+     * @param g the vector to receive the gradient
+     * @param h the matrix to receive the hessian
+     * @return the function value, or <code>NaN</code> if it was not
+     *         requested
+     * @throws IllegalStateException if there was no preceding call to
+     *         <code>setArgument</code>
+     * @throws UnsupportedOperationException if the functional does
+     *         not support this operation
+     * @since 1.2
+     */
+    public double evaluate(int flags, Vector g, Matrix h);
+
 }
@@ -0,0 +1,60 @@
+package net.von_gagern.martin.confoo.opt;
+
+import no.uib.cipr.matrix.AbstractMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+
+/**
+ * Hessian of a functional, represented by its products with vectors.<p>
+ *
+ * This matrix is never assembled. Multiplication with a vector is
+ * delegated to {@link Functional#hessianTimes}, always for the
+ * current argument of the functional. This is all the method of
+ * conjugate gradients needs. Access to individual elements is not
+ * supported, so neither are preconditioners or direct solvers.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+class HessianProduct extends AbstractMatrix {
+
+    /**
+     * The functional whose hessian this is.
+     */
+    private final Functional f;
+
+    /**
+     * Scratch space for products to be added to another vector.
+     */
+    private final Vector product;
+
+    /**
+     * Construct hessian for a given functional.
+     * @param f the functional which computes the products
+     */
+    public HessianProduct(Functional f) {
+        super(f.getInputDimension(), f.getInputDimension());
+        this.f = f;
+        product = new DenseVector(f.getInputDimension());
+    }
+
+    @Override public Vector mult(Vector x, Vector y) {
+        Vector res = f.hessianTimes(x, y);
+        if (res != y)
+            y.set(res);
+        return y;
+    }
+
+    @Override public Vector multAdd(double alpha, Vector x, Vector y) {
+        return y.add(alpha, f.hessianTimes(x, product));
+    }
+
+    @Override public Vector transMult(Vector x, Vector y) {
+        return mult(x, y);
+    }
+
+    @Override public Vector transMultAdd(double alpha, Vector x, Vector y) {
+        return multAdd(alpha, x, y);
+    }
+
+}
@@ -0,0 +1,38 @@
+package net.von_gagern.martin.confoo.opt;
+
+/**
+ * Receiver of progress information from an optimization.<p>
+ *
+ * The optimizer calls the listener after every completed iteration,
+ * in the thread performing the optimization. As this happens inside
+ * the optimization loop, the listener should return quickly. It may
+ * throw a <code>CancellationException</code> to abort the
+ * optimization, which will propagate to the caller of
+ * <code>optimize</code>. The values are described here for the
+ * Newton method. Other optimizers report the closest equivalents
+ * they have.
+ *
+ * @see Newton#setIterationListener
+ * @see TrustRegion#setIterationListener
+ * @see LBFGS#setIterationListener
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public interface IterationListener {
+
+    /**
+     * Report a completed iteration.
+     * @param iteration the number of the iteration, starting at 1
+     * @param gradientNorm the norm of the gradient at the start of
+     *        the iteration, as used for the exit condition
+     * @param lamdaSq the squared Newton decrement of the iteration
+     * @param step the step size accepted by the line search, in units
+     *        of the full Newton step
+     * @param linearIterations the number of linear solver iterations
+     *        performed for this iteration
+     */
+    void iteration(int iteration, double gradientNorm, double lamdaSq,
+                   double step, int linearIterations);
+
+}
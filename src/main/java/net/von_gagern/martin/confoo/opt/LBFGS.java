@@ -0,0 +1,635 @@
+package net.von_gagern.martin.confoo.opt;
+
+import java.util.concurrent.CancellationException;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Vector;
+import org.apache.log4j.Logger;
+
+/**
+ * Limited memory BFGS method for Convex Optimization.<p>
+ *
+ * This quasi-Newton method approximates the inverse hessian from the
+ * changes of argument and gradient during the most recent
+ * iterations. It only requires values and gradients of the
+ * functional, never its hessian. Memory requirements and the cost of
+ * every iteration are proportional to the input dimension times the
+ * number of remembered iterations. This makes it suitable for
+ * problems far too large for any second order method, at the cost of
+ * more iterations.<p>
+ *
+ * The step length is determined by a line search satisfying the
+ * strong Wolfe conditions, as described in Numerical Optimization by
+ * Nocedal and Wright. Values along the search direction are compared
+ * using {@link Functional#valueChange}, so they remain accurate even
+ * close to the optimum.<p>
+ *
+ * The results are reported using the exit conditions of {@link
+ * Newton}, where {@link Newton.ExitCondition#DELTA DELTA} refers to
+ * the length of the last step.
+ *
+ * @see <a href="http://dx.doi.org/10.1007/BF01589116">On the Limited Memory BFGS Method for Large Scale Optimization by Liu and Nocedal</a>
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public class LBFGS {
+
+    /**
+     * Default value to be used for all error bounds.
+     * @see #setEpsilon
+     */
+    private static final double EPSILON = 1e-14;
+
+    /**
+     * Sufficient decrease parameter of the Wolfe conditions.
+     */
+    private static final double C1 = 1e-4;
+
+    /**
+     * Curvature parameter of the Wolfe conditions.
+     */
+    private static final double C2 = 0.9;
+
+    /**
+     * Maximal number of evaluations during a single line search.
+     */
+    private static final int MAX_EVALUATIONS = 20;
+
+    /**
+     * Directional derivatives below this proportion of the function
+     * value are dominated by rounding errors. In that case the full
+     * step is taken without any line search.
+     */
+    private static final double ROUNDING = 1e-12;
+
+    /**
+     * Log4j logger for customizable logging and reporting.
+     */
+    private final Logger logger = Logger.getLogger(LBFGS.class);
+
+    /**
+     * The functional to optimize.
+     */
+    private final Functional f;
+
+    /**
+     * The starting point for the optimization.
+     */
+    private Vector startingPoint;
+
+    /**
+     * The number of iterations remembered to approximate the hessian.
+     * @see #setHistorySize
+     */
+    private int historySize = 8;
+
+    /**
+     * The norm used to evaluate the residual gradient value.
+     * @see #setNorm
+     * @see Newton.ExitCondition#GRADIENT
+     */
+    private Vector.Norm gradNorm = Vector.Norm.Two;
+
+    /**
+     * The norm used to evaluate the step size in input space.
+     * @see #setNorm
+     * @see Newton.ExitCondition#DELTA
+     */
+    private Vector.Norm deltaNorm = Vector.Norm.Two;
+
+    /**
+     * The boundary on gradient value below which optimization
+     * terminates.
+     * @see #setEpsilon
+     * @see Newton.ExitCondition#GRADIENT
+     */
+    private double gradEpsilon = EPSILON;
+
+    /**
+     * The boundary on the optimization step size below which
+     * optimization terminates.
+     * @see #setEpsilon
+     * @see Newton.ExitCondition#DELTA
+     */
+    private double deltaEpsilon = EPSILON;
+
+    /**
+     * The maximum number of iterations to perform.
+     * @see #setMaxIterations
+     * @see Newton.ExitCondition#ITERATIONS
+     */
+    private int maxIterations = Integer.MAX_VALUE;
+
+    /**
+     * The listener to be informed about every iteration.
+     * @see #setIterationListener
+     */
+    private IterationListener listener;
+
+    /**
+     * The time by which an optimization has to be finished,
+     * or zero if there is no such limit.
+     * @see #setDeadline
+     */
+    private long deadline = 0;
+
+    /**
+     * The condition that caused the last optimization to terminate.
+     */
+    private Newton.ExitCondition exitCondition;
+
+    /**
+     * The residual error from the most recent optimization.
+     */
+    private double exitError;
+
+    /**
+     * The final argument that resulted in the approximately optimal
+     * solution of the most recent optimization.
+     */
+    private Vector argmin;
+
+    /**
+     * The total number of function evaluations performed during the
+     * most recent optimization.
+     */
+    private int evaluations;
+
+    /**
+     * The current argument during a line search.
+     */
+    private Vector x;
+
+    /**
+     * The trial argument during a line search.
+     */
+    private Vector trial;
+
+    /**
+     * The gradient at the trial argument.
+     */
+    private Vector trialGradient;
+
+    /**
+     * Construct new optimizer for given functional.
+     * @param f the functional to be optimized
+     * @see #getInstance
+     */
+    private LBFGS(Functional f) {
+        this.f = f;
+    }
+
+    /**
+     * Construct new optimizer for given functional.
+     * @param f the functional to be optimized
+     * @return an optimizer for the given functional
+     */
+    public static LBFGS getInstance(Functional f) {
+        return new LBFGS(f);
+    }
+
+    /**
+     * Find approximatively optimal solution.<p>
+     *
+     * When this method terminates, the most recent call to
+     * <code>setArgument</code> for the underlying functional will
+     * have been for the found optimum.
+     *
+     * @throws CancellationException if the thread gets interrupted or
+     *         the deadline passes
+     * @see Functional#setArgument(Vector)
+     * @see #setDeadline
+     */
+    public void optimize() {
+        int size = f.getInputDimension();
+        int m = historySize;
+        Vector[] s = new Vector[m], y = new Vector[m];
+        double[] rho = new double[m], alpha = new double[m];
+        for (int k = 0; k < m; ++k) {
+            s[k] = new DenseVector(size);
+            y[k] = new DenseVector(size);
+        }
+        int stored = 0, newest = -1;
+        Vector p = new DenseVector(size);
+        Vector g = new DenseVector(size);
+        x = new DenseVector(size);
+        trial = new DenseVector(size);
+        trialGradient = new DenseVector(size);
+        boolean debug = logger.isDebugEnabled();
+
+        // initialization
+        setExitCondition(null, Double.NaN);
+        evaluations = 0;
+        if (startingPoint != null)
+            x.set(startingPoint);
+
+        logger.debug("Starting optimization");
+        f.setArgument(x);                             // working on f(x) now
+        g = f.gradient(g);                            // g = grad f(x)
+        for (int i = 1; i <= maxIterations; ++i) {
+            Newton.checkCancelled(deadline);
+            if (debug) logger.debug("Iteration " + i);
+            double gradNormValue = g.norm(gradNorm);
+            if (debug) logger.debug("Gradient norm: " + gradNormValue);
+            if (gradNormValue <= gradEpsilon) {
+                setExitCondition(Newton.ExitCondition.GRADIENT,
+                                 gradNormValue);
+                argmin = x;
+                return;
+            }
+
+            // two-loop recursion: p = - H*g
+            p.set(-1, g);
+            for (int j = 0, k = newest; j < stored; ++j, k = (k + m - 1)%m) {
+                alpha[k] = rho[k]*s[k].dot(p);
+                p.add(-alpha[k], y[k]);
+            }
+            if (stored > 0)
+                p.scale(s[newest].dot(y[newest])/y[newest].dot(y[newest]));
+            else
+                p.scale(1/Math.max(1, g.norm(Vector.Norm.Two)));
+            for (int j = 0, k = (newest + m - stored + 1)%m; j < stored;
+                 ++j, k = (k + 1)%m) {
+                double beta = rho[k]*y[k].dot(p);
+                p.add(alpha[k] - beta, s[k]);
+            }
+
+            double v = f.value();                     // v = f(x)
+            if (debug) logger.debug("Function value: " + v);
+            double decrement = -g.dot(p);
+            double t = lineSearch(p, g, v);
+            if (listener != null)
+                listener.iteration(i, gradNormValue, decrement,
+                                   Double.isNaN(t) ? 0 : t, 0);
+            if (Double.isNaN(t)) {
+                if (stored == 0) {
+                    setExitCondition(Newton.ExitCondition.DELTA, 0);
+                    f.setArgument(x);
+                    argmin = x;
+                    return;
+                }
+                logger.debug("Line search failed, discarding history");
+                stored = 0;
+                f.setArgument(x);
+                continue;
+            }
+            double deltaNormValue = t*p.norm(deltaNorm);
+            if (debug)
+                logger.debug("Step length: " + t + ", delta norm: " +
+                             deltaNormValue);
+
+            // remember changes of argument and gradient
+            int k = (newest + 1)%m;
+            s[k].set(trial).add(-1, x);
+            y[k].set(trialGradient).add(-1, g);
+            double sy = s[k].dot(y[k]);
+            if (sy > 0) {
+                rho[k] = 1/sy;
+                newest = k;
+                if (stored < m) ++stored;
+            }
+            else if (stored == m) {
+                --stored;                             // oldest overwritten
+            }
+            Vector swap = x;                          // swap x and trial
+            x = trial;
+            trial = swap;
+            swap = g;                                 // swap g and trialGradient
+            g = trialGradient;
+            trialGradient = swap;
+            if (deltaNormValue <= deltaEpsilon) {
+                setExitCondition(Newton.ExitCondition.DELTA, deltaNormValue);
+                argmin = x;
+                return;
+            }
+        }
+        setExitCondition(Newton.ExitCondition.ITERATIONS, maxIterations);
+        argmin = x;
+    }
+
+    /**
+     * Find a step length satisfying the strong Wolfe conditions.
+     * On success, the functional will be at the trial argument, and
+     * the trial gradient will have been computed for it.
+     * @param p the search direction
+     * @param g the gradient at the current argument
+     * @param v the value at the current argument
+     * @return the step length, or <code>NaN</code> if none was found
+     */
+    private double lineSearch(Vector p, Vector g, double v) {
+        double d0 = g.dot(p);
+        if (d0 >= 0) {
+            if (logger.isDebugEnabled())
+                logger.debug("Not a descent direction: " + d0);
+            return Double.NaN;
+        }
+        if (-d0 < ROUNDING*Math.abs(v)) {
+            evaluate(p, 1);
+            return 1;
+        }
+        double tPrev = 0, vPrev = 0, dPrev = d0;
+        double t = 1;
+        for (int j = 1; j <= MAX_EVALUATIONS; ++j) {
+            double vt = evaluate(p, t);
+            double dt = trialGradient.dot(p);
+            if (vt > C1*t*d0 || (j > 1 && vt >= vPrev))
+                return zoom(p, d0, tPrev, vPrev, dPrev, t, vt, dt,
+                            MAX_EVALUATIONS - j);
+            if (Math.abs(dt) <= -C2*d0)
+                return t;
+            if (dt >= 0)
+                return zoom(p, d0, t, vt, dt, tPrev, vPrev, dPrev,
+                            MAX_EVALUATIONS - j);
+            tPrev = t;
+            vPrev = vt;
+            dPrev = dt;
+            t *= 2;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Narrow down an interval containing a suitable step length.
+     * The bounds are not ordered. Values are given relative to the
+     * value at the current argument.
+     * @param p the search direction
+     * @param d0 the directional derivative at the current argument
+     * @param tLo the step length with the lowest value so far
+     * @param vLo the value for <code>tLo</code>
+     * @param dLo the directional derivative for <code>tLo</code>
+     * @param tHi the other end of the interval
+     * @param vHi the value for <code>tHi</code>
+     * @param dHi the directional derivative for <code>tHi</code>
+     * @param remaining the number of evaluations that may be performed
+     * @return the step length, or <code>NaN</code> if none was found
+     */
+    private double zoom(Vector p, double d0,
+                        double tLo, double vLo, double dLo,
+                        double tHi, double vHi, double dHi,
+                        int remaining) {
+        for (int j = 0; j < remaining; ++j) {
+            double t = interpolate(tLo, vLo, dLo, tHi, vHi, dHi);
+            double vt = evaluate(p, t);
+            double dt = trialGradient.dot(p);
+            if (vt > C1*t*d0 || vt >= vLo) {
+                tHi = t;
+                vHi = vt;
+                dHi = dt;
+            }
+            else {
+                if (Math.abs(dt) <= -C2*d0)
+                    return t;
+                if (dt*(tHi - tLo) >= 0) {
+                    tHi = tLo;
+                    vHi = vLo;
+                    dHi = dLo;
+                }
+                tLo = t;
+                vLo = vt;
+                dLo = dt;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Find the minimum of a cubic interpolation between two step lengths.
+     * If that minimum is too close to the ends of the interval or
+     * does not exist, the midpoint is used instead.
+     * @param t1 one step length
+     * @param v1 the value for <code>t1</code>
+     * @param d1 the directional derivative for <code>t1</code>
+     * @param t2 another step length
+     * @param v2 the value for <code>t2</code>
+     * @param d2 the directional derivative for <code>t2</code>
+     * @return a step length between <code>t1</code> and <code>t2</code>
+     */
+    private static double interpolate(double t1, double v1, double d1,
+                                      double t2, double v2, double d2) {
+        double e1 = d1 + d2 - 3*(v1 - v2)/(t1 - t2);
+        double e2sq = e1*e1 - d1*d2;
+        double lo = Math.min(t1, t2), hi = Math.max(t1, t2);
+        double margin = 0.1*(hi - lo);
+        if (e2sq >= 0) {
+            double e2 = Math.sqrt(e2sq);
+            if (t2 < t1) e2 = -e2;
+            double t = t2 - (t2 - t1)*(d2 + e2 - e1)/(d2 - d1 + 2*e2);
+            if (t >= lo + margin && t <= hi - margin)
+                return t;
+        }
+        return (lo + hi)/2;
+    }
+
+    /**
+     * Evaluate the functional at a point along the search direction.
+     * This sets the argument of the functional and computes the
+     * trial gradient.
+     * @param p the search direction
+     * @param t the step length
+     * @return the value relative to the current argument
+     */
+    private double evaluate(Vector p, double t) {
+        ++evaluations;
+        trial.set(x).add(t, p);                       // trial = x + t*p
+        f.setArgument(trial);
+        double change = f.valueChange();
+        trialGradient = f.gradient(trialGradient);
+        if (logger.isDebugEnabled())
+            logger.debug("Line search t: " + t + ", change: " + change);
+        return change;
+    }
+
+    /**
+     * Internal helper method to register exit condition.
+     * @param condition the condition that caused the optimization to
+     *                  terminate
+     * @param error the residual error when the optimization terminated
+     */
+    private void setExitCondition(Newton.ExitCondition condition,
+                                  double error) {
+        if (logger.isInfoEnabled())
+            logger.info("Condition: " + condition +", error: " + error +
+                        ", function evaluations: " + evaluations);
+        exitCondition = condition;
+        exitError = error;
+    }
+
+    /**
+     * Get cause for the termination of the most recent optimization.
+     * @return enum value representing the cause of termination
+     */
+    public Newton.ExitCondition getExitCondition() {
+        return exitCondition;
+    }
+
+    /**
+     * Get residual error for exit condition.
+     * @return residual error as specified for {@link Newton#getExitError}
+     * @see #getExitCondition()
+     */
+    public double getExitError() {
+        return exitError;
+    }
+
+    /**
+     * Get number of function evaluations during line searches.
+     * @return the number of evaluations of the most recent optimization
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Get position of critical point.
+     * @return the argument that lead to the found solution
+     */
+    public Vector getArgMin() {
+        return argmin;
+    }
+
+    /**
+     * Set the starting point for the optimization.
+     * By default the optimization starts at the origin.
+     * @param x the starting point, or <code>null</code> for the origin
+     * @throws IllegalArgumentException if the dimension of the vector
+     *         does not match the functional
+     * @see Newton#setStartingPoint
+     */
+    public void setStartingPoint(Vector x) {
+        if (x != null && x.size() != f.getInputDimension())
+            throw new IllegalArgumentException("Starting point has " +
+                                               "wrong dimension");
+        startingPoint = x;
+    }
+
+    /**
+     * Get the starting point for the optimization.
+     * @return the starting point, or <code>null</code> for the origin
+     */
+    public Vector getStartingPoint() {
+        return startingPoint;
+    }
+
+    /**
+     * Set the number of iterations used to approximate the hessian.
+     * Memory requirements grow linearly with this number, as two
+     * vectors are kept for every remembered iteration. The default
+     * is 8.
+     * @param size the number of remembered iterations
+     * @throws IllegalArgumentException if the size is not positive
+     */
+    public void setHistorySize(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("size must be at least 1");
+        historySize = size;
+    }
+
+    /**
+     * Get the number of iterations used to approximate the hessian.
+     * @return the number of remembered iterations
+     * @see #setHistorySize
+     */
+    public int getHistorySize() {
+        return historySize;
+    }
+
+    /**
+     * Set error bound for given termination condition.
+     * @param cond one of <code>GRADIENT</code> or <code>DELTA</code>
+     * @param epsilon the new bound to be set
+     * @throws IllegalArgumentException for other conditions
+     */
+    public void setEpsilon(Newton.ExitCondition cond, double epsilon) {
+        if (epsilon < 0)
+            throw new IllegalArgumentException("Epsilon may not be negative");
+        switch(cond) {
+        case GRADIENT:
+            gradEpsilon = epsilon;
+            break;
+        case DELTA:
+            deltaEpsilon = epsilon;
+            break;
+        default:
+            throw new IllegalArgumentException("Exit condition " + cond +
+                " has no associated epsilon bound");
+        }
+    }
+
+    /**
+     * Set the norm used to compare a vector with an error bound.
+     * @param cond one of <code>GRADIENT</code> or <code>DELTA</code>
+     * @param norm the norm to evaluate for the specified vectors
+     * @see #setEpsilon
+     */
+    public void setNorm(Newton.ExitCondition cond, Vector.Norm norm) {
+        if (norm == null)
+            throw new NullPointerException("norm must not be null");
+        switch(cond) {
+        case GRADIENT:
+            gradNorm = norm;
+            break;
+        case DELTA:
+            deltaNorm = norm;
+            break;
+        default:
+            throw new IllegalArgumentException("Exit condition " + cond +
+                " has no associated norm");
+        }
+    }
+
+    /**
+     * Set the listener to be informed about every iteration.
+     * Instead of the squared Newton decrement, the listener receives
+     * the decrement with respect to the approximated hessian. Failed
+     * line searches are reported with a step size of zero, and no
+     * linear solver iterations are ever reported.
+     * @param listener the listener, or <code>null</code> for none
+     * @see IterationListener
+     */
+    public void setIterationListener(IterationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the listener informed about every iteration.
+     * @return the listener, or <code>null</code> if there is none
+     * @see #setIterationListener
+     */
+    public IterationListener getIterationListener() {
+        return listener;
+    }
+
+    /**
+     * Set a wall-clock time limit for optimizations.
+     * The time and the interrupted status of the thread are checked
+     * before every iteration, as described for {@link
+     * Newton#setDeadline}.
+     * @param deadline the time in milliseconds as returned by {@link
+     *        System#currentTimeMillis}, or zero for no time limit
+     * @see #optimize
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Get the wall-clock time limit for optimizations.
+     * @return the time in milliseconds, or zero if there is no limit
+     * @see #setDeadline
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Set maximum number of iterations.
+     * @param max the new maximum number of iterations
+     * @see Newton.ExitCondition#ITERATIONS
+     */
+    public void setMaxIterations(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("max must be at least 1");
+        maxIterations = max;
+    }
+
+}
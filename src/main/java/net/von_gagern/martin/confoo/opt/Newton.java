@@ -1,11 +1,21 @@
 package net.von_gagern.martin.confoo.opt;
 
+import java.util.concurrent.CancellationException;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.MatrixNotSPDException;
 import no.uib.cipr.matrix.Vector;
 import no.uib.cipr.matrix.sparse.CG;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.DefaultIterationMonitor;
+import no.uib.cipr.matrix.sparse.DiagonalPreconditioner;
+import no.uib.cipr.matrix.sparse.ICC;
+import no.uib.cipr.matrix.sparse.ILU;
+import no.uib.cipr.matrix.sparse.IterationMonitor;
+import no.uib.cipr.matrix.sparse.IterationReporter;
 import no.uib.cipr.matrix.sparse.IterativeSolver;
 import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
+import no.uib.cipr.matrix.sparse.Preconditioner;
 import org.apache.log4j.Logger;
 
 /**
@@ -69,12 +79,100 @@ public class Newton implements Runnable {
 
     }
 
+    /**
+     * Enumeration of preconditioners for the linear solver.<p>
+     *
+     * The Newton step is determined by solving a linear system
+     * involving the hessian using the method of conjugate gradients.
+     * A preconditioner can greatly reduce the number of iterations
+     * required by that solver. All preconditioners except
+     * <code>JACOBI</code> require the hessian to be a
+     * <code>CompRowMatrix</code>.
+     *
+     * @see Newton#setPreconditioner
+     *
+     * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+     * @since 1.2
+     */
+    public enum PreconditionerType {
+
+        /**
+         * No preconditioning at all.
+         */
+        NONE,
+
+        /**
+         * Diagonal preconditioning, scaling by the inverse diagonal.
+         */
+        JACOBI,
+
+        /**
+         * Incomplete Cholesky factorization without fill-in.
+         */
+        ICC,
+
+        /**
+         * Incomplete LU factorization without fill-in.
+         */
+        ILU,
+
+        /**
+         * Symmetric Gauss-Seidel, i.e. symmetric successive
+         * overrelaxation with relaxation parameter 1.
+         */
+        SSOR,
+
+    }
+
     /**
      * Default value to be used for all error bounds.
      * @see #setEpsilon
      */
     private static final double EPSILON = 1e-14;
 
+    /**
+     * Relative tolerance of the linear solver in the first iteration
+     * of an inexact Newton method.
+     * @see #setInexact
+     */
+    private static final double ETA_INITIAL = 0.5;
+
+    /**
+     * Upper bound for the relative tolerance of the linear solver.
+     * @see #setInexact
+     */
+    private static final double ETA_MAX = 0.9;
+
+    /**
+     * Lower bound for the relative tolerance of the linear solver.
+     * Beyond this, rounding errors would keep the solver from
+     * converging at all.
+     * @see #setInexact
+     */
+    private static final double ETA_MIN = 1e-10;
+
+    /**
+     * Factor applied to the squared gradient reduction in order to
+     * obtain the next relative tolerance.
+     * @see #setInexact
+     */
+    private static final double ETA_GAMMA = 0.9;
+
+    /**
+     * Predicted changes below this proportion of the function value
+     * are dominated by rounding errors, so the full Newton step is
+     * taken without any line search, provided the change is also
+     * below {@link #ROUNDING_LIMIT}.
+     */
+    private static final double ROUNDING = 1e-12;
+
+    /**
+     * Absolute bound for the squared Newton decrement of steps taken
+     * without line search. Without it, functionals with large values
+     * could skip the line search for steps of meaningful size.
+     */
+    private static final double ROUNDING_LIMIT = 1e-16;
+
     /**
      * Log4j logger for customizable logging and reporting.
      */
@@ -95,6 +193,69 @@ public class Newton implements Runnable {
      */
     private IterativeSolver solver;
 
+    /**
+     * The kind of preconditioner to use for the linear solver.
+     * @see #setPreconditioner
+     */
+    private PreconditionerType preconditionerType = PreconditionerType.NONE;
+
+    /**
+     * The preconditioner instance, created for the first hessian.
+     */
+    private Preconditioner preconditioner;
+
+    /**
+     * The default preconditioner of the solver, which is the identity.
+     */
+    private final Preconditioner identity;
+
+    /**
+     * The default iteration monitor of the solver.
+     */
+    private final IterationMonitor defaultMonitor;
+
+    /**
+     * The iteration monitor with adaptive tolerance.
+     * @see #setInexact
+     */
+    private DefaultIterationMonitor adaptiveMonitor;
+
+    /**
+     * Whether to adapt the tolerance of the linear solver.
+     * @see #setInexact
+     */
+    private boolean inexact = false;
+
+    /**
+     * Whether to use a direct solver instead of the iterative one.
+     * @see #setDirectSolver
+     */
+    private boolean direct = false;
+
+    /**
+     * The sparse Cholesky decomposition used by the direct solver.
+     * Its symbolic analysis is kept as long as the hessian pattern
+     * doesn't change.
+     */
+    private SparseCholesky cholesky;
+
+    /**
+     * Whether to work with hessian-vector products only.
+     * @see #setMatrixFree
+     */
+    private boolean matrixFree = false;
+
+    /**
+     * The hessian represented by its products, for matrix-free mode.
+     */
+    private HessianProduct product;
+
+    /**
+     * Whether to calculate value, gradient and hessian at once.
+     * @see #setFusedEvaluation
+     */
+    private boolean fused = false;
+
     /**
      * Parameter for backtracking line search.
      * This factor gives the proportion of the value change predicted
@@ -164,6 +325,30 @@ public class Newton implements Runnable {
      */
     private int maxIterations = Integer.MAX_VALUE;
 
+    /**
+     * The listener to be informed about every iteration.
+     * @see #setIterationListener
+     */
+    private IterationListener listener;
+
+    /**
+     * The time by which an optimization has to be finished,
+     * or zero if there is no such limit.
+     * @see #setDeadline
+     */
+    private long deadline = 0;
+
+    /**
+     * Reporter checking for cancellation during every iteration of
+     * the linear solver.
+     */
+    private final IterationReporter watchdog = new Watchdog();
+
+    /**
+     * The buffers of the most recent optimization, kept for the next.
+     */
+    private Workspace workspace;
+
     /**
      * The condition that caused the last optimization to terminate.
      */
@@ -180,6 +365,12 @@ public class Newton implements Runnable {
      */
     private Vector argmin;
 
+    /**
+     * The total number of linear solver iterations performed during
+     * the most recent optimization.
+     */
+    private int linearIterations;
+
     /**
      * Construct new optimizer for given functional.<p>
      *
@@ -195,6 +386,9 @@ public class Newton implements Runnable {
         this.f = f;
         int size = f.getInputDimension();
         solver = new CG(new DenseVector(size));
+        identity = solver.getPreconditioner();
+        defaultMonitor = solver.getIterationMonitor();
+        defaultMonitor.setIterationReporter(watchdog);
     }
 
     /**
@@ -223,40 +417,111 @@ public class Newton implements Runnable {
      * @throws IterativeSolverNotConvergedException if the Newton step
      *         could not be determined, e.g. because the functional is
      *         not convex.
+     * @throws MatrixNotSPDException if the direct solver is used and
+     *         the hessian is not positive definite
+     * @throws IllegalStateException if matrix-free mode is combined
+     *         with the direct solver or a preconditioner
+     * @throws CancellationException if the thread gets interrupted or
+     *         the deadline passes
      * @see Functional#setArgument(Vector)
+     * @see #setDeadline
      */
     public void optimize() throws IterativeSolverNotConvergedException {
         int size = f.getInputDimension();
-        Vector x = new DenseVector(size);
-        Vector x2 = new DenseVector(size);
-        Vector delta = new DenseVector(size);
-        Vector g = null;
-        Matrix h = null;
+        if (workspace == null || workspace.x.size() != size)
+            workspace = new Workspace(size);
+        Vector x = workspace.x;
+        Vector x2 = workspace.x2;
+        Vector delta = workspace.delta;
+        Vector g = workspace.g;
+        Matrix h = workspace.h;
+        double eta = ETA_INITIAL, prevGradNorm = Double.NaN;
+        boolean debug = logger.isDebugEnabled();
 
         // initialization
         setExitCondition(null, Double.NaN);
+        linearIterations = 0;
         if (startingPoint != null)
             x.set(startingPoint);
+        else
+            x.zero();
 
         logger.debug("Starting optimization");
         f.setArgument(x);                             // working on f(x) now
         for (int i = 1; i <= maxIterations; ++i) {
-            logger.debug("Iteration " + i);
-            g = f.gradient(g);                        // g = grad f(x)
+            checkCancelled(deadline);
+            if (debug) logger.debug("Iteration " + i);
+            int done = 0, solverIterations = 0;
+            double v = Double.NaN;
+            if (fused) {
+                done = Functional.VALUE | Functional.GRADIENT;
+                if (h != null && !matrixFree)
+                    done |= Functional.HESSIAN;
+                v = f.evaluate(done, g, h);           // all of the below
+            }
+            else {
+                g = f.gradient(g);                    // g = grad f(x)
+            }
             double gradNormValue = g.norm(gradNorm);
-            logger.debug("Gradient norm: " + gradNormValue);
+            if (debug) logger.debug("Gradient norm: " + gradNormValue);
             if (gradNormValue <= gradEpsilon) {
                 setExitCondition(ExitCondition.GRADIENT, gradNormValue);
                 argmin = x;
                 return;
             }
-            h = f.hessian(h);                         // h = Hess f(x)
+            if (matrixFree) {
+                if (product == null)
+                    product = new HessianProduct(f);
+                h = product;                          // h = Hess f(x)
+            }
+            else if ((done & Functional.HESSIAN) == 0) {
+                h = f.hessian(h);                     // h = Hess f(x)
+                workspace.h = h;
+            }
             g = g.scale(-1);                          // g = - grad f(x)
-            double v = f.value();                     // v = f(x)
-            logger.debug("Function value: " + v);
-            delta = solver.solve(h, g, delta.zero()); // h*delta = g
+            if ((done & Functional.VALUE) == 0)
+                v = f.value();                        // v = f(x)
+            if (debug) logger.debug("Function value: " + v);
+            if (direct) {
+                if (matrixFree)
+                    throw new IllegalStateException("Direct solver " +
+                        "requires an assembled hessian");
+                CompRowMatrix sparse = sparseHessian(h);
+                if (cholesky == null || !cholesky.hasPattern(sparse))
+                    cholesky = new SparseCholesky(sparse);
+                cholesky.factor(sparse);
+                delta = cholesky.solve(g, delta);     // h*delta = g
+            }
+            else {
+                if (preconditionerType != PreconditionerType.NONE) {
+                    if (matrixFree)
+                        throw new IllegalStateException("Preconditioner " +
+                            preconditionerType +
+                            " requires an assembled hessian");
+                    if (preconditioner == null) {
+                        preconditioner = createPreconditioner(h);
+                        solver.setPreconditioner(preconditioner);
+                    }
+                    preconditioner.setMatrix(h);
+                }
+                if (inexact) {
+                    double norm = g.norm(Vector.Norm.Two);
+                    if (i > 1)
+                        eta = forcingTerm(norm/prevGradNorm, eta, norm);
+                    prevGradNorm = norm;
+                    adaptiveMonitor.setRelativeTolerance(eta);
+                    if (debug)
+                        logger.debug("Linear solver tolerance: " + eta);
+                }
+                delta = solver.solve(h, g, delta.zero()); // h*delta = g
+                solverIterations = solver.getIterationMonitor().iterations();
+                linearIterations += solverIterations;
+                if (debug)
+                    logger.debug("Linear solver iterations: " +
+                                 solverIterations);
+            }
             double lamdaSq = g.dot(delta);            // lamda² = <g, delta>
-            logger.debug("lambda^2: " + lamdaSq);
+            if (debug) logger.debug("lambda^2: " + lamdaSq);
             if (lamdaSq/2 <= estimateEpsilon) {
                 setExitCondition(ExitCondition.ESTIMATE, lamdaSq/2);
                 argmin = x;
@@ -265,10 +530,13 @@ public class Newton implements Runnable {
 
             // Backtracking line search
             double deltaNormValue = delta.norm(deltaNorm);
-            logger.debug("Delta norm: " + deltaNormValue);
-            for (double t = 1; true; t *= beta) {
+            if (debug) logger.debug("Delta norm: " + deltaNormValue);
+            boolean noise = lamdaSq < ROUNDING*Math.abs(v) &&
+                lamdaSq < ROUNDING_LIMIT;
+            double t;
+            for (t = 1; true; t *= beta) {
                 if (t < gamma) t = gamma;
-                logger.debug("Line search t: " + t);
+                if (debug) logger.debug("Line search t: " + t);
                 if (t*deltaNormValue <= deltaEpsilon) {
                     setExitCondition(ExitCondition.DELTA, t*deltaNormValue);
                     argmin = x;
@@ -277,6 +545,8 @@ public class Newton implements Runnable {
                 x2.set(x);
                 x2.add(t, delta);                     // x2 = x + t*delta
                 f.setArgument(x2);
+                if (noise)
+                    break;
                 double change = f.valueChange();
                 if (change <= alpha*t*lamdaSq || t == gamma)
                     break;
@@ -284,6 +554,11 @@ public class Newton implements Runnable {
             Vector x1 = x2;                           // swap x and x2
             x2 = x;
             x = x1;
+            workspace.x = x;
+            workspace.x2 = x2;
+            if (listener != null)
+                listener.iteration(i, gradNormValue, lamdaSq, t,
+                                   solverIterations);
             // f.setArgument(x2) was already called inside line search, so we
             // don't need to set the argument again for the next iteration
         }
@@ -291,6 +566,44 @@ public class Newton implements Runnable {
         argmin = x;
     }
 
+    /**
+     * Determine the relative tolerance of the linear solver.
+     * This implements the second choice of Eisenstat and Walker,
+     * including their safeguard against tolerances decreasing too
+     * quickly. The tolerance is not reduced beyond what is needed to
+     * reach the gradient bound in the next iteration.
+     * @param ratio the ratio between the current and the previous
+     *        gradient norm
+     * @param previous the previous tolerance
+     * @param norm the current gradient norm
+     * @return the tolerance for the current linear system
+     * @see #setInexact
+     */
+    private double forcingTerm(double ratio, double previous, double norm) {
+        double eta = ETA_GAMMA*ratio*ratio;
+        double safeguard = ETA_GAMMA*previous*previous;
+        if (safeguard > 0.1)
+            eta = Math.max(eta, safeguard);
+        eta = Math.max(eta, 0.5*gradEpsilon/norm);
+        eta = Math.max(eta, ETA_MIN);
+        return Math.min(eta, ETA_MAX);
+    }
+
+    /**
+     * Abort an optimization if it has been cancelled.
+     * This is shared by all optimizers of this package.
+     * @param deadline the time limit, or zero if there is none
+     * @throws CancellationException if the thread has been interrupted
+     *         or the deadline has passed
+     */
+    static void checkCancelled(long deadline) {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Optimization interrupted");
+        if (deadline != 0 && System.currentTimeMillis() > deadline)
+            throw new CancellationException("Optimization deadline " +
+                                            "exceeded");
+    }
+
     /**
      * Internal helper method to register exit condition.
      * @param condition the condition that caused the optimization to
@@ -298,7 +611,9 @@ public class Newton implements Runnable {
      * @param error the residual error when the optimization terminated
      */
     private void setExitCondition(ExitCondition condition, double error) {
-        logger.info("Condition: " + condition +", error: " + error);
+        if (logger.isInfoEnabled())
+            logger.info("Condition: " + condition +", error: " + error +
+                        ", linear solver iterations: " + linearIterations);
         exitCondition = condition;
         exitError = error;
     }
@@ -329,14 +644,55 @@ public class Newton implements Runnable {
         return exitError;
     }
 
+    /**
+     * Get number of linear solver iterations.
+     * This is the total over all Newton steps of the most recent
+     * optimization. It can be used to assess the effect of different
+     * preconditioners.
+     * @return the number of conjugate gradient iterations
+     * @see #setPreconditioner
+     * @since 1.2
+     */
+    public int getLinearIterations() {
+        return linearIterations;
+    }
+
     /**
      * Get position of critical point.
+     * The vector is part of the buffers of this optimizer, so it will
+     * be overwritten by the next optimization.
      * @return the argument that lead to the found solution
      */
     public Vector getArgMin() {
         return argmin;
     }
 
+    /**
+     * Set the starting point for the optimization.
+     * By default the optimization starts at the origin. A starting
+     * point close to the solution can save many iterations. The
+     * vector is copied at the beginning of every optimization.
+     * @param x the starting point, or <code>null</code> for the origin
+     * @throws IllegalArgumentException if the dimension of the vector
+     *         does not match the functional
+     * @since 1.2
+     */
+    public void setStartingPoint(Vector x) {
+        if (x != null && x.size() != f.getInputDimension())
+            throw new IllegalArgumentException("Starting point has " +
+                                               "wrong dimension");
+        startingPoint = x;
+    }
+
+    /**
+     * Get the starting point for the optimization.
+     * @return the starting point, or <code>null</code> for the origin
+     * @since 1.2
+     */
+    public Vector getStartingPoint() {
+        return startingPoint;
+    }
+
     /**
      * Set error bound for given termination condition.
      * @param cond one of <code>GRADIENT</code>, <code>DELTA</code> or
@@ -396,6 +752,255 @@ public class Newton implements Runnable {
         maxIterations = max;
     }
 
+    /**
+     * Set the listener to be informed about every iteration.
+     * @param listener the listener, or <code>null</code> for none
+     * @see IterationListener
+     * @since 1.2
+     */
+    public void setIterationListener(IterationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the listener informed about every iteration.
+     * @return the listener, or <code>null</code> if there is none
+     * @see #setIterationListener
+     * @since 1.2
+     */
+    public IterationListener getIterationListener() {
+        return listener;
+    }
+
+    /**
+     * Set a wall-clock time limit for optimizations.<p>
+     *
+     * The time is checked before every iteration and during every
+     * iteration of the linear solver. If it has passed, the
+     * optimization is aborted by a
+     * <code>CancellationException</code>. The same happens if the
+     * thread performing the optimization gets interrupted, which is
+     * how a <code>Future</code> gets cancelled. Neither the direct
+     * solver nor the line search check these conditions, so the
+     * optimization may exceed the deadline by the time they take. The
+     * default is not to have any time limit.
+     *
+     * @param deadline the time in milliseconds as returned by {@link
+     *        System#currentTimeMillis}, or zero for no time limit
+     * @see #optimize
+     * @since 1.2
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Get the wall-clock time limit for optimizations.
+     * @return the time in milliseconds, or zero if there is no limit
+     * @see #setDeadline
+     * @since 1.2
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Set the preconditioner for the linear solver.
+     * The default is not to use any preconditioner. Setting the type
+     * currently in use keeps the existing preconditioner, so it can
+     * be reused for subsequent optimizations.
+     * @param type the kind of preconditioner to use
+     * @see #getLinearIterations
+     * @since 1.2
+     */
+    public void setPreconditioner(PreconditionerType type) {
+        if (type == null)
+            throw new NullPointerException("type must not be null");
+        if (type == preconditionerType)
+            return;
+        preconditionerType = type;
+        preconditioner = null;
+        solver.setPreconditioner(identity);
+    }
+
+    /**
+     * Choose whether to adapt the tolerance of the linear solver.<p>
+     *
+     * Far from the optimum, a rough approximation of the Newton step
+     * is good enough. In inexact mode, the tolerance of the linear
+     * solver relative to the gradient norm is chosen in every
+     * iteration according to a schedule by Eisenstat and Walker,
+     * which tightens as the gradient norm decreases. This saves most
+     * linear solver iterations of the first Newton steps, while
+     * retaining fast convergence close to the optimum. The default is
+     * to solve every system with the fixed default tolerance of the
+     * iterative solver. This setting has no effect on the direct
+     * solver.
+     *
+     * @param inexact <code>true</code> to adapt the tolerance
+     * @see <a href="http://dx.doi.org/10.1137/0917003">Choosing the Forcing Terms in an Inexact Newton Method by Eisenstat and Walker</a>
+     * @since 1.2
+     */
+    public void setInexact(boolean inexact) {
+        this.inexact = inexact;
+        if (inexact && adaptiveMonitor == null) {
+            adaptiveMonitor = new DefaultIterationMonitor();
+            adaptiveMonitor.setIterationReporter(watchdog);
+        }
+        solver.setIterationMonitor(inexact ? adaptiveMonitor
+                                   : defaultMonitor);
+    }
+
+    /**
+     * Determine whether the tolerance of the linear solver is adapted.
+     * @return <code>true</code> if the tolerance is adapted
+     * @see #setInexact
+     * @since 1.2
+     */
+    public boolean isInexact() {
+        return inexact;
+    }
+
+    /**
+     * Choose between direct and iterative linear solver.<p>
+     *
+     * The direct solver performs a sparse LDL<sup>T</sup>
+     * decomposition of the hessian. The symbolic part of that
+     * decomposition, including a fill-reducing ordering, is computed
+     * for the first hessian and reused as long as the sparsity pattern
+     * remains the same. It requires the hessian to be a
+     * <code>CompRowMatrix</code>. The default is to use the iterative
+     * method of conjugate gradients.
+     *
+     * @param direct <code>true</code> to use the direct solver
+     * @see #setCholesky
+     * @since 1.2
+     */
+    public void setDirectSolver(boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * Choose whether to avoid assembling the hessian.<p>
+     *
+     * In matrix-free mode, the linear solver only uses products of
+     * the hessian with vectors, as computed by {@link
+     * Functional#hessianTimes}. So the functional has to support that
+     * operation. Memory requirements are then independent of the
+     * number of non-zero hessian entries. Neither the direct solver
+     * nor any preconditioner can be used in this mode. The default is
+     * to assemble the hessian.
+     *
+     * @param matrixFree <code>true</code> to avoid the hessian matrix
+     * @since 1.2
+     */
+    public void setMatrixFree(boolean matrixFree) {
+        this.matrixFree = matrixFree;
+    }
+
+    /**
+     * Determine whether the hessian is assembled.
+     * @return <code>true</code> if only hessian products are used
+     * @see #setMatrixFree
+     * @since 1.2
+     */
+    public boolean isMatrixFree() {
+        return matrixFree;
+    }
+
+    /**
+     * Choose whether to calculate value, gradient and hessian at once.
+     * If enabled, every iteration uses a single call to {@link
+     * Functional#evaluate} instead of separate calls for the
+     * individual results, so the functional has to support that
+     * operation. The matrix for the hessian is obtained from a
+     * separate call in the first iteration of the first optimization.
+     * The default is to use separate calls.
+     * @param fused <code>true</code> to calculate results at once
+     * @since 1.2
+     */
+    public void setFusedEvaluation(boolean fused) {
+        this.fused = fused;
+    }
+
+    /**
+     * Determine whether value, gradient and hessian are calculated
+     * at once.
+     * @return <code>true</code> if results are calculated at once
+     * @see #setFusedEvaluation
+     * @since 1.2
+     */
+    public boolean isFusedEvaluation() {
+        return fused;
+    }
+
+    /**
+     * Provide a decomposition whose symbolic analysis may be reused.
+     * This allows reusing the analysis from a previous optimization of
+     * a different functional, as long as the hessians of both share
+     * the same sparsity pattern. If they don't, the direct solver
+     * will perform a new analysis.
+     * @param cholesky a decomposition from {@link #getCholesky}, or
+     *        <code>null</code> to discard any previous analysis
+     * @see #setDirectSolver
+     * @since 1.2
+     */
+    public void setCholesky(SparseCholesky cholesky) {
+        this.cholesky = cholesky;
+    }
+
+    /**
+     * Get the decomposition used by the direct solver.
+     * @return the current decomposition, or <code>null</code> if the
+     *         direct solver was not used yet
+     * @see #setCholesky
+     * @since 1.2
+     */
+    public SparseCholesky getCholesky() {
+        return cholesky;
+    }
+
+    /**
+     * Ensure the hessian is sparse, as required by the direct solver.
+     * @param h the hessian
+     * @return the same hessian, cast to the sparse matrix type
+     * @throws IllegalStateException if the hessian isn't sparse
+     */
+    private static CompRowMatrix sparseHessian(Matrix h) {
+        if (!(h instanceof CompRowMatrix))
+            throw new IllegalStateException("Direct solver requires " +
+                                            "a sparse hessian");
+        return (CompRowMatrix)h;
+    }
+
+    /**
+     * Create the configured preconditioner for a given hessian.
+     * The preconditioner will be remembered for subsequent iterations,
+     * as the pattern of the hessian won't change.
+     * @param h the first hessian to be preconditioned
+     * @return a preconditioner suitable for the linear solver
+     * @throws IllegalStateException if the preconditioner requires a
+     *         sparse matrix but the hessian isn't one
+     */
+    private Preconditioner createPreconditioner(Matrix h) {
+        if (preconditionerType == PreconditionerType.JACOBI)
+            return new DiagonalPreconditioner(h.numRows());
+        if (!(h instanceof CompRowMatrix))
+            throw new IllegalStateException("Preconditioner " +
+                preconditionerType + " requires a sparse hessian");
+        CompRowMatrix sparse = (CompRowMatrix)h;
+        switch (preconditionerType) {
+        case ICC:
+            return new ICC(sparse.copy());
+        case ILU:
+            return new ILU(sparse.copy());
+        case SSOR:
+            return new SSORPreconditioner();
+        default:
+            throw new IllegalStateException();
+        }
+    }
+
     /**
      * Set parameters for backtracking line search.<p>
      *
@@ -425,6 +1030,69 @@ public class Newton implements Runnable {
         this.gamma = gamma;
     }
 
+    /**
+     * Buffers used by the optimization.<p>
+     *
+     * They are allocated once for the dimension of the functional and
+     * reused by every subsequent optimization, so that an iteration
+     * doesn't allocate any memory itself.
+     */
+    private static class Workspace {
+
+        /**
+         * The current argument.
+         */
+        Vector x;
+
+        /**
+         * The argument probed by the line search.
+         */
+        Vector x2;
+
+        /**
+         * The Newton step.
+         */
+        final Vector delta;
+
+        /**
+         * The gradient, negated once the hessian is known.
+         */
+        final Vector g;
+
+        /**
+         * The assembled hessian, once the functional provided one.
+         */
+        Matrix h;
+
+        /**
+         * Allocate buffers for a given dimension.
+         * @param size the input dimension of the functional
+         */
+        Workspace(int size) {
+            x = new DenseVector(size);
+            x2 = new DenseVector(size);
+            delta = new DenseVector(size);
+            g = new DenseVector(size);
+        }
+
+    }
+
+    /**
+     * Iteration reporter of the linear solver which checks whether
+     * the optimization got cancelled.
+     */
+    private class Watchdog implements IterationReporter {
+
+        public void monitor(double r, Vector x, int i) {
+            checkCancelled(deadline);
+        }
+
+        public void monitor(double r, int i) {
+            checkCancelled(deadline);
+        }
+
+    }
+
     /**
      * Runnable interface to the <code>optimize</code> method.<p>
      *
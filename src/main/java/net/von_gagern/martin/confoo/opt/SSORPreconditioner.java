@@ -0,0 +1,130 @@
+package net.von_gagern.martin.confoo.opt;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.Preconditioner;
+
+/**
+ * Symmetric successive overrelaxation preconditioner.<p>
+ *
+ * This preconditioner performs one forward and one backward sweep of
+ * successive overrelaxation. In contrast to the <code>SSOR</code>
+ * class shipped with MTJ, the resulting operator is symmetric, which
+ * is required for the method of conjugate gradients to converge.
+ * The matrix has to be a symmetric <code>CompRowMatrix</code> with
+ * non-zero diagonal, and all vectors have to be dense.
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+class SSORPreconditioner implements Preconditioner {
+
+    /**
+     * Overrelaxation parameter, 0 &lt; omega &lt; 2.
+     */
+    private final double omega;
+
+    /**
+     * The matrix to be preconditioned.
+     */
+    private CompRowMatrix a;
+
+    /**
+     * Positions of the diagonal elements in the data array.
+     */
+    private int[] diagonal;
+
+    /**
+     * Construct symmetric Gauss-Seidel preconditioner.
+     * This is the special case of an overrelaxation parameter of 1.
+     */
+    public SSORPreconditioner() {
+        this(1.);
+    }
+
+    /**
+     * Construct preconditioner with given overrelaxation parameter.
+     * @param omega the overrelaxation parameter, 0 &lt; omega &lt; 2
+     */
+    public SSORPreconditioner(double omega) {
+        if (omega <= 0 || omega >= 2)
+            throw new IllegalArgumentException("0 < omega < 2");
+        this.omega = omega;
+    }
+
+    /**
+     * Set the matrix to be preconditioned.
+     * The matrix is not copied, so it must not be modified while the
+     * preconditioner is in use. The positions of the diagonal are
+     * only determined for the first matrix, so subsequent matrices
+     * must share its sparsity pattern.
+     * @param m a square <code>CompRowMatrix</code>
+     * @throws IllegalArgumentException for any other kind of matrix
+     */
+    public void setMatrix(Matrix m) {
+        if (!(m instanceof CompRowMatrix))
+            throw new IllegalArgumentException("Matrix must be sparse");
+        a = (CompRowMatrix)m;
+        int n = a.numRows();
+        if (diagonal != null && diagonal.length == n)
+            return;
+        int[] rowPtr = a.getRowPointers(), colIdx = a.getColumnIndices();
+        diagonal = new int[n];
+        for (int i = 0; i < n; ++i) {
+            diagonal[i] = -1;
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; ++k)
+                if (colIdx[k] == i)
+                    diagonal[i] = k;
+            if (diagonal[i] < 0)
+                throw new IllegalArgumentException("Missing diagonal entry");
+        }
+    }
+
+    /**
+     * Apply preconditioner.
+     * @param b the right hand side
+     * @param x vector receiving the result
+     * @return the vector <code>x</code>
+     */
+    public Vector apply(Vector b, Vector x) {
+        int[] rowPtr = a.getRowPointers(), colIdx = a.getColumnIndices();
+        double[] data = a.getData();
+        double[] bd = ((DenseVector)b).getData();
+        double[] xd = ((DenseVector)x).getData();
+        int n = bd.length;
+        double c = (2 - omega)/omega;
+
+        // forward sweep: (D/omega + L) z = c b, stored in x
+        for (int i = 0; i < n; ++i) {
+            double sum = c*bd[i];
+            for (int k = rowPtr[i]; k < diagonal[i]; ++k)
+                sum -= data[k]*xd[colIdx[k]];
+            xd[i] = sum*omega/data[diagonal[i]];
+        }
+
+        // scale by D/omega, then backward sweep: (D/omega + U) x = w
+        for (int i = n - 1; i >= 0; --i) {
+            double d = data[diagonal[i]];
+            double sum = d*xd[i]/omega;
+            for (int k = diagonal[i] + 1; k < rowPtr[i + 1]; ++k)
+                sum -= data[k]*xd[colIdx[k]];
+            xd[i] = sum*omega/d;
+        }
+        return x;
+    }
+
+    /**
+     * Apply transposed preconditioner.
+     * As the preconditioner is symmetric, this is the same as
+     * {@link #apply}.
+     * @param b the right hand side
+     * @param x vector receiving the result
+     * @return the vector <code>x</code>
+     */
+    public Vector transApply(Vector b, Vector x) {
+        return apply(b, x);
+    }
+
+}
@@ -0,0 +1,468 @@
+package net.von_gagern.martin.confoo.opt;
+
+import java.util.Arrays;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.MatrixNotSPDException;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+
+/**
+ * Sparse LDL<sup>T</sup> decomposition of symmetric positive definite
+ * matrices.<p>
+ *
+ * This class splits the decomposition into a symbolic and a numeric
+ * phase. The symbolic phase is performed by the constructor. It
+ * determines a fill-reducing ordering of the rows and columns using
+ * nested dissection, as well as the elimination tree and the
+ * structure of the factor. It depends only on the sparsity pattern of
+ * the matrix. The numeric phase is performed by {@link #factor} and
+ * may be repeated for any number of matrices sharing this same
+ * pattern, reusing all memory allocated during the symbolic
+ * phase.<p>
+ *
+ * The numeric factorization and the triangular solves follow the
+ * LDL package by Timothy A. Davis. The ordering uses level structures
+ * of breadth first searches from pseudo-peripheral vertices to find
+ * separators, as described by George and Liu.
+ *
+ * @see <a href="http://dx.doi.org/10.1145/1114268.1114277">Algorithm 849: A concise sparse Cholesky factorization package by Davis</a>
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public class SparseCholesky {
+
+    /**
+     * Subgraphs up to this size will not be dissected any further.
+     */
+    private static final int LEAF_SIZE = 64;
+
+    /**
+     * Dimension of the matrix.
+     */
+    private final int n;
+
+    /**
+     * Row pointers of the analysed sparsity pattern.
+     */
+    private final int[] ap;
+
+    /**
+     * Column indices of the analysed sparsity pattern.
+     */
+    private final int[] ai;
+
+    /**
+     * Fill-reducing permutation. Row <code>perm[k]</code> of the input
+     * matrix will be eliminated in step <code>k</code>.
+     */
+    private final int[] perm;
+
+    /**
+     * Inverse of the fill-reducing permutation.
+     */
+    private final int[] pinv;
+
+    /**
+     * Elimination tree, giving the parent of each column of the factor.
+     */
+    private final int[] parent;
+
+    /**
+     * Column pointers of the factor L.
+     */
+    private final int[] lp;
+
+    /**
+     * Row indices of the factor L.
+     */
+    private final int[] li;
+
+    /**
+     * Values of the factor L.
+     */
+    private final double[] lx;
+
+    /**
+     * Diagonal matrix D.
+     */
+    private final double[] d;
+
+    /**
+     * Work space: number of entries in each column of L.
+     */
+    private final int[] lnz;
+
+    /**
+     * Work space: flags for the current row pattern.
+     */
+    private final int[] flag;
+
+    /**
+     * Work space: nonzero pattern of the current row of L.
+     */
+    private final int[] pattern;
+
+    /**
+     * Work space: values of the current row, also used for solving.
+     */
+    private final double[] y;
+
+    /**
+     * Whether a numeric factorization is available.
+     */
+    private boolean factored;
+
+    /**
+     * Perform symbolic analysis of a symmetric sparse matrix.
+     * Only the sparsity pattern of the argument is used; its values
+     * are irrelevant. Both triangles of the matrix must be stored.
+     * @param a a symmetric matrix in compressed row storage
+     * @throws IllegalArgumentException if the matrix is not square
+     */
+    public SparseCholesky(CompRowMatrix a) {
+        if (!a.isSquare())
+            throw new IllegalArgumentException("Matrix must be square");
+        n = a.numRows();
+        ap = a.getRowPointers().clone();
+        ai = a.getColumnIndices().clone();
+        perm = nestedDissection(n, ap, ai);
+        pinv = new int[n];
+        for (int k = 0; k < n; ++k)
+            pinv[perm[k]] = k;
+        parent = new int[n];
+        lnz = new int[n];
+        flag = new int[n];
+        pattern = new int[n];
+        y = new double[n];
+        d = new double[n];
+        lp = new int[n + 1];
+        symbolic();
+        li = new int[lp[n]];
+        lx = new double[lp[n]];
+    }
+
+    /**
+     * Get the dimension of the decomposed matrix.
+     * @return the number of rows and columns of the matrix
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Get the number of off-diagonal entries of the factor L.
+     * This is a measure of the quality of the fill-reducing ordering.
+     * @return the number of entries in the strict lower triangle of L
+     */
+    public int factorSize() {
+        return lp[n];
+    }
+
+    /**
+     * Determine whether a matrix shares the analysed sparsity pattern.
+     * @param a a matrix in compressed row storage
+     * @return whether this object can factor the matrix
+     */
+    public boolean hasPattern(CompRowMatrix a) {
+        int[] rowPtr = a.getRowPointers(), colIdx = a.getColumnIndices();
+        return a.numRows() == n && a.numColumns() == n &&
+            Arrays.equals(ap, rowPtr) && Arrays.equals(ai, colIdx);
+    }
+
+    /**
+     * Compute the elimination tree and the column counts of L.
+     */
+    private void symbolic() {
+        for (int k = 0; k < n; ++k) {
+            parent[k] = -1;
+            flag[k] = k;
+            lnz[k] = 0;
+            int kk = perm[k];
+            for (int p = ap[kk]; p < ap[kk + 1]; ++p) {
+                int i = pinv[ai[p]];
+                if (i < k) {
+                    for (; flag[i] != k; i = parent[i]) {
+                        if (parent[i] == -1)
+                            parent[i] = k;
+                        ++lnz[i];
+                        flag[i] = k;
+                    }
+                }
+            }
+        }
+        lp[0] = 0;
+        for (int k = 0; k < n; ++k)
+            lp[k + 1] = lp[k] + lnz[k];
+    }
+
+    /**
+     * Compute the numeric factorization of a matrix.
+     * The matrix must have the same sparsity pattern as the one passed
+     * to the constructor.
+     * @param a a symmetric positive definite matrix
+     * @throws IllegalArgumentException if the pattern doesn't match
+     * @throws MatrixNotSPDException if the matrix is not positive
+     *         definite
+     */
+    public void factor(CompRowMatrix a) {
+        if (!hasPattern(a))
+            throw new IllegalArgumentException("Pattern mismatch");
+        double[] ax = a.getData();
+        factored = false;
+        for (int k = 0; k < n; ++k) {
+            y[k] = 0;
+            int top = n;
+            flag[k] = k;
+            lnz[k] = 0;
+            int kk = perm[k];
+            for (int p = ap[kk]; p < ap[kk + 1]; ++p) {
+                int i = pinv[ai[p]];
+                if (i <= k) {
+                    y[i] += ax[p];
+                    int len = 0;
+                    for (; flag[i] != k; i = parent[i]) {
+                        pattern[len++] = i;
+                        flag[i] = k;
+                    }
+                    while (len > 0)
+                        pattern[--top] = pattern[--len];
+                }
+            }
+            double dk = y[k];
+            y[k] = 0;
+            for (; top < n; ++top) {
+                int i = pattern[top];
+                double yi = y[i];
+                y[i] = 0;
+                int p2 = lp[i] + lnz[i];
+                int p;
+                for (p = lp[i]; p < p2; ++p)
+                    y[li[p]] -= lx[p]*yi;
+                double lki = yi/d[i];
+                dk -= lki*yi;
+                li[p] = k;
+                lx[p] = lki;
+                ++lnz[i];
+            }
+            if (!(dk > 0))
+                throw new MatrixNotSPDException("Matrix not positive " +
+                                                "definite in column " + k);
+            d[k] = dk;
+        }
+        factored = true;
+    }
+
+    /**
+     * Solve a linear system using the most recent factorization.
+     * Both vectors must be dense. They may be the same object.
+     * @param b the right hand side
+     * @param x vector receiving the solution
+     * @return the vector <code>x</code>
+     * @throws IllegalStateException if no factorization is available
+     */
+    public Vector solve(Vector b, Vector x) {
+        if (!factored)
+            throw new IllegalStateException("Matrix not factored");
+        double[] bd = ((DenseVector)b).getData();
+        double[] xd = ((DenseVector)x).getData();
+        for (int k = 0; k < n; ++k)
+            y[k] = bd[perm[k]];
+        for (int j = 0; j < n; ++j) {
+            double yj = y[j];
+            for (int p = lp[j]; p < lp[j + 1]; ++p)
+                y[li[p]] -= lx[p]*yj;
+        }
+        for (int j = 0; j < n; ++j)
+            y[j] /= d[j];
+        for (int j = n - 1; j >= 0; --j) {
+            double yj = y[j];
+            for (int p = lp[j]; p < lp[j + 1]; ++p)
+                yj -= lx[p]*y[li[p]];
+            y[j] = yj;
+        }
+        for (int k = 0; k < n; ++k)
+            xd[perm[k]] = y[k];
+        return x;
+    }
+
+    /**
+     * Compute a nested dissection ordering of a symmetric graph.<p>
+     *
+     * The vertices of a subgraph are kept in a contiguous range of
+     * the resulting array. A breadth first search from a
+     * pseudo-peripheral vertex partitions that range into level sets.
+     * The level at which half the vertices have been visited serves
+     * as separator, and is placed at the end of the range so that it
+     * will be eliminated last. Separator vertices without neighbours
+     * on the far side are moved to the near side. The two remaining
+     * parts are then processed in the same way.
+     *
+     * @param n the number of vertices
+     * @param rowPtr the row pointers of the adjacency matrix
+     * @param colIdx the column indices of the adjacency matrix
+     * @return the elimination order of the vertices
+     */
+    static int[] nestedDissection(int n, int[] rowPtr, int[] colIdx) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; ++i)
+            order[i] = i;
+        int[] mark = new int[n];
+        int[] level = new int[n];
+        int[] queue = new int[n];
+        int[] tmp = new int[n];
+        Arrays.fill(mark, -1);
+        int stamp = 0;
+
+        // stack of ranges still to be dissected, at most two per level
+        int[] stack = new int[64];
+        int sp = 0;
+        stack[sp++] = 0;
+        stack[sp++] = n;
+        while (sp > 0) {
+            int hi = stack[--sp], lo = stack[--sp];
+            int m = hi - lo;
+            if (m <= LEAF_SIZE)
+                continue;
+            ++stamp;
+            for (int k = lo; k < hi; ++k)
+                mark[order[k]] = stamp;
+
+            // find pseudo-peripheral vertex by repeated search
+            int root = order[lo];
+            int depth = -1, reached = 0;
+            for (int round = 0; round < 4; ++round) {
+                reached = levelStructure(root, stamp, rowPtr, colIdx,
+                                         mark, level, queue);
+                int last = queue[reached - 1];
+                if (level[last] <= depth)
+                    break;
+                depth = level[last];
+                root = last;
+            }
+            reached = levelStructure(root, stamp, rowPtr, colIdx,
+                                     mark, level, queue);
+
+            // disconnected subgraph: split off the reached component
+            if (reached < m) {
+                for (int k = 0; k < reached; ++k)
+                    mark[queue[k]] = -stamp - 1;
+                int a = lo, b = 0;
+                for (int k = lo; k < hi; ++k) {
+                    int v = order[k];
+                    if (mark[v] == stamp)
+                        tmp[b++] = v;
+                    else
+                        order[a++] = v;
+                }
+                System.arraycopy(tmp, 0, order, a, b);
+                stack = grow(stack, sp + 4);
+                sp = push(stack, sp, lo, a);
+                sp = push(stack, sp, a, hi);
+                continue;
+            }
+
+            // choose separator level where half the vertices are reached
+            int sepLevel = level[queue[m/2]];
+            if (sepLevel == 0 || sepLevel == level[queue[m - 1]])
+                continue; // no useful separator, treat as leaf
+
+            // partition range into near side, far side and separator
+            int na = 0, nb = 0, ns = 0;
+            for (int k = 0; k < m; ++k) {
+                int v = queue[k], lv = level[v];
+                if (lv < sepLevel) {
+                    order[lo + na++] = v;
+                }
+                else if (lv > sepLevel) {
+                    tmp[nb++] = v;
+                }
+                else {
+                    boolean far = false;
+                    for (int p = rowPtr[v]; p < rowPtr[v + 1]; ++p) {
+                        int w = colIdx[p];
+                        if (mark[w] == stamp && level[w] > sepLevel) {
+                            far = true;
+                            break;
+                        }
+                    }
+                    if (far)
+                        queue[ns++] = v;
+                    else
+                        order[lo + na++] = v;
+                }
+            }
+            System.arraycopy(tmp, 0, order, lo + na, nb);
+            System.arraycopy(queue, 0, order, lo + na + nb, ns);
+            stack = grow(stack, sp + 4);
+            sp = push(stack, sp, lo, lo + na);
+            sp = push(stack, sp, lo + na, lo + na + nb);
+        }
+        return order;
+    }
+
+    /**
+     * Perform breadth first search within a subgraph.
+     * Vertices outside the subgraph will get level -1 assigned to
+     * them if they are encountered.
+     * @param root the start vertex
+     * @param stamp the mark identifying vertices of the subgraph
+     * @param rowPtr the row pointers of the adjacency matrix
+     * @param colIdx the column indices of the adjacency matrix
+     * @param mark the subgraph marks of all vertices
+     * @param level array receiving the level of each reached vertex
+     * @param queue array receiving the vertices in order of traversal
+     * @return the number of vertices reached
+     */
+    private static int levelStructure(int root, int stamp,
+                                      int[] rowPtr, int[] colIdx,
+                                      int[] mark, int[] level, int[] queue) {
+        int head = 0, tail = 0;
+        queue[tail++] = root;
+        level[root] = 0;
+        mark[root] = -stamp - 1; // visited in this search
+        while (head < tail) {
+            int v = queue[head++];
+            for (int p = rowPtr[v]; p < rowPtr[v + 1]; ++p) {
+                int w = colIdx[p];
+                if (mark[w] != stamp) continue;
+                mark[w] = -stamp - 1;
+                level[w] = level[v] + 1;
+                queue[tail++] = w;
+            }
+        }
+        // restore marks for the next search
+        for (int k = 0; k < tail; ++k)
+            mark[queue[k]] = stamp;
+        return tail;
+    }
+
+    /**
+     * Push a range onto the work stack.
+     * @param stack the stack array, large enough for two more elements
+     * @param sp the current stack pointer
+     * @param lo the start of the range
+     * @param hi the end of the range
+     * @return the new stack pointer
+     */
+    private static int push(int[] stack, int sp, int lo, int hi) {
+        stack[sp++] = lo;
+        stack[sp++] = hi;
+        return sp;
+    }
+
+    /**
+     * Ensure capacity of the work stack.
+     * @param stack the current stack array
+     * @param required the number of elements that must fit
+     * @return the stack array or an enlarged copy of it
+     */
+    private static int[] grow(int[] stack, int required) {
+        if (required <= stack.length)
+            return stack;
+        int[] res = new int[Math.max(required, 2*stack.length)];
+        System.arraycopy(stack, 0, res, 0, stack.length);
+        return res;
+    }
+
+}
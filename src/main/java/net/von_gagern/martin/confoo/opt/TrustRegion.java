@@ -0,0 +1,604 @@
+package net.von_gagern.martin.confoo.opt;
+
+import java.util.concurrent.CancellationException;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import org.apache.log4j.Logger;
+
+/**
+ * Trust region Newton method for Convex Optimization.<p>
+ *
+ * Instead of searching along the full Newton step, this optimizer
+ * minimizes the second order model of the functional within a region
+ * around the current argument. The model is minimized approximately
+ * using the method of conjugate gradients, which stops as soon as it
+ * leaves the region or encounters a direction of non-positive
+ * curvature, as suggested by Steihaug. The step is accepted if the
+ * actual change in value agrees well enough with the change predicted
+ * by the model. The radius of the region is adapted according to that
+ * agreement as well. A trial argument where the functional is not
+ * defined, so that its value is NaN, counts as poor agreement. So
+ * every iteration evaluates the functional at exactly one trial
+ * argument, and no linear system is solved more accurately than the
+ * size of the region warrants.<p>
+ *
+ * The results are reported using the same exit conditions as for
+ * {@link Newton}. {@link Newton.ExitCondition#DELTA DELTA} refers to
+ * the radius of the trust region, and {@link
+ * Newton.ExitCondition#ESTIMATE ESTIMATE} to the value change
+ * predicted by the model.
+ *
+ * @see <a href="http://dx.doi.org/10.1137/0720042">The Conjugate Gradient Method and Trust Regions in Large Scale Optimization by Steihaug</a>
+ *
+ * @author <a href="mailto:Martin.vGagern@gmx.net">Martin von Gagern</a>
+ * @since 1.2
+ */
+public class TrustRegion {
+
+    /**
+     * Default value to be used for all error bounds.
+     * @see #setEpsilon
+     */
+    private static final double EPSILON = 1e-14;
+
+    /**
+     * Minimal agreement between actual and predicted change required
+     * to accept a step.
+     */
+    private static final double ACCEPT = 1e-4;
+
+    /**
+     * Agreement below which the region will shrink.
+     */
+    private static final double SHRINK = 0.25;
+
+    /**
+     * Agreement above which the region may grow.
+     */
+    private static final double GROW = 0.75;
+
+    /**
+     * Predicted changes below this proportion of the function value
+     * are dominated by rounding errors, so their steps are accepted
+     * without comparing actual and predicted change, even if the
+     * value appears to increase.
+     */
+    private static final double ROUNDING = 1e-12;
+
+    /**
+     * Lower bound for the relative tolerance of the linear solver.
+     */
+    private static final double ETA_MIN = 1e-10;
+
+    /**
+     * Log4j logger for customizable logging and reporting.
+     */
+    private final Logger logger = Logger.getLogger(TrustRegion.class);
+
+    /**
+     * The functional to optimize.
+     */
+    private final Functional f;
+
+    /**
+     * The starting point for the optimization.
+     */
+    private Vector startingPoint;
+
+    /**
+     * The radius of the trust region in the first iteration.
+     * @see #setRadius
+     */
+    private double initialRadius = 1;
+
+    /**
+     * The maximal radius of the trust region.
+     * @see #setRadius
+     */
+    private double maxRadius = 1e3;
+
+    /**
+     * Whether to work with hessian-vector products only.
+     * @see #setMatrixFree
+     */
+    private boolean matrixFree = false;
+
+    /**
+     * The hessian represented by its products, for matrix-free mode.
+     */
+    private HessianProduct product;
+
+    /**
+     * The norm used to evaluate the residual gradient value.
+     * @see #setNorm
+     * @see Newton.ExitCondition#GRADIENT
+     */
+    private Vector.Norm gradNorm = Vector.Norm.Two;
+
+    /**
+     * The boundary on gradient value below which optimization
+     * terminates.
+     * @see #setEpsilon
+     * @see Newton.ExitCondition#GRADIENT
+     */
+    private double gradEpsilon = EPSILON;
+
+    /**
+     * The boundary on the predicted value change below which
+     * optimization terminates.
+     * @see #setEpsilon
+     * @see Newton.ExitCondition#ESTIMATE
+     */
+    private double estimateEpsilon = EPSILON;
+
+    /**
+     * The boundary on the trust region radius below which
+     * optimization terminates.
+     * @see #setEpsilon
+     * @see Newton.ExitCondition#DELTA
+     */
+    private double deltaEpsilon = EPSILON;
+
+    /**
+     * The maximum number of iterations to perform.
+     * @see #setMaxIterations
+     * @see Newton.ExitCondition#ITERATIONS
+     */
+    private int maxIterations = Integer.MAX_VALUE;
+
+    /**
+     * The listener to be informed about every iteration.
+     * @see #setIterationListener
+     */
+    private IterationListener listener;
+
+    /**
+     * The time by which an optimization has to be finished,
+     * or zero if there is no such limit.
+     * @see #setDeadline
+     */
+    private long deadline = 0;
+
+    /**
+     * The condition that caused the last optimization to terminate.
+     */
+    private Newton.ExitCondition exitCondition;
+
+    /**
+     * The residual error from the most recent optimization.
+     */
+    private double exitError;
+
+    /**
+     * The final argument that resulted in the approximately optimal
+     * solution of the most recent optimization.
+     */
+    private Vector argmin;
+
+    /**
+     * The total number of linear solver iterations performed during
+     * the most recent optimization.
+     */
+    private int linearIterations;
+
+    /**
+     * The number of trial steps rejected during the most recent
+     * optimization.
+     */
+    private int rejectedSteps;
+
+    /**
+     * Construct new optimizer for given functional.
+     * @param f the functional to be optimized
+     * @see #getInstance
+     */
+    private TrustRegion(Functional f) {
+        this.f = f;
+    }
+
+    /**
+     * Construct new optimizer for given functional.
+     * @param f the functional to be optimized
+     * @return an optimizer for the given functional
+     */
+    public static TrustRegion getInstance(Functional f) {
+        return new TrustRegion(f);
+    }
+
+    /**
+     * Find approximatively optimal solution.<p>
+     *
+     * When this method terminates, the most recent call to
+     * <code>setArgument</code> for the underlying functional will
+     * have been for the found optimum.
+     *
+     * @throws CancellationException if the thread gets interrupted or
+     *         the deadline passes
+     * @see Functional#setArgument(Vector)
+     * @see #setDeadline
+     */
+    public void optimize() {
+        int size = f.getInputDimension();
+        Vector x = new DenseVector(size);
+        Vector x2 = new DenseVector(size);
+        Vector step = new DenseVector(size);
+        Vector hStep = new DenseVector(size);
+        Vector r = new DenseVector(size);
+        Vector d = new DenseVector(size);
+        Vector hd = new DenseVector(size);
+        Vector g = null;
+        Matrix h = null;
+
+        // initialization
+        setExitCondition(null, Double.NaN);
+        linearIterations = 0;
+        rejectedSteps = 0;
+        if (startingPoint != null)
+            x.set(startingPoint);
+        double radius = initialRadius;
+
+        logger.debug("Starting optimization");
+        f.setArgument(x);                             // working on f(x) now
+        double v = f.value();                         // v = f(x)
+        boolean moved = true;
+        double gradNormValue = Double.NaN;
+        for (int i = 1; i <= maxIterations; ++i) {
+            Newton.checkCancelled(deadline);
+            logger.debug("Iteration " + i);
+            if (moved) {
+                g = f.gradient(g);                    // g = grad f(x)
+                gradNormValue = g.norm(gradNorm);
+                logger.debug("Gradient norm: " + gradNormValue);
+                if (gradNormValue <= gradEpsilon) {
+                    setExitCondition(Newton.ExitCondition.GRADIENT,
+                                     gradNormValue);
+                    argmin = x;
+                    return;
+                }
+                if (matrixFree) {
+                    if (product == null)
+                        product = new HessianProduct(f);
+                    h = product;                      // h = Hess f(x)
+                }
+                else {
+                    h = f.hessian(h);                 // h = Hess f(x)
+                }
+            }
+            logger.debug("Radius: " + radius);
+            if (radius <= deltaEpsilon) {
+                setExitCondition(Newton.ExitCondition.DELTA, radius);
+                argmin = x;
+                return;
+            }
+
+            // minimize model within region
+            int solverIterations = linearIterations;
+            boolean boundary = steihaug(h, g, radius, step, r, d, hd);
+            h.mult(step, hStep);
+            double predicted = g.dot(step) + step.dot(hStep)/2;
+            logger.debug("Predicted change: " + predicted);
+            if (-predicted <= estimateEpsilon) {
+                setExitCondition(Newton.ExitCondition.ESTIMATE, -predicted);
+                argmin = x;
+                return;
+            }
+
+            // compare with actual change
+            x2.set(x).add(step);                      // x2 = x + step
+            f.setArgument(x2);
+            double change = f.valueChange();
+            double rho = change/predicted;
+            if (-predicted < ROUNDING*Math.abs(v) && !Double.isNaN(rho))
+                rho = 1;
+            logger.debug("Actual change: " + change + ", rho: " + rho);
+            double stepNorm = step.norm(Vector.Norm.Two);
+            if (!(rho >= SHRINK))                     // including NaN
+                radius = SHRINK*stepNorm;
+            else if (rho > GROW && boundary)
+                radius = Math.min(2*radius, maxRadius);
+            moved = rho > ACCEPT;
+            if (moved) {
+                Vector x1 = x2;                       // swap x and x2
+                x2 = x;
+                x = x1;
+                v = f.value();
+            }
+            else {
+                ++rejectedSteps;
+                f.setArgument(x);
+            }
+            if (listener != null)
+                listener.iteration(i, gradNormValue, -2*predicted,
+                                   moved ? 1 : 0,
+                                   linearIterations - solverIterations);
+        }
+        setExitCondition(Newton.ExitCondition.ITERATIONS, maxIterations);
+        argmin = x;
+    }
+
+    /**
+     * Approximately minimize the second order model within the region.
+     * This is the method of conjugate gradients for the system
+     * <code>h*step = -g</code>, starting at zero, which stops at the
+     * boundary of the region or in a direction of non-positive
+     * curvature. The tolerance relative to the gradient norm
+     * decreases with the gradient norm, so that close to the optimum
+     * the steps approach exact Newton steps.
+     * @param h the hessian
+     * @param g the gradient
+     * @param radius the radius of the trust region
+     * @param step vector receiving the step
+     * @param r scratch space for the residual
+     * @param d scratch space for the search direction
+     * @param hd scratch space for the hessian times the direction
+     * @return whether the step ends on the boundary of the region
+     */
+    private boolean steihaug(Matrix h, Vector g, double radius,
+                             Vector step, Vector r, Vector d, Vector hd) {
+        step.zero();
+        r.set(g);
+        d.set(-1, g);
+        double rr = r.dot(r);
+        double gNorm = Math.sqrt(rr);
+        double eta = Math.max(Math.min(0.5, Math.sqrt(gNorm)), ETA_MIN);
+        double tolerance = eta*gNorm;
+        int size = g.size();
+        for (int j = 0; j < size; ++j) {
+            Newton.checkCancelled(deadline);
+            ++linearIterations;
+            h.mult(d, hd);
+            double dhd = d.dot(hd);
+            if (dhd <= 0) {
+                logger.debug("Non-positive curvature: " + dhd);
+                toBoundary(step, d, radius);
+                return true;
+            }
+            double alpha = rr/dhd;
+            double stepNorm = Math.sqrt(step.dot(step) +
+                                        2*alpha*step.dot(d) +
+                                        alpha*alpha*d.dot(d));
+            if (stepNorm >= radius) {
+                toBoundary(step, d, radius);
+                return true;
+            }
+            step.add(alpha, d);
+            r.add(alpha, hd);
+            double rr2 = r.dot(r);
+            if (Math.sqrt(rr2) <= tolerance)
+                return false;
+            d.scale(rr2/rr).add(-1, r);
+            rr = rr2;
+        }
+        return false;
+    }
+
+    /**
+     * Extend a step along a direction up to the region boundary.
+     * @param step the step inside the region, which will be modified
+     * @param d the direction in which to extend the step
+     * @param radius the radius of the trust region
+     */
+    private static void toBoundary(Vector step, Vector d, double radius) {
+        double dd = d.dot(d), sd = step.dot(d), ss = step.dot(step);
+        double tau = (-sd + Math.sqrt(sd*sd + dd*(radius*radius - ss)))/dd;
+        step.add(tau, d);
+    }
+
+    /**
+     * Internal helper method to register exit condition.
+     * @param condition the condition that caused the optimization to
+     *                  terminate
+     * @param error the residual error when the optimization terminated
+     */
+    private void setExitCondition(Newton.ExitCondition condition,
+                                  double error) {
+        logger.info("Condition: " + condition +", error: " + error +
+                    ", linear solver iterations: " + linearIterations +
+                    ", rejected steps: " + rejectedSteps);
+        exitCondition = condition;
+        exitError = error;
+    }
+
+    /**
+     * Get cause for the termination of the most recent optimization.
+     * @return enum value representing the cause of termination
+     */
+    public Newton.ExitCondition getExitCondition() {
+        return exitCondition;
+    }
+
+    /**
+     * Get residual error for exit condition.
+     * @return residual error as specified for {@link Newton#getExitError}
+     * @see #getExitCondition()
+     */
+    public double getExitError() {
+        return exitError;
+    }
+
+    /**
+     * Get number of linear solver iterations.
+     * This is the total over all iterations of the most recent
+     * optimization.
+     * @return the number of conjugate gradient iterations
+     */
+    public int getLinearIterations() {
+        return linearIterations;
+    }
+
+    /**
+     * Get number of rejected trial steps.
+     * Each of these cost an evaluation of the functional without
+     * making any progress.
+     * @return the number of rejected steps of the most recent
+     *         optimization
+     */
+    public int getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    /**
+     * Get position of critical point.
+     * @return the argument that lead to the found solution
+     */
+    public Vector getArgMin() {
+        return argmin;
+    }
+
+    /**
+     * Set the starting point for the optimization.
+     * By default the optimization starts at the origin.
+     * @param x the starting point, or <code>null</code> for the origin
+     * @throws IllegalArgumentException if the dimension of the vector
+     *         does not match the functional
+     * @see Newton#setStartingPoint
+     */
+    public void setStartingPoint(Vector x) {
+        if (x != null && x.size() != f.getInputDimension())
+            throw new IllegalArgumentException("Starting point has " +
+                                               "wrong dimension");
+        startingPoint = x;
+    }
+
+    /**
+     * Get the starting point for the optimization.
+     * @return the starting point, or <code>null</code> for the origin
+     */
+    public Vector getStartingPoint() {
+        return startingPoint;
+    }
+
+    /**
+     * Set the radius of the trust region.
+     * The radius is measured using the euclidean norm in input space.
+     * The defaults are 1 and 1000.
+     * @param initial the radius in the first iteration
+     * @param max the maximal radius
+     * @throws IllegalArgumentException unless
+     *         0 &lt; initial &lt;= max
+     */
+    public void setRadius(double initial, double max) {
+        if (initial <= 0 || initial > max)
+            throw new IllegalArgumentException("0 < initial <= max");
+        initialRadius = initial;
+        maxRadius = max;
+    }
+
+    /**
+     * Set error bound for given termination condition.
+     * @param cond one of <code>GRADIENT</code>, <code>DELTA</code> or
+     * <code>ESTIMATE</code>
+     * @param epsilon the new bound to be set
+     * @throws IllegalArgumentException for other conditions
+     */
+    public void setEpsilon(Newton.ExitCondition cond, double epsilon) {
+        if (epsilon < 0)
+            throw new IllegalArgumentException("Epsilon may not be negative");
+        switch(cond) {
+        case GRADIENT:
+            gradEpsilon = epsilon;
+            break;
+        case DELTA:
+            deltaEpsilon = epsilon;
+            break;
+        case ESTIMATE:
+            estimateEpsilon = epsilon;
+            break;
+        default:
+            throw new IllegalArgumentException("Exit condition " + cond +
+                " has no associated epsilon bound");
+        }
+    }
+
+    /**
+     * Set the norm used to compare the gradient with its error bound.
+     * @param cond must be <code>GRADIENT</code>
+     * @param norm the norm to evaluate for the gradient
+     * @see #setEpsilon
+     */
+    public void setNorm(Newton.ExitCondition cond, Vector.Norm norm) {
+        if (norm == null)
+            throw new NullPointerException("norm must not be null");
+        if (cond != Newton.ExitCondition.GRADIENT)
+            throw new IllegalArgumentException("Exit condition " + cond +
+                " has no associated norm");
+        gradNorm = norm;
+    }
+
+    /**
+     * Set maximum number of iterations.
+     * Iterations with rejected steps count as well.
+     * @param max the new maximum number of iterations
+     * @see Newton.ExitCondition#ITERATIONS
+     */
+    public void setMaxIterations(int max) {
+        if (max < 1)
+            throw new IllegalArgumentException("max must be at least 1");
+        maxIterations = max;
+    }
+
+    /**
+     * Set the listener to be informed about every iteration.
+     * Rejected steps are reported as iterations with a step size of
+     * zero. Instead of the squared Newton decrement, the listener
+     * receives twice the value decrease predicted by the model, which
+     * is the same for steps inside the region.
+     * @param listener the listener, or <code>null</code> for none
+     * @see IterationListener
+     */
+    public void setIterationListener(IterationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the listener informed about every iteration.
+     * @return the listener, or <code>null</code> if there is none
+     * @see #setIterationListener
+     */
+    public IterationListener getIterationListener() {
+        return listener;
+    }
+
+    /**
+     * Set a wall-clock time limit for optimizations.
+     * The time and the interrupted status of the thread are checked
+     * before every iteration and during every iteration of the
+     * conjugate gradient method, as described for {@link
+     * Newton#setDeadline}.
+     * @param deadline the time in milliseconds as returned by {@link
+     *        System#currentTimeMillis}, or zero for no time limit
+     * @see #optimize
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Get the wall-clock time limit for optimizations.
+     * @return the time in milliseconds, or zero if there is no limit
+     * @see #setDeadline
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Choose whether to avoid assembling the hessian.
+     * @param matrixFree <code>true</code> to avoid the hessian matrix
+     * @see Newton#setMatrixFree
+     */
+    public void setMatrixFree(boolean matrixFree) {
+        this.matrixFree = matrixFree;
+    }
+
+    /**
+     * Determine whether the hessian is assembled.
+     * @return <code>true</code> if only hessian products are used
+     * @see #setMatrixFree
+     */
+    public boolean isMatrixFree() {
+        return matrixFree;
+    }
+
+}
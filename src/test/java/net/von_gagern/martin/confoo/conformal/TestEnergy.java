@@ -2,14 +2,26 @@ package net.von_gagern.martin.confoo.conformal;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.LowerSPDPackMatrix;
+import no.uib.cipr.matrix.Matrix;
 import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.IterativeSolverNotConvergedException;
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import static org.junit.Assume.*;
 
+import net.von_gagern.martin.confoo.mesh.GeneratedMesh;
 import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.mesh.MeshGenerator;
 import net.von_gagern.martin.confoo.mesh.ObjFormat;
+import net.von_gagern.martin.confoo.opt.AllocationCounter;
+import net.von_gagern.martin.confoo.opt.Functional;
+import net.von_gagern.martin.confoo.opt.Newton;
 
 public class TestEnergy extends AbstractTestCase {
 
@@ -43,6 +55,7 @@ public class TestEnergy extends AbstractTestCase {
         InternalMesh<Integer> mesh = oneRightIsoscelesToEquilateral();
         Energy e = new Energy(mesh);
         e.setArgument(new DenseVector(2));
+        e.updateMesh();
         int seenAngle = 0;
         double[] angles = { 90, 45, 45 };
         for (Angle a: mesh.getAngles()) {
@@ -76,5 +89,274 @@ public class TestEnergy extends AbstractTestCase {
                      angleTolerance);
     }
 
+    private InternalMesh<Integer> test1Square()
+        throws IOException, MeshException
+    {
+        ObjFormat obj = objResource("test1.obj");
+        InternalMesh<Integer> mesh = new InternalMesh<Integer>(obj);
+        for (Edge e: mesh.getEdges()) e.initLamdas(2*Math.log(e.origLength));
+        new FixedBoundaryCurvature<Integer>(angleMap(90., 90., 90., 90.),
+                                            mesh.getVertexMap())
+            .setTargets(mesh, Geometry.EUCLIDEAN);
+        return mesh;
+    }
+
+    private InternalMesh<Integer> gridSquare(int n) throws MeshException {
+        GeneratedMesh grid = MeshGenerator.perturbedGrid(n, 0.4, 42);
+        InternalMesh<Integer> mesh = new InternalMesh<Integer>(grid);
+        for (Edge e: mesh.getEdges()) e.initLamdas(2*Math.log(e.origLength));
+        new FixedBoundaryCurvature<Integer>(grid.corners(Math.PI/2),
+                                            mesh.getVertexMap())
+            .setTargets(mesh, Geometry.EUCLIDEAN);
+        return mesh;
+    }
+
+    private void assertSparseHessian(Energy e) {
+        int n = e.getInputDimension();
+        Vector u = new DenseVector(n);
+        for (int i = 0; i < n; ++i)
+            u.set(i, 0.1*Math.sin(i));
+        e.setArgument(u);
+        Matrix dense = e.hessian(new LowerSPDPackMatrix(n));
+        Matrix sparse = e.hessian(null);
+        assertNotSame(dense, sparse);
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int i = 0; i < n; ++i)
+                for (int j = 0; j < n; ++j)
+                    assertEquals("H(" + i + ", " + j + ")",
+                                 dense.get(i, j), sparse.get(i, j), 1e-15);
+            assertSame(sparse, e.hessian(sparse));
+        }
+    }
+
+    @Test public void testSparseHessian() throws IOException, MeshException {
+        assertSparseHessian(new Energy(test1Square()));
+    }
+
+    @Test public void testSparseHypHessian()
+        throws IOException, MeshException
+    {
+        assertSparseHessian(new HypEnergy(test1Square()));
+    }
+
+    private void assertHessianTimes(Energy e) {
+        int n = e.getInputDimension();
+        Vector u = new DenseVector(n), x = new DenseVector(n);
+        for (int i = 0; i < n; ++i) {
+            u.set(i, 0.1*Math.sin(i));
+            x.set(i, Math.cos(i));
+        }
+        e.setArgument(u);
+        Vector expected = e.hessian(null).mult(x, new DenseVector(n));
+        Vector actual = e.hessianTimes(x, null);
+        for (int i = 0; i < n; ++i)
+            assertEquals("Hx(" + i + ")", expected.get(i), actual.get(i),
+                         1e-14);
+        e.setArgument(u.scale(2));
+        expected = e.hessian(null).mult(x, expected);
+        assertSame(actual, e.hessianTimes(x, actual));
+        for (int i = 0; i < n; ++i)
+            assertEquals("Hx(" + i + ")", expected.get(i), actual.get(i),
+                         1e-14);
+    }
+
+    @Test public void testHessianTimes() throws IOException, MeshException {
+        assertHessianTimes(new Energy(test1Square()));
+    }
+
+    @Test public void testHypHessianTimes()
+        throws IOException, MeshException
+    {
+        assertHessianTimes(new HypEnergy(test1Square()));
+    }
+
+    private void assertEvaluate(Energy separate, Energy fused,
+                                int chunks) {
+        int n = separate.getInputDimension();
+        Vector u = new DenseVector(n);
+        for (int i = 0; i < n; ++i)
+            u.set(i, 0.1*Math.sin(i));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            fused.setExecutor(executor, chunks);
+            separate.setArgument(u);
+            fused.setArgument(u);
+            Matrix h = fused.hessian(null);
+            Vector g = new DenseVector(n);
+            for (int pass = 0; pass < 2; ++pass) {
+                double v = fused.evaluate(Functional.VALUE |
+                                          Functional.GRADIENT |
+                                          Functional.HESSIAN, g, h);
+                assertEquals(separate.value(), v, 1e-14);
+                Vector gs = separate.gradient(null);
+                Matrix hs = separate.hessian(null);
+                for (int i = 0; i < n; ++i) {
+                    assertEquals("g(" + i + ")", gs.get(i), g.get(i), 1e-15);
+                    for (int j = 0; j < n; ++j)
+                        assertEquals("H(" + i + ", " + j + ")",
+                                     hs.get(i, j), h.get(i, j), 1e-15);
+                }
+                u.scale(0.5);
+                separate.setArgument(u);
+                fused.setArgument(u);
+                assertEquals(separate.valueChange(), fused.valueChange(),
+                             1e-14);
+            }
+            assertTrue(Double.isNaN(fused.evaluate(Functional.GRADIENT,
+                                                   g, null)));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test public void testEvaluate() throws IOException, MeshException {
+        assertEvaluate(new Energy(test1Square()), new Energy(test1Square()),
+                       1);
+        assertEvaluate(new Energy(test1Square()), new Energy(test1Square()),
+                       3);
+    }
+
+    @Test public void testEvaluateBlocks() throws MeshException {
+        InternalMesh<Integer> mesh = gridSquare(30);
+        assertTrue(mesh.getAngles().size() > 3*Energy.BLOCK);
+        assertEvaluate(new Energy(mesh), new Energy(gridSquare(30)), 1);
+        assertEvaluate(new Energy(mesh), new Energy(gridSquare(30)), 3);
+    }
+
+    @Test public void testHypEvaluate() throws IOException, MeshException {
+        assertEvaluate(new HypEnergy(test1Square()),
+                       new HypEnergy(test1Square()), 1);
+        assertEvaluate(new HypEnergy(test1Square()),
+                       new HypEnergy(test1Square()), 3);
+    }
+
+    private void assertParallel(Energy serial, Energy parallel) {
+        int n = serial.getInputDimension();
+        Vector u = new DenseVector(n);
+        for (int i = 0; i < n; ++i)
+            u.set(i, 0.1*Math.sin(i));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            parallel.setExecutor(executor, 3);
+            serial.setArgument(u);
+            parallel.setArgument(u);
+            assertEquals(serial.value(), parallel.value(), 1e-14);
+            Vector gs = serial.gradient(null), gp = parallel.gradient(null);
+            for (int i = 0; i < n; ++i)
+                assertEquals("g(" + i + ")", gs.get(i), gp.get(i), 1e-15);
+            u.scale(0.5);
+            serial.setArgument(u);
+            parallel.setArgument(u);
+            assertEquals(serial.valueChange(), parallel.valueChange(), 1e-14);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test public void testParallel() throws IOException, MeshException {
+        assertParallel(new Energy(test1Square()), new Energy(test1Square()));
+    }
+
+    @Test public void testParallelHyp() throws IOException, MeshException {
+        assertParallel(new HypEnergy(test1Square()),
+                       new HypEnergy(test1Square()));
+    }
+
+    private long allocatedBytes(AllocationCounter counter, Energy e,
+                                Vector u, Vector g, Matrix h, int passes) {
+        long before = counter.get();
+        for (int pass = 0; pass < passes; ++pass) {
+            e.setArgument(u);
+            e.evaluate(Functional.VALUE | Functional.GRADIENT |
+                       Functional.HESSIAN, g, h);
+            e.hessianTimes(u, g);
+            e.valueChange();
+        }
+        return counter.get() - before;
+    }
+
+    @Test public void testAllocation() throws MeshException {
+        AllocationCounter counter = AllocationCounter.getInstance();
+        assumeTrue(counter != null);
+        Energy e = new Energy(gridSquare(20));
+        int n = e.getInputDimension();
+        Vector u = new DenseVector(n), g = new DenseVector(n);
+        for (int i = 0; i < n; ++i)
+            u.set(i, 0.1*Math.sin(i));
+        e.setArgument(u);
+        Matrix h = e.hessian(null);
+        Logger confoo = Logger.getLogger("net.von_gagern.martin.confoo");
+        Level level = confoo.getLevel();
+        confoo.setLevel(Level.WARN);
+        try {
+            allocatedBytes(counter, e, u, g, h, 100);
+            long few = Long.MAX_VALUE, many = Long.MAX_VALUE;
+            for (int pass = 0; pass < 5; ++pass) {
+                few = Math.min(few, allocatedBytes(counter, e, u, g, h, 1));
+                many = Math.min(many, allocatedBytes(counter, e, u, g, h, 3));
+            }
+            assertEquals("Bytes allocated by two more evaluations",
+                         few, many);
+        }
+        finally {
+            confoo.setLevel(level);
+        }
+    }
+
+    private long allocatedBytes(AllocationCounter counter, Newton newton,
+                                int iterations)
+        throws IterativeSolverNotConvergedException
+    {
+        newton.setMaxIterations(iterations);
+        long before = counter.get();
+        newton.optimize();
+        long after = counter.get();
+        assertEquals(Newton.ExitCondition.ITERATIONS,
+                     newton.getExitCondition());
+        return after - before;
+    }
+
+    @Test public void testNewtonAllocation() throws Exception {
+        AllocationCounter counter = AllocationCounter.getInstance();
+        assumeTrue(counter != null);
+        GeneratedMesh grid = MeshGenerator.grid(20);
+        InternalMesh<Integer> mesh = new InternalMesh<Integer>(grid);
+        for (Edge e: mesh.getEdges()) e.initLamdas(2*Math.log(e.origLength));
+        // Alternate corners of 60 and 120 degrees, so the grid must change
+        Map<Integer, Double> corners = grid.corners(Math.PI/2);
+        double angle = Math.PI/3;
+        for (Map.Entry<Integer, Double> corner: corners.entrySet()) {
+            corner.setValue(angle);
+            angle = Math.PI - angle;
+        }
+        new FixedBoundaryCurvature<Integer>(corners, mesh.getVertexMap())
+            .setTargets(mesh, Geometry.EUCLIDEAN);
+        Energy e = new Energy(mesh);
+        e.setExecutor(null, 1);
+        Newton newton = Newton.getInstance(e);
+        newton.setFusedEvaluation(true);
+        newton.setEpsilon(Newton.ExitCondition.GRADIENT, 0);
+        newton.setEpsilon(Newton.ExitCondition.ESTIMATE, 0);
+        newton.setEpsilon(Newton.ExitCondition.DELTA, 0);
+        Logger confoo = Logger.getLogger("net.von_gagern.martin.confoo");
+        Level level = confoo.getLevel();
+        confoo.setLevel(Level.WARN);
+        try {
+            for (int pass = 0; pass < 20; ++pass)
+                allocatedBytes(counter, newton, 3);
+            long few = Long.MAX_VALUE, many = Long.MAX_VALUE;
+            for (int pass = 0; pass < 5; ++pass) {
+                few = Math.min(few, allocatedBytes(counter, newton, 1));
+                many = Math.min(many, allocatedBytes(counter, newton, 3));
+            }
+            assertEquals("Bytes allocated by two more iterations",
+                         few, many);
+        }
+        finally {
+            confoo.setLevel(level);
+        }
+    }
 
 }
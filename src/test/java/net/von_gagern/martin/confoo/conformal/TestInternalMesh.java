@@ -1,10 +1,13 @@
 package net.von_gagern.martin.confoo.conformal;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import net.von_gagern.martin.confoo.mesh.CorneredTriangle;
+import net.von_gagern.martin.confoo.mesh.IndexedMesh;
 import net.von_gagern.martin.confoo.mesh.MeshException;
 import net.von_gagern.martin.confoo.mesh.ObjFormat;
 
@@ -50,4 +53,108 @@ public class TestInternalMesh extends AbstractTestCase {
         }
     }
 
+    private IndexedMesh indexed(ObjFormat obj, final double[] lengths) {
+        final double[] coords = new double[3*obj.getVertexCount()];
+        for (int v = 0; v < obj.getVertexCount(); ++v) {
+            coords[3*v] = obj.getX(v + 1);
+            coords[3*v + 1] = obj.getY(v + 1);
+            coords[3*v + 2] = obj.getZ(v + 1);
+        }
+        final int[] triangles = new int[3*obj.getFaceCount()];
+        int k = 0;
+        for (CorneredTriangle<Integer> t: obj)
+            for (int i = 0; i < 3; ++i)
+                triangles[k++] = t.getCorner(i) - 1;
+        return new IndexedMesh() {
+            public int getVertexCount() { return coords.length/3; }
+            public int[] getTriangles() { return triangles; }
+            public double[] getCoordinates() { return coords; }
+            public double[] getEdgeLengths() { return lengths; }
+        };
+    }
+
+    @Test public void testIndexed() throws IOException, MeshException {
+        ObjFormat obj = objResource("test1.obj");
+        InternalMesh<Integer> expected = new InternalMesh<Integer>(obj);
+        InternalMesh<Integer> actual =
+            new InternalMesh<Integer>(indexed(obj, null));
+        assertEquals("Edge count", 16, actual.getEdges().size());
+        Map<Integer, Vertex> evm = expected.getVertexMap();
+        Map<Integer, Vertex> avm = actual.getVertexMap();
+        assertEquals(9, avm.size());
+        assertNull(avm.get(9));
+        for (int i = 1; i <= 9; ++i) {
+            assertEquals("Vertex " + i, evm.get(i).kind, avm.get(i - 1).kind);
+            for (int j = 1; j <= 9; ++j) {
+                Edge e = expected.getEdge(evm.get(i), evm.get(j));
+                Edge a = actual.getEdge(avm.get(i - 1), avm.get(j - 1));
+                assertEquals(e == null, a == null);
+                if (e != null)
+                    assertEquals(e.origLength, a.origLength, 1e-15);
+            }
+        }
+
+        double[] lengths = new double[3*obj.getFaceCount()];
+        Arrays.fill(lengths, 1.);
+        actual = new InternalMesh<Integer>(indexed(obj, lengths));
+        for (Edge e: actual.getEdges())
+            assertEquals(1., e.origLength, 0.);
+        try {
+            new InternalMesh<Integer>(indexed(obj, new double[5]));
+            fail("Accepted wrong number of edge lengths");
+        }
+        catch (MeshException e) {
+            // expected
+        }
+    }
+
+    @Test public void testFan() throws MeshException {
+        // closed fan of n triangles around vertex 0
+        final int n = 50000;
+        final double[] coords = new double[3*(n + 1)];
+        final int[] triangles = new int[3*n];
+        for (int i = 0; i < n; ++i) {
+            coords[3*i + 3] = Math.cos(2*Math.PI*i/n);
+            coords[3*i + 4] = Math.sin(2*Math.PI*i/n);
+            triangles[3*i] = 0;
+            triangles[3*i + 1] = i + 1;
+            triangles[3*i + 2] = (i + 1)%n + 1;
+        }
+        InternalMesh<Integer> mesh =
+            new InternalMesh<Integer>(new IndexedMesh() {
+                public int getVertexCount() { return n + 1; }
+                public int[] getTriangles() { return triangles; }
+                public double[] getCoordinates() { return coords; }
+                public double[] getEdgeLengths() { return null; }
+            });
+        assertEquals("Edge count", 2*n, mesh.getEdges().size());
+        Map<Integer, Vertex> vm = mesh.getVertexMap();
+        Vertex pole = vm.get(0);
+        assertEquals(Vertex.Kind.INTERIOR, pole.kind);
+        for (int i = 1; i <= n; ++i) {
+            assertEquals("Vertex " + i, Vertex.Kind.BOUNDARY, vm.get(i).kind);
+            Edge spoke = mesh.getEdge(pole, vm.get(i));
+            assertFalse("Spoke " + i, spoke.isBoundary());
+            assertEquals("Spoke " + i, 1., spoke.origLength, 1e-12);
+            Edge rim = mesh.getEdge(vm.get(i), vm.get(i%n + 1));
+            assertTrue("Rim " + i, rim.isBoundary());
+        }
+        assertNull(mesh.getEdge(vm.get(1), vm.get(3)));
+    }
+
+    @Test public void testIndexedConformal() throws IOException,
+                                                    MeshException {
+        ObjFormat obj = objResource("test1.obj");
+        Conformal<Integer> c = Conformal.getInstance(obj);
+        c.isometricBoundaryCondition();
+        ResultMesh<Integer> expected = c.transform();
+        c = Conformal.getInstance(indexed(obj, null));
+        c.isometricBoundaryCondition();
+        ResultMesh<Integer> actual = c.transform();
+        for (int v = 0; v < 9; ++v) {
+            assertEquals(expected.getX(v + 1), actual.getX(v), 1e-12);
+            assertEquals(expected.getY(v + 1), actual.getY(v), 1e-12);
+        }
+    }
+
 }
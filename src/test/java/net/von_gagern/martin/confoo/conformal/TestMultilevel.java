@@ -0,0 +1,131 @@
+package net.von_gagern.martin.confoo.conformal;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import net.von_gagern.martin.confoo.mesh.GeneratedMesh;
+import net.von_gagern.martin.confoo.mesh.IndexedMesh;
+import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.mesh.MeshGenerator;
+
+public class TestMultilevel {
+
+    @Test public void testHierarchy() throws MeshException {
+        GeneratedMesh grid = MeshGenerator.perturbedGrid(12, 0.4, 42);
+        Conformal<Integer> c = Conformal.getInstance(grid);
+        Map<Integer, Double> corners = grid.corners(Math.PI/2);
+        c.fixedBoundaryCurvature(corners);
+        c.transform();
+        InternalMesh<Integer> mesh = c.getInternalMesh();
+        Multilevel ml = new Multilevel(mesh, 20);
+        assertTrue("Levels", ml.getLevelCount() > 2);
+        int boundary = 0;
+        for (Vertex v: mesh.getVertices())
+            if (v.kind != Vertex.Kind.INTERIOR)
+                ++boundary;
+        int nv = grid.getVertexCount();
+        for (int i = 1; i < ml.getLevelCount(); ++i) {
+            IndexedMesh level = ml.getLevel(i);
+            assertTrue("Coarsening", level.getVertexCount() < nv);
+            nv = level.getVertexCount();
+            InternalMesh<Integer> im = new InternalMesh<Integer>(level);
+            int[] ts = level.getTriangles();
+            Set<Long> edges = new HashSet<Long>();
+            for (int k = 0; k < ts.length; ++k) {
+                int a = ts[k], b = ts[k - k%3 + (k + 1)%3];
+                edges.add((long)Math.min(a, b)*nv + Math.max(a, b));
+            }
+            assertEquals("Euler characteristic",
+                         1, nv - edges.size() + ts.length/3);
+            int b = 0;
+            for (Vertex v: im.getVertices())
+                if (v.kind != Vertex.Kind.INTERIOR)
+                    ++b;
+            assertEquals("Boundary vertices", boundary, b);
+        }
+        assertTriangleInequality(ml);
+    }
+
+    private void assertTriangleInequality(Multilevel ml) {
+        for (int i = 1; i < ml.getLevelCount(); ++i) {
+            double[] lengths = ml.getLevel(i).getEdgeLengths();
+            for (int k = 0; k < lengths.length; k += 3) {
+                double l0 = lengths[k];
+                double l1 = lengths[k + 1];
+                double l2 = lengths[k + 2];
+                assertTrue("Triangle inequality",
+                           l0 < l1 + l2 && l1 < l2 + l0 && l2 < l0 + l1);
+            }
+        }
+    }
+
+    private static class IterationCounter
+        implements Conformal.ProgressListener
+    {
+
+        boolean fine = false;
+
+        int iterations = 0;
+
+        public void phase(Conformal.Phase phase) {
+            fine = phase == Conformal.Phase.OPTIMIZATION;
+        }
+
+        public void iteration(int iteration, double gradientNorm,
+                              double lamdaSq, double step,
+                              int linearIterations) {
+            if (fine)
+                ++iterations;
+        }
+
+    }
+
+    @Test public void testCurved() throws MeshException {
+        GeneratedMesh sphere = MeshGenerator.cutSphere(14, 2);
+        Map<Integer, Double> corners = sphere.corners(Math.PI/2);
+        Conformal<Integer> c = Conformal.getInstance(sphere);
+        c.fixedBoundaryCurvature(corners);
+        IterationCounter direct = new IterationCounter();
+        c.setProgressListener(direct);
+        ResultMesh<Integer> expected = c.transform();
+        Multilevel ml = new Multilevel(c.getInternalMesh(), 20);
+        assertTrue("Levels", ml.getLevelCount() > 2);
+        assertTriangleInequality(ml);
+        assertNotNull("Coarse solution", ml.solve(c));
+
+        c = Conformal.getInstance(sphere);
+        c.fixedBoundaryCurvature(corners);
+        c.setMultilevel(true);
+        IterationCounter multilevel = new IterationCounter();
+        c.setProgressListener(multilevel);
+        ResultMesh<Integer> actual = c.transform();
+        assertTrue("Fine iterations saved",
+                   multilevel.iterations < direct.iterations);
+        for (int v = 1; v <= sphere.getVertexCount(); ++v) {
+            assertEquals(expected.getU(v), actual.getU(v), 1e-10);
+            assertEquals(expected.getX(v), actual.getX(v), 1e-10);
+            assertEquals(expected.getY(v), actual.getY(v), 1e-10);
+        }
+    }
+
+    @Test public void testSolve() throws MeshException {
+        GeneratedMesh grid = MeshGenerator.perturbedGrid(30, 0.4, 42);
+        Map<Integer, Double> corners = grid.corners(Math.PI/2);
+        Conformal<Integer> c = Conformal.getInstance(grid);
+        c.fixedBoundaryCurvature(corners);
+        ResultMesh<Integer> expected = c.transform();
+        c = Conformal.getInstance(grid);
+        c.fixedBoundaryCurvature(corners);
+        c.setMultilevel(true);
+        ResultMesh<Integer> actual = c.transform();
+        for (int v = 1; v <= grid.getVertexCount(); ++v) {
+            assertEquals(expected.getU(v), actual.getU(v), 1e-10);
+            assertEquals(expected.getX(v), actual.getX(v), 1e-10);
+            assertEquals(expected.getY(v), actual.getY(v), 1e-10);
+        }
+    }
+
+}
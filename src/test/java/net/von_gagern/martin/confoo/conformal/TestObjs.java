@@ -3,12 +3,19 @@ package net.von_gagern.martin.confoo.conformal;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import org.apache.log4j.Logger;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
 import net.von_gagern.martin.confoo.mesh.LocatedMesh;
 import net.von_gagern.martin.confoo.mesh.MeshException;
+import net.von_gagern.martin.confoo.opt.Newton;
 
 public class TestObjs extends AbstractTestCase {
 
@@ -86,6 +93,276 @@ public class TestObjs extends AbstractTestCase {
         checkEdgeLengths(c.getInternalMesh());
     }
 
+    @Test public void test1Preconditioners()
+        throws MeshException, IOException
+    {
+        for (Newton.PreconditionerType p: Newton.PreconditionerType.values()) {
+            Conformal<Integer> c;
+            c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+            c.setPreconditioner(p);
+            LocatedMesh<Integer> m = c.transform();
+            assertAngle(m, 2, 1, 4, 90.);
+            assertAngle(m, 3, 2, 1, 90.);
+            assertAngle(m, 4, 3, 2, 90.);
+            assertAngle(m, 1, 4, 3, 90.);
+            checkEdgeLengths(c.getInternalMesh());
+        }
+    }
+
+    @Test public void test1DirectSolver()
+        throws MeshException, IOException
+    {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        c.setDirectSolver(true);
+        for (int i = 0; i < 2; ++i) {
+            LocatedMesh<Integer> m = c.transform();
+            assertAngle(m, 2, 1, 4, 90.);
+            assertAngle(m, 3, 2, 1, 90.);
+            assertAngle(m, 4, 3, 2, 90.);
+            assertAngle(m, 1, 4, 3, 90.);
+            checkEdgeLengths(c.getInternalMesh());
+        }
+    }
+
+    @Test public void test1ExactNewton()
+        throws MeshException, IOException
+    {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        c.setInexactNewton(false);
+        LocatedMesh<Integer> m = c.transform();
+        assertAngle(m, 2, 1, 4, 90.);
+        assertAngle(m, 3, 2, 1, 90.);
+        assertAngle(m, 4, 3, 2, 90.);
+        assertAngle(m, 1, 4, 3, 90.);
+        checkEdgeLengths(c.getInternalMesh());
+    }
+
+    @Test public void test1MatrixFree()
+        throws MeshException, IOException
+    {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        c.setMatrixFree(true);
+        LocatedMesh<Integer> m = c.transform();
+        assertAngle(m, 2, 1, 4, 90.);
+        assertAngle(m, 3, 2, 1, 90.);
+        assertAngle(m, 4, 3, 2, 90.);
+        assertAngle(m, 1, 4, 3, 90.);
+        checkEdgeLengths(c.getInternalMesh());
+    }
+
+    @Test public void test1TrustRegion()
+        throws MeshException, IOException
+    {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        c.setOptimizer(Conformal.Optimizer.TRUST_REGION);
+        for (int i = 0; i < 2; ++i) {
+            LocatedMesh<Integer> m = c.transform();
+            assertAngle(m, 2, 1, 4, 90.);
+            assertAngle(m, 3, 2, 1, 90.);
+            assertAngle(m, 4, 3, 2, 90.);
+            assertAngle(m, 1, 4, 3, 90.);
+            checkEdgeLengths(c.getInternalMesh());
+            c.setMatrixFree(true);
+        }
+    }
+
+    @Test public void test1LBFGS() throws MeshException, IOException {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        c.setOptimizer(Conformal.Optimizer.LBFGS);
+        LocatedMesh<Integer> m = c.transform();
+        assertAngle(m, 2, 1, 4, 90.);
+        assertAngle(m, 3, 2, 1, 90.);
+        assertAngle(m, 4, 3, 2, 90.);
+        assertAngle(m, 1, 4, 3, 90.);
+        checkEdgeLengths(c.getInternalMesh());
+    }
+
+    @Test public void test1Parallel() throws MeshException, IOException {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        c.setParallelism(3);
+        LocatedMesh<Integer> m = c.transform();
+        assertAngle(m, 2, 1, 4, 90.);
+        assertAngle(m, 3, 2, 1, 90.);
+        assertAngle(m, 4, 3, 2, 90.);
+        assertAngle(m, 1, 4, 3, 90.);
+        checkEdgeLengths(c.getInternalMesh());
+    }
+
+    @Test public void test1InitialU() throws MeshException, IOException {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        RecordingListener cold = new RecordingListener();
+        c.setProgressListener(cold);
+        ResultMesh<Integer> m1 = c.transform();
+        Map<Integer, Double> u = new HashMap<Integer, Double>();
+        for (int i = 1; i <= 9; ++i)
+            u.put(i, m1.getU(i) + 0.25);
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        RecordingListener warm = new RecordingListener();
+        c.setProgressListener(warm);
+        c.setInitialU(u);
+        ResultMesh<Integer> m2 = c.transform();
+        assertSameResult(m1, m2);
+        assertTrue(warm.iterations + " < " + cold.iterations,
+                   warm.iterations < cold.iterations);
+        u.remove(5);
+        c.setInitialU(u);
+        assertSameResult(m1, c.transform());
+        u.put(10, 0.);
+        try {
+            c.setInitialU(u);
+            fail("Accepted initial value for missing vertex");
+        }
+        catch (NoSuchVertexException e) {
+            // expected
+        }
+    }
+
+    private void assertSameResult(ResultMesh<Integer> expected,
+                                  ResultMesh<Integer> actual) {
+        for (int i = 1; i <= 9; ++i) {
+            assertEquals(expected.getU(i), actual.getU(i), 1e-12);
+            assertEquals(expected.getX(i), actual.getX(i), 1e-12);
+            assertEquals(expected.getY(i), actual.getY(i), 1e-12);
+        }
+    }
+
+    @Test public void test1Session() throws MeshException, IOException {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 60., 120., 60., 120.);
+        ResultMesh<Integer> kite = c.transform();
+        c = conformal("test1.obj");
+        c.isometricBoundaryCondition();
+        ResultMesh<Integer> iso = c.transform();
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        ResultMesh<Integer> square = c.transform();
+
+        c = conformal("test1.obj");
+        for (int i = 0; i < 2; ++i) {
+            c.fixedBoundaryCurvature(angleMap(90., 90., 90., 90.));
+            assertSameResult(square, c.transform());
+            c.fixedBoundaryCurvature(angleMap(60., 120., 60., 120.));
+            assertSameResult(kite, c.transform());
+            c.isometricBoundaryCondition();
+            assertSameResult(iso, c.transform());
+        }
+    }
+
+    private static class RecordingListener
+        implements Conformal.ProgressListener
+    {
+
+        final List<Conformal.Phase> phases = new ArrayList<Conformal.Phase>();
+
+        int iterations = 0;
+
+        int interruptAfter = 0;
+
+        public void phase(Conformal.Phase phase) {
+            phases.add(phase);
+        }
+
+        public void iteration(int iteration, double gradientNorm,
+                              double lamdaSq, double step,
+                              int linearIterations) {
+            assertEquals(++iterations, iteration);
+            assertTrue(gradientNorm > 0);
+            assertTrue(lamdaSq > 0);
+            assertTrue(step > 0 && step <= 1);
+            assertTrue(linearIterations > 0);
+            if (iterations == interruptAfter)
+                Thread.currentThread().interrupt();
+        }
+
+    }
+
+    @Test public void test1Progress() throws MeshException, IOException {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        RecordingListener listener = new RecordingListener();
+        c.setProgressListener(listener);
+        c.transform();
+        assertEquals(Arrays.asList(Conformal.Phase.BOUNDARY,
+                                   Conformal.Phase.OPTIMIZATION,
+                                   Conformal.Phase.LAYOUT),
+                     listener.phases);
+        assertTrue(listener.iterations > 1);
+    }
+
+    @Test public void test1Cancel() throws MeshException, IOException {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        RecordingListener listener = new RecordingListener();
+        listener.interruptAfter = 1;
+        c.setProgressListener(listener);
+        try {
+            c.transform();
+            fail("Ignored interrupt");
+        }
+        catch (CancellationException e) {
+            // expected
+        }
+        finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(1, listener.iterations);
+        c.setProgressListener(null);
+        c.setDeadline(System.currentTimeMillis() - 1);
+        try {
+            c.transform();
+            fail("Ignored deadline");
+        }
+        catch (CancellationException e) {
+            // expected
+        }
+        c.setDeadline(0);
+        LocatedMesh<Integer> m = c.transform();
+        assertAngle(m, 2, 1, 4, 90.);
+        checkEdgeLengths(c.getInternalMesh());
+    }
+
+    private void assertInterrupted(Conformal.Optimizer optimizer)
+        throws MeshException, IOException
+    {
+        Conformal<Integer> c;
+        c = conformalWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
+        c.setOptimizer(optimizer);
+        final int[] iterations = { 0 };
+        c.setProgressListener(new Conformal.ProgressListener() {
+            public void phase(Conformal.Phase phase) { }
+            public void iteration(int iteration, double gradientNorm,
+                                  double lamdaSq, double step,
+                                  int linearIterations) {
+                assertEquals(++iterations[0], iteration);
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            c.transform();
+            fail("Ignored interrupt");
+        }
+        catch (CancellationException e) {
+            // expected
+        }
+        finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(1, iterations[0]);
+    }
+
+    @Test public void test1CancelOptimizers()
+        throws MeshException, IOException
+    {
+        assertInterrupted(Conformal.Optimizer.TRUST_REGION);
+        assertInterrupted(Conformal.Optimizer.LBFGS);
+    }
+
     @Test public void test1Coordinates() throws MeshException, IOException {
         LocatedMesh<Integer> m = runWithFixedBoundary("test1.obj", 90., 90., 90., 90.);
         AffineTransform t = transformToUnitBox(m, 1, 2, 4);
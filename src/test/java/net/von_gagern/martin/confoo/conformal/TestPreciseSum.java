@@ -0,0 +1,34 @@
+package net.von_gagern.martin.confoo.conformal;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestPreciseSum {
+
+    @Test public void testCancellation() {
+        PreciseSum s = new PreciseSum();
+        s.add(1e16);
+        s.add(1.);
+        s.add(-1e16);
+        assertEquals(1., s.doubleValue(), 0.);
+    }
+
+    @Test public void testDifference() {
+        Random rnd = new Random(42);
+        double[] terms = new double[10000];
+        for (int i = 0; i < terms.length; ++i)
+            terms[i] = (rnd.nextDouble() - 0.5)*Math.pow(10, rnd.nextInt(12));
+        PreciseSum s1 = new PreciseSum(), s2 = new PreciseSum();
+        for (int i = 0; i < terms.length; ++i) {
+            s1.add(terms[i]);
+            s2.add(terms[terms.length - 1 - i]);
+        }
+        s2.add(Math.ulp(1.));
+        assertEquals(Math.ulp(1.), s2.minus(s1), 1e-20);
+        PreciseSum s3 = new PreciseSum();
+        s3.set(s1);
+        assertEquals(0., s3.minus(s1), 0.);
+    }
+
+}
@@ -70,6 +70,54 @@ public class TestClausen {
         }
     }
 
+    @Test public void testBatch() {
+        double[] in = new double[x.length + 2];
+        double[] out = new double[in.length];
+        System.arraycopy(x, 0, in, 1, x.length);
+        out[0] = out[in.length - 1] = 42;
+        Clausen.cl2(in, out, 1, in.length - 1);
+        assertEquals(42, out[0], 0);
+        assertEquals(42, out[in.length - 1], 0);
+        for (int i = 0; i < x.length; ++i)
+            assertEquals("x=" + x[i], cl[i], out[i + 1], SMALL_TOL);
+        for (int i = 0; i < x.length; ++i)
+            in[i + 1] = 2*Math.PI - x[i];
+        Clausen.cl2(in, out, 1, in.length - 1);
+        for (int i = 0; i < x.length; ++i)
+            assertEquals("x=" + in[i + 1], -cl[i], out[i + 1], LARGE_TOL);
+    }
+
+    @Test public void testBatchRandom() {
+        Random rnd = new Random(1709);
+        double[] in = new double[1001];
+        for (int i = 0; i < in.length; ++i)
+            in[i] = rnd.nextDouble()*2*Math.PI;
+        in[0] = 0;
+        in[1] = Math.PI;
+        in[2] = 2*Math.PI;
+        in[3] = XSMALL/2;
+        in[4] = 2*Math.PI - XSMALL/2;
+        in[5] = Double.MIN_VALUE;
+        double[] out = new double[in.length];
+        Clausen.cl2(in, out, 0, in.length);
+        for (int i = 0; i < in.length; ++i)
+            assertEquals("x=" + in[i], Clausen.cl2(in[i]), out[i], 16*EPS);
+    }
+
+    @Test public void testBatchOutOfRange() {
+        Random rnd = new Random(1709);
+        double[] in = new double[1000];
+        for (int i = 0; i < in.length; ++i)
+            in[i] = rnd.nextDouble()*2*Math.PI;
+        in[5] = -1;
+        in[6] = 4*Math.PI + 1;
+        in[7] = Double.NaN;
+        double[] out = new double[in.length];
+        Clausen.cl2(in, out, 0, in.length);
+        for (int i = 0; i < in.length; ++i)
+            assertEquals("x=" + in[i], Clausen.cl2(in[i]), out[i], 0);
+    }
+
     @Test public void testCatalan() {
         assertEquals("Catalan's constant",
                      CATALAN, Clausen.cl2(0.5*Math.PI), SMALL_TOL);
@@ -0,0 +1,84 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestBinaryMesh {
+
+    private void assertSameMesh(LocatedMesh<Integer> expected,
+                                LocatedMesh<Integer> actual, int nv) {
+        for (int v = 1; v <= nv; ++v) {
+            assertEquals(expected.getX(v), actual.getX(v), 0.);
+            assertEquals(expected.getY(v), actual.getY(v), 0.);
+            assertEquals(expected.getZ(v), actual.getZ(v), 0.);
+        }
+        Iterator<? extends CorneredTriangle<? extends Integer>> i1, i2;
+        i1 = expected.iterator();
+        i2 = actual.iterator();
+        while (i1.hasNext()) {
+            CorneredTriangle<? extends Integer> t1 = i1.next(), t2 = i2.next();
+            for (int i = 0; i < 3; ++i)
+                assertEquals(t1.getCorner(i), t2.getCorner(i));
+        }
+        assertFalse(i2.hasNext());
+    }
+
+    @Test public void testRoundTrip() throws IOException {
+        GeneratedMesh mesh = MeshGenerator.cutSphere(6, 2.);
+        int nv = mesh.getVertexCount();
+        double[] u = new double[nv], uv = new double[2*nv];
+        for (int i = 0; i < nv; ++i) {
+            u[i] = i/7.;
+            uv[2*i] = mesh.getX(i + 1);
+            uv[2*i + 1] = mesh.getY(i + 1);
+        }
+        File file = File.createTempFile("confoo", BinaryMesh.EXTENSION);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            new BinaryMesh(mesh, u, uv).write(out);
+            out.close();
+            BinaryMesh bin = new BinaryMesh(file);
+            assertEquals(nv, bin.getVertexCount());
+            assertEquals(mesh.getTriangleCount(), bin.getFaceCount());
+            assertSameMesh(mesh, bin, nv);
+            assertTrue(bin.hasU());
+            assertTrue(bin.hasTexture());
+            for (int v = 1; v <= nv; ++v) {
+                assertEquals(u[v - 1], bin.getU(v), 0.);
+                assertEquals(mesh.getY(v), bin.getTextureV(v), 0.);
+            }
+            assertSameMesh(bin, new ObjFormat(bin), nv);
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test public void testBuffer() throws IOException {
+        GeneratedMesh mesh = MeshGenerator.grid(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] { 1, 2, 3 });
+        new BinaryMesh(mesh).write(out);
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        buf.position(3);
+        BinaryMesh bin = new BinaryMesh(buf);
+        assertFalse(bin.hasU());
+        assertSameMesh(mesh, bin, 16);
+        assertEquals(0, buf.position() - 3);
+        buf.limit(buf.limit() - 1);
+        try {
+            new BinaryMesh(buf);
+            fail("Accepted truncated mesh");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import net.von_gagern.martin.confoo.conformal.Conformal;
+
+public class TestMeshGenerator {
+
+    private List<int[]> triangles(GeneratedMesh mesh) {
+        List<int[]> res = new ArrayList<int[]>();
+        for (CorneredTriangle<Integer> t: mesh) {
+            res.add(new int[] { t.getCorner(0), t.getCorner(1),
+                                t.getCorner(2) });
+        }
+        assertEquals(mesh.getTriangleCount(), res.size());
+        return res;
+    }
+
+    private void checkDisk(GeneratedMesh mesh, boolean planar) {
+        int nv = mesh.getVertexCount();
+        List<int[]> ts = triangles(mesh);
+        Set<Long> edges = new HashSet<Long>(), directed = new HashSet<Long>();
+        for (int[] t: ts) {
+            for (int i = 0; i < 3; ++i) {
+                int a = t[i], b = t[(i + 1)%3];
+                assertTrue(a >= 1 && a <= nv);
+                assertTrue("Inconsistent orientation",
+                           directed.add((long)a*nv + b));
+                edges.add((long)Math.min(a, b)*nv + Math.max(a, b));
+            }
+            if (planar) {
+                double x0 = mesh.getX(t[0]), y0 = mesh.getY(t[0]);
+                double area =
+                    (mesh.getX(t[1]) - x0)*(mesh.getY(t[2]) - y0) -
+                    (mesh.getX(t[2]) - x0)*(mesh.getY(t[1]) - y0);
+                assertTrue("Inverted triangle", area > 0);
+            }
+        }
+        assertEquals("Euler characteristic",
+                     1, nv - edges.size() + ts.size());
+    }
+
+    @Test public void testGrid() {
+        GeneratedMesh mesh = MeshGenerator.grid(10);
+        assertEquals(121, mesh.getVertexCount());
+        assertEquals(200, mesh.getTriangleCount());
+        checkDisk(mesh, true);
+        assertEquals(Math.sqrt(2)/10, mesh.edgeLength(1, 13), 1e-15);
+        checkDisk(MeshGenerator.perturbedGrid(10, 0.4, 42), true);
+        checkDisk(MeshGenerator.badTriangles(10, 0.95, 42), true);
+    }
+
+    @Test public void testCurved() {
+        GeneratedMesh cylinder = MeshGenerator.cutCylinder(5);
+        assertEquals(6*21, cylinder.getVertexCount());
+        checkDisk(cylinder, false);
+        GeneratedMesh sphere = MeshGenerator.cutSphere(5, 3*Math.PI/4);
+        assertEquals(91, sphere.getVertexCount());
+        checkDisk(sphere, false);
+        for (int v = 1; v <= sphere.getVertexCount(); ++v) {
+            double x = sphere.getX(v), y = sphere.getY(v), z = sphere.getZ(v);
+            assertEquals(1., x*x + y*y + z*z, 1e-14);
+        }
+    }
+
+    private void assertDelaunay(GeneratedMesh mesh) {
+        checkDisk(mesh, true);
+        double[] coords = new double[3*mesh.getVertexCount()];
+        for (int v = 1; v <= mesh.getVertexCount(); ++v) {
+            coords[3*v - 3] = mesh.getX(v);
+            coords[3*v - 2] = mesh.getY(v);
+        }
+        for (int[] t: triangles(mesh)) {
+            for (int v = 1; v <= mesh.getVertexCount(); ++v) {
+                if (v == t[0] || v == t[1] || v == t[2]) continue;
+                double in = MeshGenerator.inCircle
+                    (coords, t[0] - 1, t[1] - 1, t[2] - 1, v - 1);
+                assertTrue("Not Delaunay", in <= 1e-12);
+            }
+        }
+    }
+
+    @Test public void testDelaunayDisk() {
+        GeneratedMesh mesh = MeshGenerator.delaunayDisk(8, 42);
+        assertEquals(217, mesh.getVertexCount());
+        assertDelaunay(mesh);
+        mesh = MeshGenerator.delaunayDisk(24, 7);
+        assertEquals(1801, mesh.getVertexCount());
+        assertDelaunay(mesh);
+    }
+
+    @Test public void testConformal() throws MeshException {
+        GeneratedMesh mesh = MeshGenerator.perturbedGrid(8, 0.4, 42);
+        Conformal<Integer> c = Conformal.getInstance(mesh);
+        c.fixedBoundaryCurvature(mesh.corners(Math.PI/2));
+        LocatedMesh<Integer> res = c.transform();
+        for (int v = 1; v <= mesh.getVertexCount(); ++v)
+            assertEquals(0., res.getZ(v), 0.);
+    }
+
+}
@@ -0,0 +1,168 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestObjFormat {
+
+    private static final String TEXT =
+        "# comment\n" +
+        "v 0 0 0\r\n" +
+        "vt 0.5 0.5\n" +
+        "v  1.5\t-2e-3 +3.25E2 \n" +
+        "vn 0 0 1\n" +
+        "v 0x1p-2 1d NaN\r" +
+        "f 1 2 3\n" +
+        "f 3/1 2/1/1 1//1\n" +
+        "g group\n" +
+        "f 2 3 1";
+
+    private void checkText(ObjFormat obj) {
+        assertEquals(0., obj.getX(1), 0.);
+        assertEquals(1.5, obj.getX(2), 0.);
+        assertEquals(-2e-3, obj.getY(2), 0.);
+        assertEquals(325., obj.getZ(2), 0.);
+        assertEquals(0.25, obj.getX(3), 0.);
+        assertEquals(1., obj.getY(3), 0.);
+        assertTrue(Double.isNaN(obj.getZ(3)));
+        int[][] expected = { { 1, 2, 3 }, { 3, 2, 1 }, { 2, 3, 1 } };
+        int n = 0;
+        for (CorneredTriangle<Integer> t: obj) {
+            for (int i = 0; i < 3; ++i)
+                assertEquals(expected[n][i], t.getCorner(i).intValue());
+            ++n;
+        }
+        assertEquals(expected.length, n);
+    }
+
+    @Test public void testParse() throws IOException {
+        checkText(new ObjFormat(new StringReader(TEXT)));
+        checkText(new ObjFormat(new ByteArrayInputStream
+                                (TEXT.getBytes("ISO-8859-1"))));
+    }
+
+    @Test public void testLongLines() throws IOException {
+        StringBuilder buf = new StringBuilder("# ");
+        for (int i = 0; i < 200000; ++i)
+            buf.append('x');
+        buf.append("\nv 1 2 3\nf 1 1 1\n");
+        ObjFormat obj = new ObjFormat(new StringReader(buf.toString()));
+        assertEquals(3., obj.getZ(1), 0.);
+    }
+
+    @Test public void testRelative() throws IOException {
+        ObjFormat obj = new ObjFormat(new StringReader
+            ("v 0 0 0\nv 1 0 0\nf -2 -1 1\nv 0 1 0\nf 1/1 -2/1 -1/1\n"));
+        int[][] expected = { { 1, 2, 1 }, { 1, 2, 3 } };
+        int n = 0;
+        for (CorneredTriangle<Integer> t: obj) {
+            for (int i = 0; i < 3; ++i)
+                assertEquals(expected[n][i], t.getCorner(i).intValue());
+            ++n;
+        }
+        assertInvalid("f -0 1 1");
+        try {
+            new ObjFormat(new StringReader("v 0 0 0\nf -1 -2 1\n"));
+            fail("Accepted index before first vertex");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test public void testParallel() throws IOException {
+        StringBuilder buf = new StringBuilder();
+        new ObjFormat(MeshGenerator.perturbedGrid(20, 0.4, 42)).write(buf);
+        for (int i = 0; i < 50; ++i)
+            buf.append("v ").append(i).append(" 0 0\nf -1 -2 -3\n");
+        File file = File.createTempFile("confoo", ".obj");
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                                                "US-ASCII");
+            out.write(buf.toString());
+            out.close();
+            ObjParser expected = new ObjParser();
+            expected.read(new StringReader(buf.toString()));
+            FileInputStream in = new FileInputStream(file);
+            try {
+                ObjParser actual = ObjParser.load(in.getChannel(), 3, 100);
+                assertArrayEquals(expected.getCoords(),
+                                  actual.getCoords(), 0.);
+                assertArrayEquals(expected.getFaces(), actual.getFaces());
+            }
+            finally {
+                in.close();
+            }
+            ObjFormat obj = new ObjFormat(file, 2);
+            assertEquals(442, expected.getFaces()[3*800]);
+            assertEquals(0., obj.getX(442), 0.);
+            assertEquals(49., obj.getX(491), 0.);
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testZeroParallelism() throws IOException {
+        new ObjFormat(new File("unused.obj"), 0);
+    }
+
+    private void assertInvalid(String line) {
+        try {
+            new ObjFormat(new StringReader("v 0 0 0\n" + line + "\n"));
+            fail("Accepted " + line);
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().endsWith(line));
+        }
+    }
+
+    @Test public void testInvalid() {
+        assertInvalid("v 1 2");
+        assertInvalid("v 1 2 3 4");
+        assertInvalid("f 1 1");
+        assertInvalid("f 1 1 1 1");
+        assertInvalid("f 1 1 /1");
+        assertInvalid("f 1 1 1/2/3/4");
+        assertInvalid("f 1 1 1a");
+        assertInvalid("f 1 1 99999999999");
+    }
+
+    @Test public void testParseDouble() {
+        Random rnd = new Random(42);
+        String[] fixed = { "0", "-0", "1", "-1.", ".5", "1e22", "1e23",
+                           "9007199254740993", "123456789012345678",
+                           "0.30000000000000004", "4.9e-324", "1e-400",
+                           "1.7976931348623157e308", "2e308", "-0.0e5" };
+        for (String s: fixed)
+            checkParseDouble(s);
+        for (int i = 0; i < 100000; ++i) {
+            double d = Double.longBitsToDouble(rnd.nextLong());
+            checkParseDouble(Double.toString(d));
+            d = (rnd.nextDouble() - 0.5)*Math.pow(10, rnd.nextInt(20) - 10);
+            checkParseDouble(Double.toString(d));
+            checkParseDouble(String.format(Locale.US, "%.9f", d));
+            checkParseDouble(String.format(Locale.US, "%.6e", d));
+        }
+    }
+
+    private void checkParseDouble(String s) {
+        byte[] b = (" " + s + " ").getBytes();
+        double expected = Double.parseDouble(s);
+        double actual = ObjParser.parseDouble(b, 1, b.length - 1);
+        assertEquals(s, Double.doubleToLongBits(expected),
+                     Double.doubleToLongBits(actual));
+    }
+
+}
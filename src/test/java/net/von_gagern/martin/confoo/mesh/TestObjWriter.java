@@ -0,0 +1,106 @@
+package net.von_gagern.martin.confoo.mesh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TestObjWriter {
+
+    private String format(double x, int digits) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjWriter w = new ObjWriter(out);
+        w.setDigits(digits);
+        w.vertex(x, 0, 0);
+        w.flush();
+        String line = out.toString("US-ASCII");
+        return line.substring(2, line.indexOf(' ', 2));
+    }
+
+    @Test public void testFormat() throws IOException {
+        assertEquals("0", format(0, 6));
+        assertEquals("1", format(1, 6));
+        assertEquals("-2.5", format(-2.5, 6));
+        assertEquals("0.333333", format(1./3, 6));
+        assertEquals("0.000123457", format(1.23456789e-4, 6));
+        assertEquals("1.23457E-5", format(1.23456789e-5, 6));
+        assertEquals("123457", format(123456.7, 6));
+        assertEquals("1.23457E6", format(1234567, 6));
+        assertEquals("1E3", format(999.99, 3));
+        assertEquals("10", format(9.9999, 3));
+        assertEquals("1.0E-300", format(1e-300, 0));
+        assertEquals("NaN", format(Double.NaN, 6));
+    }
+
+    @Test public void testPrecision() throws IOException {
+        Random rnd = new Random(42);
+        for (int i = 0; i < 20000; ++i) {
+            double x = rnd.nextDouble() - 0.5;
+            x *= Math.pow(10, rnd.nextInt(40) - 20);
+            int digits = 1 + rnd.nextInt(ObjWriter.MAX_DIGITS);
+            double y = Double.parseDouble(format(x, digits));
+            double tolerance = 0.5000001*Math.pow(10, 1 - digits);
+            assertEquals(x + " with " + digits, x, y,
+                         Math.abs(x)*tolerance);
+            assertEquals(x, Double.parseDouble(format(x, 0)), 0.);
+        }
+    }
+
+    @Test public void testMesh() throws IOException {
+        GeneratedMesh mesh = MeshGenerator.perturbedGrid(5, 0.4, 42);
+        StringBuilder expected = new StringBuilder();
+        new ObjFormat(mesh).write(expected);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new ObjWriter(actual).write(mesh);
+        assertEquals(expected.toString(), actual.toString("US-ASCII"));
+    }
+
+    private void assertRoundtrip(int digits) throws IOException {
+        GeneratedMesh mesh = MeshGenerator.perturbedGrid(5, 0.4, 42);
+        Map<Integer, Integer> vm = new HashMap<Integer, Integer>();
+        File file = File.createTempFile("confoo", ".obj");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                ObjWriter w = new ObjWriter(out);
+                w.setDigits(digits);
+                w.write(mesh, vm);
+            }
+            finally {
+                out.close();
+            }
+            assertEquals(mesh.getVertexCount(), vm.size());
+            ObjFormat obj = new ObjFormat(file, 2);
+            assertEquals(mesh.getVertexCount(), obj.getVertexCount());
+            double tolerance =
+                digits == 0 ? 0 : 0.5000001*Math.pow(10, 1 - digits);
+            for (Map.Entry<Integer, Integer> e: vm.entrySet()) {
+                int v = e.getKey(), i = e.getValue();
+                assertEquals(mesh.getX(v), obj.getX(i),
+                             Math.abs(mesh.getX(v))*tolerance);
+                assertEquals(mesh.getY(v), obj.getY(i),
+                             Math.abs(mesh.getY(v))*tolerance);
+                assertEquals(mesh.getZ(v), obj.getZ(i),
+                             Math.abs(mesh.getZ(v))*tolerance);
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test public void testRoundtrip() throws IOException {
+        assertRoundtrip(0);
+    }
+
+    @Test public void testRoundtripDigits() throws IOException {
+        assertRoundtrip(6);
+    }
+
+}
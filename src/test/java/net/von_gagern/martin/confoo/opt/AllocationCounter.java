@@ -0,0 +1,73 @@
+package net.von_gagern.martin.confoo.opt;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Counts the bytes allocated by the current thread.<p>
+ *
+ * This relies on <code>com.sun.management.ThreadMXBean</code>, which
+ * is not part of every JVM and whose allocation counter requires Java
+ * 6u25 or later. The class is accessed reflectively, so tests using
+ * this counter can be compiled and skipped everywhere else.
+ */
+public class AllocationCounter {
+
+    private final Object bean;
+
+    private final Method allocatedBytes;
+
+    private final Long threadId;
+
+    private AllocationCounter(Object bean, Method allocatedBytes) {
+        this.bean = bean;
+        this.allocatedBytes = allocatedBytes;
+        threadId = Thread.currentThread().getId();
+    }
+
+    /**
+     * Create a counter for the current thread.
+     * @return the counter, or <code>null</code> if the JVM does not
+     *         support counting allocated bytes or has it disabled
+     */
+    public static AllocationCounter getInstance() {
+        try {
+            Class<?> cls = Class.forName("com.sun.management.ThreadMXBean");
+            Object bean = ManagementFactory.getThreadMXBean();
+            if (!cls.isInstance(bean))
+                return null;
+            Method supported =
+                cls.getMethod("isThreadAllocatedMemorySupported");
+            Method enabled = cls.getMethod("isThreadAllocatedMemoryEnabled");
+            if (!(Boolean)supported.invoke(bean) ||
+                !(Boolean)enabled.invoke(bean))
+                return null;
+            Method allocatedBytes =
+                cls.getMethod("getThreadAllocatedBytes", long.class);
+            AllocationCounter counter =
+                new AllocationCounter(bean, allocatedBytes);
+            if (counter.get() < 0)
+                return null;
+            return counter;
+        }
+        catch (Exception e) {
+            // class or methods missing, or measurement unsupported
+            return null;
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated so far.
+     * Must be called from the thread which created the counter.
+     * @return the total number of bytes allocated by that thread
+     */
+    public long get() {
+        try {
+            return (Long)allocatedBytes.invoke(bean, threadId);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package net.von_gagern.martin.confoo.opt;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LBFGS}.
+ */
+public class TestLBFGS {
+
+    /**
+     * Base class for functionals without second derivatives, which
+     * are never needed by the optimizer.
+     */
+    private static abstract class FirstOrder implements Functional {
+
+        protected final double[] x;
+
+        private double lastValue;
+
+        FirstOrder(int n) {
+            x = new double[n];
+        }
+
+        public int getInputDimension() {
+            return x.length;
+        }
+
+        public void setArgument(Vector u) {
+            for (int i = 0; i < x.length; ++i)
+                x[i] = u.get(i);
+        }
+
+        protected abstract double currentValue();
+
+        public double value() {
+            lastValue = currentValue();
+            return lastValue;
+        }
+
+        public double valueChange() {
+            return currentValue() - lastValue;
+        }
+
+        public Matrix hessian(Matrix h) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Vector hessianTimes(Vector x, Vector y) {
+            throw new UnsupportedOperationException();
+        }
+
+        public double evaluate(int flags, Vector g, Matrix h) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    /**
+     * The chained Rosenbrock function
+     * sum<sub>i</sub> (100 (x<sub>i+1</sub> - x<sub>i</sub><sup>2</sup>)<sup>2</sup>
+     * + (1 - x<sub>i</sub>)<sup>2</sup>),
+     * with its minimum at x<sub>i</sub> = 1 at the end of a long
+     * curved valley.
+     */
+    private static class Rosenbrock extends FirstOrder {
+
+        Rosenbrock(int n) {
+            super(n);
+        }
+
+        protected double currentValue() {
+            double sum = 0;
+            for (int i = 0; i < x.length - 1; ++i) {
+                double a = x[i + 1] - x[i]*x[i], b = 1 - x[i];
+                sum += 100*a*a + b*b;
+            }
+            return sum;
+        }
+
+        public Vector gradient(Vector g) {
+            if (g == null) g = new DenseVector(x.length);
+            for (int i = 0; i < x.length; ++i) {
+                double d = 0;
+                if (i < x.length - 1)
+                    d += -400*x[i]*(x[i + 1] - x[i]*x[i]) - 2*(1 - x[i]);
+                if (i > 0)
+                    d += 200*(x[i] - x[i - 1]*x[i - 1]);
+                g.set(i, d);
+            }
+            return g;
+        }
+
+    }
+
+    /**
+     * The functional
+     * OFFSET + sum<sub>i</sub> cos(x<sub>i</sub>)/2,
+     * which has its minimum at x<sub>i</sub> = pi and is concave
+     * around zero. The offset makes small directional derivatives
+     * negligible compared to the value, so full steps are taken
+     * without line search, and steps across the concave part violate
+     * the curvature condition.
+     */
+    private static class OffsetCosine extends FirstOrder {
+
+        private static final double OFFSET = 1e13;
+
+        OffsetCosine(int n) {
+            super(n);
+        }
+
+        protected double currentValue() {
+            double sum = OFFSET;
+            for (int i = 0; i < x.length; ++i)
+                sum += Math.cos(x[i])/2;
+            return sum;
+        }
+
+        public Vector gradient(Vector g) {
+            if (g == null) g = new DenseVector(x.length);
+            for (int i = 0; i < x.length; ++i)
+                g.set(i, -Math.sin(x[i])/2);
+            return g;
+        }
+
+    }
+
+    private void assertArgMin(LBFGS lbfgs, double expected, double tol) {
+        assertEquals(Newton.ExitCondition.GRADIENT, lbfgs.getExitCondition());
+        Vector x = lbfgs.getArgMin();
+        for (int i = 0; i < x.size(); ++i)
+            assertEquals("x(" + i + ")", expected, x.get(i), tol);
+    }
+
+    @Test public void testRosenbrock() {
+        for (int m: new int[] { 1, 3, 8, 20 }) {
+            LBFGS lbfgs = LBFGS.getInstance(new Rosenbrock(10));
+            lbfgs.setHistorySize(m);
+            assertEquals(m, lbfgs.getHistorySize());
+            lbfgs.setEpsilon(Newton.ExitCondition.GRADIENT, 1e-10);
+            lbfgs.setEpsilon(Newton.ExitCondition.DELTA, 0);
+            lbfgs.setMaxIterations(10000);
+            lbfgs.optimize();
+            assertArgMin(lbfgs, 1, 1e-9);
+        }
+    }
+
+    @Test public void testNegativeCurvature() {
+        OffsetCosine f = new OffsetCosine(3);
+        LBFGS lbfgs = LBFGS.getInstance(f);
+        DenseVector start = new DenseVector(3);
+        start.set(0, 0.5);
+        start.set(1, 1);
+        start.set(2, 1.5);
+        lbfgs.setStartingPoint(start);
+        lbfgs.setEpsilon(Newton.ExitCondition.GRADIENT, 1e-12);
+        lbfgs.setEpsilon(Newton.ExitCondition.DELTA, 0);
+        lbfgs.setMaxIterations(1000);
+        lbfgs.optimize();
+        assertArgMin(lbfgs, Math.PI, 1e-11);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testZeroHistory() {
+        LBFGS.getInstance(new Rosenbrock(2)).setHistorySize(0);
+    }
+
+}
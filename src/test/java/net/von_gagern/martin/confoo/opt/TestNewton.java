@@ -0,0 +1,199 @@
+package net.von_gagern.martin.confoo.opt;
+
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Tests for {@link Newton} using a simple convex functional on a
+ * chain of variables.
+ */
+public class TestNewton {
+
+    /**
+     * The functional
+     * sum<sub>i</sub> (exp(x<sub>i</sub>) - c<sub>i</sub> x<sub>i</sub>)
+     * + sum<sub>i</sub> (x<sub>i+1</sub> - x<sub>i</sub>)<sup>2</sup>/2,
+     * which evaluates without allocating memory once its hessian
+     * exists.
+     */
+    private static class Chain implements Functional {
+
+        private final double[] c;
+
+        private final double[] x;
+
+        private double lastValue;
+
+        private CompRowMatrix hessian;
+
+        Chain(int n) {
+            c = new double[n];
+            x = new double[n];
+            for (int i = 0; i < n; ++i)
+                c[i] = 2 + Math.sin(i);
+        }
+
+        public int getInputDimension() {
+            return x.length;
+        }
+
+        public void setArgument(Vector u) {
+            for (int i = 0; i < x.length; ++i)
+                x[i] = u.get(i);
+        }
+
+        private double currentValue() {
+            double sum = 0;
+            for (int i = 0; i < x.length; ++i) {
+                sum += Math.exp(x[i]) - c[i]*x[i];
+                if (i > 0)
+                    sum += 0.5*(x[i] - x[i - 1])*(x[i] - x[i - 1]);
+            }
+            return sum;
+        }
+
+        public double value() {
+            lastValue = currentValue();
+            return lastValue;
+        }
+
+        public double valueChange() {
+            return currentValue() - lastValue;
+        }
+
+        public Vector gradient(Vector g) {
+            if (g == null) g = new DenseVector(x.length);
+            for (int i = 0; i < x.length; ++i) {
+                double d = Math.exp(x[i]) - c[i];
+                if (i > 0) d += x[i] - x[i - 1];
+                if (i < x.length - 1) d += x[i] - x[i + 1];
+                g.set(i, d);
+            }
+            return g;
+        }
+
+        public Matrix hessian(Matrix h) {
+            int n = x.length;
+            if (h == null) {
+                if (hessian == null) {
+                    int[][] nz = new int[n][];
+                    for (int i = 0; i < n; ++i) {
+                        int from = Math.max(i - 1, 0);
+                        int to = Math.min(i + 1, n - 1);
+                        nz[i] = new int[to - from + 1];
+                        for (int j = from; j <= to; ++j)
+                            nz[i][j - from] = j;
+                    }
+                    hessian = new CompRowMatrix(n, n, nz);
+                }
+                h = hessian;
+            }
+            for (int i = 0; i < n; ++i) {
+                double d = Math.exp(x[i]);
+                if (i > 0) {
+                    d += 1;
+                    h.set(i, i - 1, -1);
+                }
+                if (i < n - 1) {
+                    d += 1;
+                    h.set(i, i + 1, -1);
+                }
+                h.set(i, i, d);
+            }
+            return h;
+        }
+
+        public Vector hessianTimes(Vector x, Vector y) {
+            throw new UnsupportedOperationException();
+        }
+
+        public double evaluate(int flags, Vector g, Matrix h) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private Newton solve(boolean inexact) throws Exception {
+        Newton newton = Newton.getInstance(new Chain(1000));
+        newton.setInexact(inexact);
+        newton.setEpsilon(Newton.ExitCondition.GRADIENT, 1e-11);
+        newton.setEpsilon(Newton.ExitCondition.ESTIMATE, 0);
+        newton.optimize();
+        assertEquals(Newton.ExitCondition.GRADIENT,
+                     newton.getExitCondition());
+        return newton;
+    }
+
+    @Test public void testInexact() throws Exception {
+        Newton exact = solve(false), inexact = solve(true);
+        assertTrue(inexact.getLinearIterations() + " < " +
+                   exact.getLinearIterations(),
+                   inexact.getLinearIterations() <
+                   exact.getLinearIterations());
+        Vector x = exact.getArgMin(), y = inexact.getArgMin();
+        for (int i = 0; i < x.size(); ++i)
+            assertEquals("x(" + i + ")", x.get(i), y.get(i), 1e-10);
+    }
+
+    @Test public void testRoundingNoise() throws Exception {
+        // Close to the optimum, the predicted decrease is far below the
+        // rounding errors of the value change, which would reject every
+        // full step and let the line search crawl along.
+        Newton newton = Newton.getInstance(new Chain(100));
+        newton.setEpsilon(Newton.ExitCondition.GRADIENT, 1e-13);
+        newton.setEpsilon(Newton.ExitCondition.ESTIMATE, 0);
+        newton.setEpsilon(Newton.ExitCondition.DELTA, 0);
+        newton.setMaxIterations(20);
+        newton.optimize();
+        assertEquals(Newton.ExitCondition.GRADIENT,
+                     newton.getExitCondition());
+    }
+
+    private long allocatedBytes(AllocationCounter counter, Newton newton,
+                                int iterations)
+        throws Exception
+    {
+        newton.setMaxIterations(iterations);
+        long before = counter.get();
+        newton.optimize();
+        long after = counter.get();
+        assertEquals(Newton.ExitCondition.ITERATIONS,
+                     newton.getExitCondition());
+        return after - before;
+    }
+
+    @Test public void testAllocation() throws Exception {
+        AllocationCounter counter = AllocationCounter.getInstance();
+        assumeTrue(counter != null);
+        Newton newton = Newton.getInstance(new Chain(1000));
+        newton.setInexact(true);
+        newton.setEpsilon(Newton.ExitCondition.GRADIENT, 0);
+        newton.setEpsilon(Newton.ExitCondition.ESTIMATE, 0);
+        newton.setEpsilon(Newton.ExitCondition.DELTA, 0);
+        Logger confoo = Logger.getLogger("net.von_gagern.martin.confoo");
+        Level level = confoo.getLevel();
+        confoo.setLevel(Level.WARN);
+        try {
+            for (int pass = 0; pass < 20; ++pass)
+                allocatedBytes(counter, newton, 4);
+            long few = Long.MAX_VALUE, many = Long.MAX_VALUE;
+            for (int pass = 0; pass < 5; ++pass) {
+                few = Math.min(few, allocatedBytes(counter, newton, 2));
+                many = Math.min(many, allocatedBytes(counter, newton, 4));
+            }
+            assertEquals("Bytes allocated by two more iterations",
+                         few, many);
+        }
+        finally {
+            confoo.setLevel(level);
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package net.von_gagern.martin.confoo.opt;
+
+import java.util.Random;
+import no.uib.cipr.matrix.DenseMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.MatrixNotSPDException;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares solutions of {@link SparseCholesky} with those of a dense
+ * solver, for the discrete Laplacian of a grid.
+ */
+public class TestSparseCholesky {
+
+    static final double TOL = 1e-10;
+
+    private CompRowMatrix gridLaplacian(int w, int h, double shift) {
+        int n = w*h;
+        int[][] nz = new int[n][];
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                int i = y*w + x, k = 0;
+                int[] row = new int[5];
+                if (y > 0) row[k++] = i - w;
+                if (x > 0) row[k++] = i - 1;
+                row[k++] = i;
+                if (x < w - 1) row[k++] = i + 1;
+                if (y < h - 1) row[k++] = i + w;
+                nz[i] = new int[k];
+                System.arraycopy(row, 0, nz[i], 0, k);
+            }
+        }
+        CompRowMatrix a = new CompRowMatrix(n, n, nz);
+        for (int i = 0; i < n; ++i) {
+            for (int j: nz[i]) {
+                if (i == j) a.set(i, j, nz[i].length - 1 + shift);
+                else a.set(i, j, -1);
+            }
+        }
+        return a;
+    }
+
+    private void assertSolution(CompRowMatrix a, SparseCholesky c,
+                                Random rnd) {
+        int n = a.numRows();
+        Vector b = new DenseVector(n);
+        for (int i = 0; i < n; ++i)
+            b.set(i, rnd.nextDouble() - 0.5);
+        Vector expected = new DenseVector(n);
+        new DenseMatrix(a).solve(b, expected);
+        c.factor(a);
+        Vector actual = c.solve(b, new DenseVector(n));
+        for (int i = 0; i < n; ++i)
+            assertEquals("x[" + i + "]", expected.get(i), actual.get(i), TOL);
+    }
+
+    @Test public void testGrid() {
+        Random rnd = new Random(42);
+        CompRowMatrix a = gridLaplacian(17, 23, 0.01);
+        SparseCholesky c = new SparseCholesky(a);
+        assertSolution(a, c, rnd);
+
+        // reuse symbolic analysis for different values
+        CompRowMatrix a2 = gridLaplacian(17, 23, 1.);
+        assertTrue(c.hasPattern(a2));
+        assertSolution(a2, c, rnd);
+    }
+
+    @Test public void testOrdering() {
+        CompRowMatrix a = gridLaplacian(40, 40, 1.);
+        int n = a.numRows();
+        int[] order = SparseCholesky.nestedDissection
+            (n, a.getRowPointers(), a.getColumnIndices());
+        boolean[] seen = new boolean[n];
+        for (int v: order) {
+            assertFalse("Duplicate " + v, seen[v]);
+            seen[v] = true;
+        }
+        // natural ordering would have a bandwidth fill of about n*w
+        int fill = new SparseCholesky(a).factorSize();
+        assertTrue("Fill " + fill, fill < n*40/2);
+    }
+
+    @Test(expected=MatrixNotSPDException.class) public void testNotSPD() {
+        CompRowMatrix a = gridLaplacian(5, 5, -1.);
+        new SparseCholesky(a).factor(a);
+    }
+
+}
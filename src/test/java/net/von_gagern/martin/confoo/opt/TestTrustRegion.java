@@ -0,0 +1,106 @@
+package net.von_gagern.martin.confoo.opt;
+
+import no.uib.cipr.matrix.DenseMatrix;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TrustRegion}.
+ */
+public class TestTrustRegion {
+
+    /**
+     * The functional
+     * sum<sub>i</sub> (-log(1 - x<sub>i</sub>) - c x<sub>i</sub>),
+     * which is NaN for arguments with any x<sub>i</sub> &gt; 1 and
+     * has its minimum at x<sub>i</sub> = 1 - 1/c.
+     */
+    private static class Barrier implements Functional {
+
+        private final double c;
+
+        private final double[] x;
+
+        private double lastValue;
+
+        Barrier(int n, double c) {
+            this.c = c;
+            x = new double[n];
+        }
+
+        public int getInputDimension() {
+            return x.length;
+        }
+
+        public void setArgument(Vector u) {
+            for (int i = 0; i < x.length; ++i)
+                x[i] = u.get(i);
+        }
+
+        private double currentValue() {
+            double sum = 0;
+            for (int i = 0; i < x.length; ++i)
+                sum += -Math.log(1 - x[i]) - c*x[i];
+            return sum;
+        }
+
+        public double value() {
+            lastValue = currentValue();
+            return lastValue;
+        }
+
+        public double valueChange() {
+            return currentValue() - lastValue;
+        }
+
+        public Vector gradient(Vector g) {
+            if (g == null) g = new DenseVector(x.length);
+            for (int i = 0; i < x.length; ++i)
+                g.set(i, 1/(1 - x[i]) - c);
+            return g;
+        }
+
+        public Matrix hessian(Matrix h) {
+            if (h == null) h = new DenseMatrix(x.length, x.length);
+            for (int i = 0; i < x.length; ++i)
+                h.set(i, i, 1/((1 - x[i])*(1 - x[i])));
+            return h;
+        }
+
+        public Vector hessianTimes(Vector x, Vector y) {
+            throw new UnsupportedOperationException();
+        }
+
+        public double evaluate(int flags, Vector g, Matrix h) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    @Test public void testUndefined() {
+        TrustRegion tr = TrustRegion.getInstance(new Barrier(3, 10));
+        tr.setRadius(100, 1000);
+        tr.setMaxIterations(100);
+        final int[] rejected = { 0 };
+        tr.setIterationListener(new IterationListener() {
+            public void iteration(int iteration, double gradientNorm,
+                                  double lamdaSq, double step,
+                                  int linearIterations) {
+                assertTrue(linearIterations > 0);
+                if (step == 0)
+                    ++rejected[0];
+            }
+        });
+        tr.optimize();
+        assertFalse(Newton.ExitCondition.ITERATIONS == tr.getExitCondition());
+        assertTrue(tr.getRejectedSteps() > 0);
+        assertEquals(tr.getRejectedSteps(), rejected[0]);
+        Vector x = tr.getArgMin();
+        for (int i = 0; i < x.size(); ++i)
+            assertEquals(0.9, x.get(i), 1e-6);
+    }
+
+}